@@ -54,8 +54,11 @@ public class BeanELResolver extends ELResolver {
 
     private final boolean readOnly;
 
-    private final BeanElResolverConcurrentCache<String, BeanElResolverBeanProperties> cache =
-        new BeanElResolverConcurrentCache<String, BeanElResolverBeanProperties>(CACHE_SIZE);
+    // Keyed by class rather than by class name, so that classes of the same
+    // name loaded by different class loaders do not replace each other and
+    // the weak generation of the cache releases them per class loader
+    private final BeanElResolverConcurrentCache<Class<?>, BeanElResolverBeanProperties> cache =
+        new BeanElResolverConcurrentCache<Class<?>, BeanElResolverBeanProperties>(CACHE_SIZE);
 
     public BeanELResolver() {
         this.readOnly = false;
@@ -241,10 +244,10 @@ public class BeanELResolver extends ELResolver {
         Class<?> type = base.getClass();
         String prop = property.toString();
 
-        BeanElResolverBeanProperties props = this.cache.get(type.getName());
-        if (props == null || type != props.getType()) {
+        BeanElResolverBeanProperties props = this.cache.get(type);
+        if (props == null) {
             props = new BeanElResolverBeanProperties(type);
-            this.cache.put(type.getName(), props);
+            this.cache.put(type, props);
         }
 
         return props.get(ctx, prop);
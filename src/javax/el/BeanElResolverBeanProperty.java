@@ -2,6 +2,7 @@ package javax.el;
 
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 public final class BeanElResolverBeanProperty {
     private final Class<?> type;
@@ -28,7 +29,7 @@ public final class BeanElResolverBeanProperty {
 
     public boolean isReadOnly() {
         return this.write == null
-            && (null == (this.write = Util.getMethod(this.owner, descriptor.getWriteMethod())));
+            && (null == (this.write = accessible(Util.getMethod(this.owner, descriptor.getWriteMethod()))));
     }
 
     public Method getWriteMethod() {
@@ -41,7 +42,8 @@ public final class BeanElResolverBeanProperty {
 
     public Method write(ELContext ctx) {
         if (this.write == null) {
-            this.write = Util.getMethod(this.owner, descriptor.getWriteMethod());
+            this.write = accessible(
+                    Util.getMethod(this.owner, descriptor.getWriteMethod()));
             if (this.write == null) {
                 throw new PropertyNotFoundException(Util.message(ctx,
                         "propertyNotWritable", new Object[] {
@@ -53,7 +55,8 @@ public final class BeanElResolverBeanProperty {
 
     public Method read(ELContext ctx) {
         if (this.read == null) {
-            this.read = Util.getMethod(this.owner, descriptor.getReadMethod());
+            this.read = accessible(
+                    Util.getMethod(this.owner, descriptor.getReadMethod()));
             if (this.read == null) {
                 throw new PropertyNotFoundException(Util.message(ctx,
                         "propertyNotReadable", new Object[] {
@@ -62,4 +65,21 @@ public final class BeanElResolverBeanProperty {
         }
         return this.read;
     }
-}
\ No newline at end of file
+
+    /*
+     * Public methods of public classes can be called from anywhere, turning
+     * off the access check saves it on every invocation.
+     */
+    private static Method accessible(Method m) {
+        if (m != null && Modifier.isPublic(m.getModifiers())
+                && Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+            try {
+                m.setAccessible(true);
+            } catch (RuntimeException e) {
+                // SecurityException or not allowed otherwise, the access is
+                // checked on each call then
+            }
+        }
+        return m;
+    }
+}
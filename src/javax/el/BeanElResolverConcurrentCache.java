@@ -1,42 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package javax.el;
 
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * A size bounded cache without locks, evicting the least frequently used
+ * entries. This is the algorithm of
+ * <code>org.apache.tomcat.util.collections.ConcurrentLfuCache</code>, kept
+ * here so the EL API does not depend on the container.
+ * <p>
+ * Evicted entries are kept in a long term generation which only holds weak
+ * references to the keys and values, so that the classes of an undeployed
+ * web application, and their class loader, can be collected. An entry found
+ * there is moved back to the bounded generation.
+ */
 public final class BeanElResolverConcurrentCache<K,V> {
 
+    private static final int MAX_FREQUENCY = 255;
+
     private final int size;
-    private final Map<K,V> eden;
-    private final Map<K,V> longterm;
-    
+    private final ConcurrentHashMap<K,BeanElResolverConcurrentCacheEntry<V>> map;
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final Map<K,WeakReference<V>> longterm =
+        new WeakHashMap<K,WeakReference<V>>();
+
     public BeanElResolverConcurrentCache(int size) {
         this.size = size;
-        this.eden = new ConcurrentHashMap<K,V>(size);
-        this.longterm = new WeakHashMap<K,V>(size);
+        this.map = new ConcurrentHashMap<K,BeanElResolverConcurrentCacheEntry<V>>(Math.min(size, 1024) + 1);
     }
-    
+
     public V get(K key) {
-        V value = this.eden.get(key);
-        if (value == null) {
+        BeanElResolverConcurrentCacheEntry<V> entry = this.map.get(key);
+        if (entry == null) {
+            V value = null;
             synchronized (longterm) {
-                value = this.longterm.get(key);
+                WeakReference<V> ref = this.longterm.remove(key);
+                if (ref != null) {
+                    value = ref.get();
+                }
             }
             if (value != null) {
-                this.eden.put(key, value);
+                put(key, value);
             }
+            return value;
+        }
+        int f = entry.frequency;
+        if (f < MAX_FREQUENCY) {
+            entry.frequency = f + 1;
         }
-        return value;
+        return entry.value;
     }
-    
+
     public void put(K key, V value) {
-        if (this.eden.size() >= this.size) {
-            synchronized (longterm) {
-                this.longterm.putAll(this.eden);
+        if (this.size <= 0) {
+            return;
+        }
+        this.map.put(key, new BeanElResolverConcurrentCacheEntry<V>(value));
+        if (this.map.size() > this.size) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int current = this.map.size();
+            int remove = current - (this.size - this.size / 10);
+            if (current <= this.size || remove <= 0) {
+                return;
+            }
+            int[] histogram = new int[MAX_FREQUENCY + 1];
+            for (BeanElResolverConcurrentCacheEntry<V> entry : this.map.values()) {
+                histogram[entry.frequency]++;
+            }
+            int threshold = 0;
+            int below = 0;
+            while (threshold < MAX_FREQUENCY
+                    && below + histogram[threshold] < remove) {
+                below += histogram[threshold];
+                threshold++;
+            }
+            int atThreshold = remove - below;
+            Iterator<Map.Entry<K,BeanElResolverConcurrentCacheEntry<V>>> it =
+                this.map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K,BeanElResolverConcurrentCacheEntry<V>> e = it.next();
+                BeanElResolverConcurrentCacheEntry<V> entry = e.getValue();
+                int f = entry.frequency;
+                if (f < threshold || (f == threshold && atThreshold-- > 0)) {
+                    it.remove();
+                    synchronized (longterm) {
+                        this.longterm.put(e.getKey(),
+                                new WeakReference<V>(entry.value));
+                    }
+                } else {
+                    entry.frequency = Math.max(1, f >>> 1);
+                }
             }
-            this.eden.clear();
+        } finally {
+            evicting.set(false);
         }
-        this.eden.put(key, value);
     }
 
-}
\ No newline at end of file
+}
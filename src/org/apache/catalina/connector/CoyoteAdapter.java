@@ -1029,36 +1029,32 @@ public class CoyoteAdapter implements Adapter {
 
 		// Parse session id from cookies
 		Cookies serverCookies = req.getCookies();
-		int count = serverCookies.getCookieCount();
-		if (count <= 0) {
-			return;
-		}
-
 		String sessionCookieName = SessionConfig2.getSessionCookieName(context);
 
-		for (int i = 0; i < count; i++) {
+		// Only the session cookies are set up, not the other cookies
+		int i = serverCookies.findCookie(sessionCookieName, 0);
+		while (i >= 0) {
 			ServerCookie scookie = serverCookies.getCookie(i);
-			if (scookie.getName().equals(sessionCookieName)) {
-				// Override anything requested in the URL
-				if (!request.isRequestedSessionIdFromCookie()) {
-					// Accept only the first session id cookie
+			// Override anything requested in the URL
+			if (!request.isRequestedSessionIdFromCookie()) {
+				// Accept only the first session id cookie
+				convertMB(scookie.getValue());
+				request.setRequestedSessionId(scookie.getValue().toString());
+				request.setRequestedSessionCookie(true);
+				request.setRequestedSessionURL(false);
+				if (log.isDebugEnabled()) {
+					log.debug(" Requested cookie session id is "
+							+ request.getRequestedSessionId());
+				}
+			} else {
+				if (!request.isRequestedSessionIdValid()) {
+					// Replace the session id until one is valid
 					convertMB(scookie.getValue());
-					request.setRequestedSessionId(scookie.getValue().toString());
-					request.setRequestedSessionCookie(true);
-					request.setRequestedSessionURL(false);
-					if (log.isDebugEnabled()) {
-						log.debug(" Requested cookie session id is "
-								+ request.getRequestedSessionId());
-					}
-				} else {
-					if (!request.isRequestedSessionIdValid()) {
-						// Replace the session id until one is valid
-						convertMB(scookie.getValue());
-						request.setRequestedSessionId(scookie.getValue()
-								.toString());
-					}
+					request.setRequestedSessionId(scookie.getValue()
+							.toString());
 				}
 			}
+			i = serverCookies.findCookie(sessionCookieName, i + 1);
 		}
 
 	}
@@ -19,13 +19,15 @@ package org.apache.catalina.connector;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import org.apache.tomcat.util.buf.EncodedWriter;
+
 /**
  * Coyote implementation of the servlet writer.
  *
  * @author Remy Maucherat
  */
 public class CoyoteWriter
-    extends PrintWriter {
+    extends PrintWriter implements EncodedWriter {
 
 
     // -------------------------------------------------------------- Constants
@@ -185,6 +187,23 @@ public class CoyoteWriter
     }
 
 
+    @Override
+    public boolean writeEncoded(byte b[], int off, int len, String charset) {
+
+        if (error) {
+            return true;
+        }
+
+        try {
+            return ob.writeEncoded(b, off, len, charset);
+        } catch (IOException e) {
+            error = true;
+        }
+        return true;
+
+    }
+
+
     // ---------------------------------------------------- PrintWriter Methods
 
 
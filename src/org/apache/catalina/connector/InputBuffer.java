@@ -147,6 +147,7 @@ public class InputBuffer extends Reader implements ByteChunkByteInputChannel,
 		cb = new CharChunk(size);
 		cb.setLimit(size);
 		cb.setOptimizedWrite(false);
+		cb.setUsePool(true);
 		cb.setCharInputChannel(this);
 		cb.setCharOutputChannel(this);
 
@@ -185,11 +186,8 @@ public class InputBuffer extends Reader implements ByteChunkByteInputChannel,
 
 		// If usage of mark made the buffer too big, reallocate it
 		if (cb.getChars().length > size) {
-			cb = new CharChunk(size);
-			cb.setLimit(size);
-			cb.setOptimizedWrite(false);
-			cb.setCharInputChannel(this);
-			cb.setCharOutputChannel(this);
+			cb.reset();
+			cb.allocate(size, size);
 		} else {
 			cb.recycle();
 		}
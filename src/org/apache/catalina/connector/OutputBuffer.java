@@ -129,6 +129,11 @@ public class OutputBuffer extends Writer implements ByteChunkByteOutputChannel,
 	 */
 	private boolean suspended = false;
 
+	/**
+	 * Buffer size the byte buffer goes back to on recycle.
+	 */
+	private final int size;
+
 	// ----------------------------------------------------------- Constructors
 
 	/**
@@ -148,8 +153,10 @@ public class OutputBuffer extends Writer implements ByteChunkByteOutputChannel,
 	 */
 	public OutputBuffer(int size) {
 
+		this.size = size;
 		bb = new ByteChunk(size);
 		bb.setLimit(size);
+		bb.setUsePool(true);
 		bb.setByteOutputChannel(this);
 		cb = new CharChunk(size);
 		cb.setLimit(size);
@@ -219,6 +226,11 @@ public class OutputBuffer extends Writer implements ByteChunkByteOutputChannel,
 		bytesWritten = 0;
 		charsWritten = 0;
 
+		// If setBufferSize made the buffer grow, give it back to the pool
+		if (bb.getBuffer().length > size) {
+			bb.reset();
+			bb.allocate(size, bb.getLimit());
+		}
 		bb.recycle();
 		cb.recycle();
 		outputCharChunk.setChars(null, 0, 0);
@@ -414,6 +426,34 @@ public class OutputBuffer extends Writer implements ByteChunkByteOutputChannel,
 
 	}
 
+	/**
+	 * Write text which has already been encoded, if it was encoded with the
+	 * charset of the converter. The characters buffered so far are converted
+	 * first, so that the output stays in order.
+	 * 
+	 * @return <code>false</code> if nothing has been written because the
+	 *         charset doesn't match, or the converter is in the middle of a
+	 *         character
+	 */
+	public boolean writeEncoded(byte b[], int off, int len, String charset)
+			throws IOException {
+
+		if (suspended) {
+			return true;
+		}
+		if (conv == null || enc == null || !enc.equalsIgnoreCase(charset)) {
+			return false;
+		}
+
+		cb.flushBuffer();
+		if (conv.isUndeflow()) {
+			return false;
+		}
+		writeBytes(b, off, len);
+		return true;
+
+	}
+
 	public void writeByte(int b) throws IOException {
 
 		if (suspended) {
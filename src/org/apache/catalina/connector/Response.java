@@ -24,14 +24,12 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
-import java.util.TimeZone;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -47,7 +45,6 @@ import org.apache.catalina.Globals;
 import org.apache.catalina.Session2;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.security.SecurityUtil;
-import org.apache.catalina.util.DateTool;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.SessionConfig2;
 import org.apache.tomcat.util.buf.CharChunk;
@@ -72,6 +69,14 @@ public class Response implements HttpServletResponse {
 	private static final MediaTypeCache MEDIA_TYPE_CACHE = new MediaTypeCache(
 			100);
 
+	/**
+	 * The cache of parsed content types shared by all responses, its
+	 * statistics are registered with JMX by the server.
+	 */
+	public static MediaTypeCache getMediaTypeCache() {
+		return MEDIA_TYPE_CACHE;
+	}
+
 	/**
 	 * Compliance with SRV.15.2.22.1. A call to Response.getWriter() if no
 	 * character encoding has been specified will result in subsequent calls to
@@ -110,11 +115,6 @@ public class Response implements HttpServletResponse {
 
 	// ----------------------------------------------------- Instance Variables
 
-	/**
-	 * The date format we will use for creating date headers.
-	 */
-	private SimpleDateFormat format = null;
-
 	// ------------------------------------------------------------- Properties
 
 	/**
@@ -1050,13 +1050,7 @@ public class Response implements HttpServletResponse {
 			return;
 		}
 
-		if (format == null) {
-			format = new SimpleDateFormat(DateTool.getHttpResponseDateHeader(),
-					Locale.US);
-			format.setTimeZone(TimeZone.getTimeZone("GMT"));
-		}
-
-		addHeader(name, FastHttpDateFormat.formatDate(value, format));
+		addHeader(name, FastHttpDateFormat.formatDate(value, null));
 
 	}
 
@@ -1390,13 +1384,7 @@ public class Response implements HttpServletResponse {
 			return;
 		}
 
-		if (format == null) {
-			format = new SimpleDateFormat(DateTool.getHttpResponseDateHeader(),
-					Locale.US);
-			format.setTimeZone(TimeZone.getTimeZone("GMT"));
-		}
-
-		setHeader(name, FastHttpDateFormat.formatDate(value, format));
+		setHeader(name, FastHttpDateFormat.formatDate(value, null));
 	}
 
 	/**
@@ -38,6 +38,7 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Server;
 import org.apache.catalina.Service;
+import org.apache.catalina.connector.Response;
 import org.apache.catalina.deploy.NamingResources;
 import org.apache.catalina.mbeans.MBeanFactory;
 import org.apache.catalina.mbeans.MBeanUtils;
@@ -780,6 +781,17 @@ public final class StandardServer extends LifecycleMBeanBase implements Server {
         // will be registered under multiple names
         onameStringCache = register(new StringCache(), "type=StringCache");
 
+        // Register the statistics of the global caches of parsed content
+        // types and EL expressions
+        onameMediaTypeCache = register(
+                Response.getMediaTypeCache().getStatistics(),
+                "type=Cache,name=MediaTypeCache");
+        Object elCache = getExpressionCacheStatistics();
+        if (elCache != null) {
+            onameExpressionCache = register(elCache,
+                    "type=Cache,name=ExpressionBuilder");
+        }
+
         // Register the MBeanFactory
         MBeanFactory factory = new MBeanFactory();
         factory.setContainer(this);
@@ -834,10 +846,35 @@ public final class StandardServer extends LifecycleMBeanBase implements Server {
         unregister(onameMBeanFactory);
         
         unregister(onameStringCache);
+
+        unregister(onameMediaTypeCache);
+
+        unregister(onameExpressionCache);
                 
         super.destroyInternal();
     }
 
+    /**
+     * Return the statistics of the cache of parsed EL expressions, looked up
+     * through the server class loader so that Catalina does not depend on the
+     * EL implementation and a copy packaged in a web application is never
+     * registered.
+     */
+    private static Object getExpressionCacheStatistics() {
+        try {
+            Class<?> clazz = Class.forName(
+                    "org.apache.el.lang.ExpressionBuilder", true,
+                    StandardServer.class.getClassLoader());
+            return clazz.getMethod("getCacheStatistics").invoke(null);
+        } catch (Throwable t) {
+            ExceptionUtils2.handleThrowable(t);
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to obtain the EL expression cache", t);
+            }
+            return null;
+        }
+    }
+
     /**
      * Return the parent class loader for this component.
      */
@@ -866,6 +903,8 @@ public final class StandardServer extends LifecycleMBeanBase implements Server {
 
     
     private ObjectName onameStringCache;
+    private ObjectName onameMediaTypeCache;
+    private ObjectName onameExpressionCache;
     private ObjectName onameMBeanFactory;
     
     /**
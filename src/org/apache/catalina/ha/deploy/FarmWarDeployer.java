@@ -20,6 +20,13 @@ package org.apache.catalina.ha.deploy;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -39,6 +46,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.modeler.Registry2;
 import org.apache.tomcat.util.res.StringManager3;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * <p>
@@ -54,6 +62,14 @@ import org.apache.tomcat.util.res.StringManager3;
  * </ul>
  * Currently we only support deployment of WAR files since they are easier to
  * send across the wire.
+ * <p>
+ * A war is sent in fragments of <code>chunkSize</code> bytes, read by
+ * <code>sendThreads</code> threads and sent to all members at once. Every
+ * fragment carries its offset and a checksum and is written at its offset on
+ * arrival. A member missing fragments, after a checksum failure or a restart,
+ * asks the sender for them when no fragment arrived for
+ * <code>resendTimeout</code> ms.
+ * </p>
  * 
  * @author Filip Hanik
  * @author Peter Rossbach
@@ -139,6 +155,59 @@ public class FarmWarDeployer extends ClusterListener implements
 	 */
 	private int maxValidTime = 5 * 60;
 
+	/**
+	 * The number of bytes per file message.
+	 */
+	private int chunkSize = 1024 * 64;
+
+	/**
+	 * The number of threads reading and sending the messages of a war.
+	 */
+	private int sendThreads = 4;
+
+	/**
+	 * The time (in milliseconds) without a message after which missing
+	 * messages are requested from the sender.
+	 */
+	private long resendTimeout = 10000;
+
+	/**
+	 * The maximum number of messages requested at once.
+	 */
+	private int maxResendMessages = 256;
+
+	/**
+	 * The wars sent by this node, by file name, to answer resend requests.
+	 */
+	private Map<String, File> sentFiles = new ConcurrentHashMap<String, File>();
+
+	/**
+	 * The transfers completed recently, with the completion time, so late
+	 * duplicates do not start a new transfer.
+	 */
+	private Map<String, Long> completedTransfers = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * The time missing messages were last requested, by file name.
+	 */
+	private Map<String, Long> missingRequests = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * The maximum number of resend requests waiting to be answered, further
+	 * requests are dropped and asked again by the requesting member.
+	 */
+	private int maxPendingResends = 16;
+
+	/**
+	 * Answers the resend requests, one at a time, created on start.
+	 */
+	private ThreadPoolExecutor resendExecutor = null;
+
+	/**
+	 * Counter for the name of the sender threads.
+	 */
+	private static final AtomicInteger senderCount = new AtomicInteger(0);
+
 	/*--Constructor---------------------------------------------*/
 	public FarmWarDeployer() {
 	}
@@ -207,10 +276,17 @@ public class FarmWarDeployer extends ClusterListener implements
 		// Retrieve the MBean server
 		mBeanServer = Registry2.getRegistry(null, null).getMBeanServer();
 
+		resendExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxPendingResends),
+				new TaskThreadFactory("FarmWarDeployer-Resend-", true,
+						Thread.NORM_PRIORITY));
+		resendExecutor.allowCoreThreadTimeOut(true);
+
 		started = true;
 		count = 0;
 
 		getCluster().addClusterListener(this);
+		resumeTransfers();
 
 		if (log.isInfoEnabled())
 			log.info(sm.getString("farmWarDeployer.started"));
@@ -226,6 +302,11 @@ public class FarmWarDeployer extends ClusterListener implements
 		started = false;
 		getCluster().removeClusterListener(this);
 		count = 0;
+		if (resendExecutor != null) {
+			resendExecutor.shutdownNow();
+			resendExecutor = null;
+		}
+		missingRequests.clear();
 		if (watcher != null) {
 			watcher.clear();
 			watcher = null;
@@ -255,10 +336,16 @@ public class FarmWarDeployer extends ClusterListener implements
 				if (log.isDebugEnabled())
 					log.debug(sm.getString("farmWarDeployer.msgRxDeploy",
 							fmsg.getContextName(), fmsg.getFileName()));
+				if (fmsg.getTransferId() != null
+						&& completedTransfers.containsKey(fmsg.getTransferId()))
+					return;
 				FileMessageFactory factory = getFactory(fmsg);
 				// TODO correct second try after app is in service!
 				if (factory.writeMessage(fmsg)) {
 					// last message received war file is completed
+					if (fmsg.getTransferId() != null)
+						completedTransfers.put(fmsg.getTransferId(),
+								Long.valueOf(System.currentTimeMillis()));
 					String name = factory.getFile().getName();
 					if (!name.endsWith(".war"))
 						name = name + ".war";
@@ -292,6 +379,8 @@ public class FarmWarDeployer extends ClusterListener implements
 						removeFactory(fmsg);
 					}
 				}
+			} else if (msg instanceof FileChunkRequestMessage) {
+				resend((FileChunkRequestMessage) msg);
 			} else if (msg instanceof UndeployMessage) {
 				try {
 					UndeployMessage umsg = (UndeployMessage) msg;
@@ -330,14 +419,28 @@ public class FarmWarDeployer extends ClusterListener implements
 	 * @throws java.io.FileNotFoundException
 	 * @throws java.io.IOException
 	 */
-	public synchronized FileMessageFactory getFactory(FileMessage msg)
+	public FileMessageFactory getFactory(FileMessage msg)
+			throws java.io.FileNotFoundException, java.io.IOException {
+		return getFactory(msg.getFileName());
+	}
+
+	/**
+	 * create factory for a transported war file, continuing an interrupted
+	 * transfer of the file if there is one
+	 * 
+	 * @param fileName
+	 * @return Factory for the war file
+	 * @throws java.io.FileNotFoundException
+	 * @throws java.io.IOException
+	 */
+	public synchronized FileMessageFactory getFactory(String fileName)
 			throws java.io.FileNotFoundException, java.io.IOException {
-		File writeToFile = new File(getTempDirFile(), msg.getFileName());
-		FileMessageFactory factory = fileFactories.get(msg.getFileName());
+		File writeToFile = new File(getTempDirFile(), fileName);
+		FileMessageFactory factory = fileFactories.get(fileName);
 		if (factory == null) {
 			factory = FileMessageFactory.getInstance(writeToFile, true);
 			factory.setMaxValidTime(maxValidTime);
-			fileFactories.put(msg.getFileName(), factory);
+			fileFactories.put(fileName, factory);
 		}
 		return factory;
 	}
@@ -349,6 +452,7 @@ public class FarmWarDeployer extends ClusterListener implements
 	 */
 	public void removeFactory(FileMessage msg) {
 		fileFactories.remove(msg.getFileName());
+		missingRequests.remove(msg.getFileName());
 	}
 
 	/**
@@ -364,7 +468,9 @@ public class FarmWarDeployer extends ClusterListener implements
 	 */
 	@Override
 	public boolean accept(ClusterMessage msg) {
-		return (msg instanceof FileMessage) || (msg instanceof UndeployMessage);
+		return (msg instanceof FileMessage)
+				|| (msg instanceof FileChunkRequestMessage)
+				|| (msg instanceof UndeployMessage);
 	}
 
 	/**
@@ -397,29 +503,217 @@ public class FarmWarDeployer extends ClusterListener implements
 		if (members.length == 0)
 			return;
 
-		Member localMember = getCluster().getLocalMember();
 		FileMessageFactory factory = FileMessageFactory.getInstance(webapp,
-				false);
-		FileMessage msg = new FileMessage(localMember, webapp.getName(),
-				contextName);
+				false, chunkSize);
+		sentFiles.put(webapp.getName(), webapp);
 		if (log.isDebugEnabled())
 			log.debug(sm.getString("farmWarDeployer.sendStart", contextName,
 					webapp));
-		msg = factory.readMessage(msg);
-		while (msg != null) {
-			for (int i = 0; i < members.length; i++) {
-				if (log.isDebugEnabled())
-					log.debug(sm.getString("farmWarDeployer.sendFragment",
-							contextName, webapp, members[i]));
-				getCluster().send(msg, members[i]);
-			}
-			msg = factory.readMessage(msg);
+		try {
+			send(factory, contextName, webapp, null, null);
+		} finally {
+			factory.cleanup();
 		}
 		if (log.isDebugEnabled())
 			log.debug(sm.getString("farmWarDeployer.sendEnd", contextName,
 					webapp));
 	}
 
+	/**
+	 * Send the messages of a file, each sendThreads thread takes the next
+	 * message number until all are sent.
+	 * 
+	 * @param factory
+	 *            the factory reading the file
+	 * @param contextName
+	 *            the context name of the file
+	 * @param file
+	 *            the file
+	 * @param messageNumbers
+	 *            the messages to send, null for all
+	 * @param dest
+	 *            the member to send to, null for all members
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	protected void send(final FileMessageFactory factory,
+			final String contextName, final File file,
+			final int[] messageNumbers, final Member dest) throws IOException {
+		final int total = messageNumbers == null ? (int) factory
+				.getTotalNrOfMessages() : messageNumbers.length;
+		final AtomicInteger next = new AtomicInteger(0);
+		final IOException[] failure = new IOException[1];
+		final Member localMember = getCluster().getLocalMember();
+		Runnable sender = new Runnable() {
+			@Override
+			public void run() {
+				FileMessage msg = new FileMessage(localMember, file.getName(),
+						contextName);
+				int i;
+				while ((i = next.getAndIncrement()) < total) {
+					synchronized (failure) {
+						if (failure[0] != null)
+							return;
+					}
+					int number = messageNumbers == null ? i + 1
+							: messageNumbers[i];
+					try {
+						if (factory.readMessage(msg, number) == null)
+							continue;
+					} catch (IOException x) {
+						synchronized (failure) {
+							failure[0] = x;
+						}
+						return;
+					}
+					if (log.isDebugEnabled())
+						log.debug(sm.getString("farmWarDeployer.sendFragment",
+								contextName, file, dest == null ? "all"
+										: dest));
+					if (dest == null)
+						getCluster().send(msg);
+					else
+						getCluster().send(msg, dest);
+				}
+			}
+		};
+		int threads = Math.min(sendThreads, total);
+		Thread[] workers = new Thread[Math.max(0, threads - 1)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(sender, "FarmWarDeployer-Sender-"
+					+ senderCount.incrementAndGet());
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		// the calling thread sends too
+		sender.run();
+		for (int i = 0; i < workers.length; i++) {
+			try {
+				workers[i].join();
+			} catch (InterruptedException x) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		synchronized (failure) {
+			if (failure[0] != null)
+				throw failure[0];
+		}
+	}
+
+	/**
+	 * Send the messages a member asks for again, if this node sent that
+	 * version of the file.
+	 * 
+	 * @param msg
+	 *            the request
+	 */
+	protected void resend(final FileChunkRequestMessage msg) {
+		final File file = sentFiles.get(msg.getFileName());
+		if (file == null || !file.exists())
+			return;
+		final FileMessageFactory factory;
+		try {
+			factory = FileMessageFactory.getInstance(file, false, chunkSize);
+		} catch (IOException x) {
+			log.error(sm.getString("farmWarDeployer.resendFail",
+					msg.getFileName(), msg.getAddress()), x);
+			return;
+		}
+		if (!factory.getTransferId().equals(msg.getTransferId())) {
+			factory.cleanup();
+			return;
+		}
+		ThreadPoolExecutor executor = resendExecutor;
+		if (executor == null) {
+			factory.cleanup();
+			return;
+		}
+		if (log.isInfoEnabled())
+			log.info(sm.getString("farmWarDeployer.resend",
+					Integer.valueOf(msg.getMessageNumbers().length),
+					msg.getFileName(), msg.getAddress()));
+		// don't hold up the cluster receiver
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						send(factory, msg.getContextName(), file,
+								msg.getMessageNumbers(), msg.getAddress());
+					} catch (IOException x) {
+						log.error(sm.getString("farmWarDeployer.resendFail",
+								msg.getFileName(), msg.getAddress()), x);
+					} finally {
+						factory.cleanup();
+					}
+				}
+			});
+		} catch (RejectedExecutionException x) {
+			factory.cleanup();
+			log.warn(sm.getString("farmWarDeployer.resendBusy",
+					msg.getFileName(), msg.getAddress()));
+		}
+	}
+
+	/**
+	 * Ask for the missing messages of the files being received when no
+	 * message arrived for resendTimeout ms, at most once per resendTimeout
+	 * for each file.
+	 */
+	protected void requestMissingMessages() {
+		FileMessageFactory[] factories;
+		synchronized (this) {
+			factories = fileFactories.values().toArray(
+					new FileMessageFactory[0]);
+		}
+		long now = System.currentTimeMillis();
+		for (FileMessageFactory factory : factories) {
+			if (factory.isClosed() || factory.getTransferId() == null
+					|| factory.isLegacy()
+					|| now - factory.getLastActivity() < resendTimeout)
+				continue;
+			String fileName = factory.getFile().getName();
+			Long requested = missingRequests.get(fileName);
+			if (requested != null
+					&& now - requested.longValue() < resendTimeout)
+				continue;
+			int[] missing = factory.getMissingMessages(maxResendMessages);
+			if (missing.length == 0)
+				continue;
+			FileChunkRequestMessage msg = new FileChunkRequestMessage(
+					getCluster().getLocalMember(), factory.getFile().getName(),
+					factory.getContextName(), factory.getTransferId(), missing);
+			if (log.isDebugEnabled())
+				log.debug(sm.getString("farmWarDeployer.requestMissing",
+						Integer.valueOf(missing.length), factory.getFile()));
+			missingRequests.put(fileName, Long.valueOf(now));
+			getCluster().send(msg);
+		}
+	}
+
+	/**
+	 * Open the transfers which were interrupted by a restart, their missing
+	 * messages are requested by the background process.
+	 */
+	protected void resumeTransfers() {
+		String[] names = getTempDirFile().list();
+		if (names == null)
+			return;
+		for (String name : names) {
+			if (!name.endsWith(FileMessageFactory.PROGRESS_SUFFIX))
+				continue;
+			String fileName = name.substring(0, name.length()
+					- FileMessageFactory.PROGRESS_SUFFIX.length());
+			try {
+				getFactory(fileName);
+			} catch (IOException x) {
+				log.warn(sm.getString("farmWarDeployer.resumeFail", fileName),
+						x);
+			}
+		}
+	}
+
 	/**
 	 * Remove an existing web application, attached to the specified context
 	 * name. If this application is successfully removed, a ContainerEvent of
@@ -634,6 +928,12 @@ public class FarmWarDeployer extends ClusterListener implements
 				}
 			}
 			removeInvalidFileFactories();
+			requestMissingMessages();
+			long now = System.currentTimeMillis();
+			for (Map.Entry<String, Long> entry : completedTransfers.entrySet()) {
+				if (now - entry.getValue().longValue() > maxValidTime * 1000L)
+					completedTransfers.remove(entry.getKey());
+			}
 		}
 
 	}
@@ -783,6 +1083,54 @@ public class FarmWarDeployer extends ClusterListener implements
 		this.maxValidTime = maxValidTime;
 	}
 
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize > 0)
+			this.chunkSize = chunkSize;
+	}
+
+	public int getSendThreads() {
+		return sendThreads;
+	}
+
+	public void setSendThreads(int sendThreads) {
+		this.sendThreads = Math.max(1, sendThreads);
+	}
+
+	public long getResendTimeout() {
+		return resendTimeout;
+	}
+
+	public void setResendTimeout(long resendTimeout) {
+		this.resendTimeout = resendTimeout;
+	}
+
+	public int getMaxResendMessages() {
+		return maxResendMessages;
+	}
+
+	public void setMaxResendMessages(int maxResendMessages) {
+		if (maxResendMessages > 0)
+			this.maxResendMessages = maxResendMessages;
+	}
+
+	public int getMaxPendingResends() {
+		return maxPendingResends;
+	}
+
+	/**
+	 * @param maxPendingResends
+	 *            the maximum number of resend requests waiting, used when the
+	 *            deployer is started
+	 */
+	public void setMaxPendingResends(int maxPendingResends) {
+		if (maxPendingResends > 0)
+			this.maxPendingResends = maxPendingResends;
+	}
+
 	/**
 	 * Copy a file to the specified temp directory.
 	 * 
@@ -825,6 +1173,7 @@ public class FarmWarDeployer extends ClusterListener implements
 			FileMessageFactory factory = fileFactories.get(fileName);
 			if (!factory.isValid()) {
 				fileFactories.remove(fileName);
+				missingRequests.remove(fileName);
 			}
 		}
 	}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.ha.deploy;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+import org.apache.catalina.tribes.Member;
+
+/**
+ * Asks the member that sent a file for the fragments that have not been
+ * received, or that failed the checksum, so an interrupted transfer can be
+ * completed without sending the whole file again.
+ *
+ * @version 1.0
+ */
+public class FileChunkRequestMessage extends ClusterMessageBase {
+	private static final long serialVersionUID = 1L;
+
+	private String fileName;
+	private String contextName;
+	private String transferId;
+	private int[] messageNumbers;
+
+	public FileChunkRequestMessage(Member source, String fileName,
+			String contextName, String transferId, int[] messageNumbers) {
+		this.setAddress(source);
+		this.fileName = fileName;
+		this.contextName = contextName;
+		this.transferId = transferId;
+		this.messageNumbers = messageNumbers;
+	}
+
+	@Override
+	public String getUniqueId() {
+		StringBuilder result = new StringBuilder(getFileName());
+		result.append("#-#request#-#");
+		result.append(System.currentTimeMillis());
+		return result.toString();
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public String getTransferId() {
+		return transferId;
+	}
+
+	public int[] getMessageNumbers() {
+		return messageNumbers;
+	}
+
+}
@@ -40,6 +40,10 @@ public class FileMessage extends ClusterMessageBase {
 	private String fileName;
 	private String contextName;
 
+	private long offset;
+	private long checksum;
+	private String transferId;
+
 	public FileMessage(Member source, String fileName, String contextName) {
 		this.setAddress(source);
 		this.fileName = fileName;
@@ -120,4 +124,38 @@ public class FileMessage extends ClusterMessageBase {
 		return contextName;
 	}
 
+	/**
+	 * @return the position of the data in the file
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * @return the CRC32 of the data
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(long checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * @return the id of the file version being transferred, fragments of
+	 *         another version of the same file are not mixed in
+	 */
+	public String getTransferId() {
+		return transferId;
+	}
+
+	public void setTransferId(String transferId) {
+		this.transferId = transferId;
+	}
+
 }
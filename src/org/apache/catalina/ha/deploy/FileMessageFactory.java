@@ -17,18 +17,24 @@
 
 package org.apache.catalina.ha.deploy;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
-import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.res.StringManager3;
 
 /**
@@ -38,9 +44,20 @@ import org.apache.tomcat.util.res.StringManager3;
  * When done reading or writing the factory will close the input or output
  * streams and mark the factory as closed. It is not possible to use it after
  * that. <BR>
+ * Every message carries the offset of its data in the file and a CRC32 of the
+ * data. The writer writes each message at its offset as soon as it arrives, so
+ * messages may be read by several threads and arrive in any order. Messages
+ * failing the checksum are dropped and reported by getMissingMessages().
+ * Messages of an older sender carry no transfer id, offset and checksum, their
+ * offset is computed from the message number and the fixed message size of
+ * that sender and no checksum is verified. <BR>
+ * The writer saves the received messages to a <code>.progress</code> file next
+ * to the file being written, a writer opened again on the same file, after a
+ * restart, continues the transfer instead of starting over. <BR>
  * To force a cleanup, call cleanup() from the calling object. <BR>
- * This class is not thread safe.
- * 
+ * readMessage(FileMessage, int) and writeMessage(FileMessage) are thread safe,
+ * readMessage(FileMessage) is not.
+ *
  * @author Filip Hanik
  * @version 1.0
  */
@@ -55,6 +72,22 @@ public class FileMessageFactory {
 	 */
 	private static final int READ_SIZE = 1024 * 10; // 10kb
 
+	/**
+	 * Suffix of the transfer id given to the messages of a sender without
+	 * transfer ids, checksums and offsets
+	 */
+	private static final String LEGACY_SUFFIX = "#legacy";
+
+	/**
+	 * Suffix of the file holding the progress of a transfer
+	 */
+	public static final String PROGRESS_SUFFIX = ".progress";
+
+	/**
+	 * The progress is saved each time this number of messages is written
+	 */
+	private static final int PROGRESS_INTERVAL = 64;
+
 	/**
 	 * The file that we are reading/writing
 	 */
@@ -69,20 +102,33 @@ public class FileMessageFactory {
 	/**
 	 * Once the factory is used, it can not be reused.
 	 */
-	private boolean closed = false;
+	private volatile boolean closed = false;
 
 	/**
-	 * When openForWrite=false, the input stream is held by this variable
+	 * The file that we are reading/writing, opened for read or read/write
 	 */
-	private FileInputStream in;
+	private RandomAccessFile raf;
 
 	/**
-	 * When openForWrite=true, the output stream is held by this variable
+	 * The channel of raf, used for reads and writes at an offset, null once
+	 * the factory is cleaned up
 	 */
-	private FileOutputStream out;
+	private FileChannel channel;
 
 	/**
-	 * The number of messages we have written
+	 * Held shared while data is read or written through the channel, held
+	 * exclusive while the file is truncated or closed. Taken after the lock on
+	 * this factory, never before it.
+	 */
+	private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+
+	/**
+	 * The number of bytes per message
+	 */
+	private int chunkSize = READ_SIZE;
+
+	/**
+	 * The number of messages we have read
 	 */
 	private int nrOfMessagesProcessed = 0;
 
@@ -97,27 +143,46 @@ public class FileMessageFactory {
 	private long totalNrOfMessages = 0;
 
 	/**
-	 * The number of the last message processed. Message IDs are 1 based.
+	 * The id of the file version, length and modification time of the file
+	 * read, taken from the first message received when writing
 	 */
-	private AtomicLong lastMessageProcessed = new AtomicLong(0);
+	private String transferId = null;
 
 	/**
-	 * Messages received out of order are held in the buffer until required. If
-	 * everything is worked as expected, messages will spend very little time in
-	 * the buffer.
+	 * Incremented each time a new transfer is started, a message written for
+	 * an earlier transfer is not counted as received.
 	 */
-	private Map<Long, FileMessage> msgBuffer = new ConcurrentHashMap<Long, FileMessage>();
+	private volatile int generation = 0;
 
 	/**
-	 * The bytes that we hold the data in, not thread safe.
+	 * The context name of the file written
+	 */
+	private String contextName = null;
+
+	/**
+	 * The messages written to disk, message numbers are 1 based.
+	 */
+	private BitSet received = new BitSet();
+
+	/**
+	 * The messages currently written by another thread
+	 */
+	private BitSet inFlight = new BitSet();
+
+	/**
+	 * The number of messages written to disk
 	 */
-	private byte[] data = new byte[READ_SIZE];
+	private int receivedCount = 0;
 
 	/**
-	 * Flag that indicates if a thread is writing messages to disk. Access to
-	 * this flag must be synchronised.
+	 * Serializes the progress file updates
 	 */
-	private boolean isWriting = false;
+	private final Object progressLock = new Object();
+
+	/**
+	 * The bytes that we hold the data in, not thread safe.
+	 */
+	private byte[] data;
 
 	/**
 	 * The time this instance was created. (in milliseconds)
@@ -125,32 +190,42 @@ public class FileMessageFactory {
 	private long creationTime = 0;
 
 	/**
-	 * The maximum valid time(in seconds) from creationTime.
+	 * The time a message was last written (in milliseconds)
+	 */
+	private volatile long lastActivity = 0;
+
+	/**
+	 * The maximum valid time(in seconds) from the last message written.
 	 */
 	private int maxValidTime = -1;
 
 	/**
 	 * Private constructor, either instantiates a factory to read or write. <BR>
-	 * When openForWrite==true, then a the file, f, will be created and an
-	 * output stream is opened to write to it. <BR>
-	 * When openForWrite==false, an input stream is opened, the file has to
+	 * When openForWrite==true, then a the file, f, will be created and opened
+	 * to write to it, if a progress file of an earlier transfer exists the
+	 * data already received is kept. <BR>
+	 * When openForWrite==false, the file is opened for read, the file has to
 	 * exist.
-	 * 
+	 *
 	 * @param f
 	 *            File - the file to be read/written
 	 * @param openForWrite
 	 *            boolean - true means we are writing to the file, false means
 	 *            we are reading from the file
+	 * @param chunkSize
+	 *            int - the number of bytes per message when reading
 	 * @throws FileNotFoundException
 	 *             - if the file to be read doesn't exist
 	 * @throws IOException
-	 *             - if the system fails to open input/output streams to the
-	 *             file or if it fails to create the file to be written to.
+	 *             - if the system fails to open the file or if it fails to
+	 *             create the file to be written to.
 	 */
-	private FileMessageFactory(File f, boolean openForWrite)
+	private FileMessageFactory(File f, boolean openForWrite, int chunkSize)
 			throws FileNotFoundException, IOException {
 		this.file = f;
 		this.openForWrite = openForWrite;
+		if (chunkSize > 0)
+			this.chunkSize = chunkSize;
 		if (log.isDebugEnabled())
 			log.debug("open file " + f + " write " + openForWrite);
 		if (openForWrite) {
@@ -158,20 +233,27 @@ public class FileMessageFactory {
 				if (!file.createNewFile()) {
 					throw new IOException(sm.getString("fileNewFail", file));
 				}
-			out = new FileOutputStream(f);
+			raf = new RandomAccessFile(f, "rw");
+			channel = raf.getChannel();
+			if (!loadProgress())
+				channel.truncate(0);
 		} else {
 			size = file.length();
-			totalNrOfMessages = (size / READ_SIZE) + 1;
-			in = new FileInputStream(f);
+			totalNrOfMessages = Math.max(1, (size + this.chunkSize - 1)
+					/ this.chunkSize);
+			transferId = f.getName() + "#" + size + "#" + f.lastModified();
+			raf = new RandomAccessFile(f, "r");
+			channel = raf.getChannel();
 		}// end if
 		creationTime = System.currentTimeMillis();
+		lastActivity = creationTime;
 	}
 
 	/**
 	 * Creates a factory to read or write from a file. When opening for read,
 	 * the readMessage can be invoked, and when opening for write the
 	 * writeMessage can be invoked.
-	 * 
+	 *
 	 * @param f
 	 *            File - the file to be read or written
 	 * @param openForWrite
@@ -185,7 +267,29 @@ public class FileMessageFactory {
 	 */
 	public static FileMessageFactory getInstance(File f, boolean openForWrite)
 			throws FileNotFoundException, IOException {
-		return new FileMessageFactory(f, openForWrite);
+		return new FileMessageFactory(f, openForWrite, READ_SIZE);
+	}
+
+	/**
+	 * Creates a factory to read or write from a file, reading messages of
+	 * chunkSize bytes.
+	 *
+	 * @param f
+	 *            File - the file to be read or written
+	 * @param openForWrite
+	 *            boolean - true, means we are writing to the file, false means
+	 *            we are reading from it
+	 * @param chunkSize
+	 *            int - the number of bytes per message when reading
+	 * @throws FileNotFoundException
+	 *             - if the file to be read doesn't exist
+	 * @throws IOException
+	 *             - if it fails to create the file that is to be written
+	 * @return FileMessageFactory
+	 */
+	public static FileMessageFactory getInstance(File f, boolean openForWrite,
+			int chunkSize) throws FileNotFoundException, IOException {
+		return new FileMessageFactory(f, openForWrite, chunkSize);
 	}
 
 	/**
@@ -196,7 +300,7 @@ public class FileMessageFactory {
 	 * more memory is ever used. To remember, neither the file message or the
 	 * factory are thread safe. dont hand off the message to one thread and read
 	 * the same with another.
-	 * 
+	 *
 	 * @param f
 	 *            FileMessage - the message to be populated with file data
 	 * @throws IllegalArgumentException
@@ -209,31 +313,85 @@ public class FileMessageFactory {
 	public FileMessage readMessage(FileMessage f)
 			throws IllegalArgumentException, IOException {
 		checkState(false);
-		int length = in.read(data);
-		if (length == -1) {
+		if (data == null)
+			data = new byte[chunkSize];
+		if (nrOfMessagesProcessed >= totalNrOfMessages) {
 			cleanup();
 			return null;
-		} else {
-			f.setData(data, length);
-			f.setTotalLength(size);
-			f.setTotalNrOfMsgs(totalNrOfMessages);
-			f.setMessageNumber(++nrOfMessagesProcessed);
-			return f;
-		}// end if
+		}
+		read(f, ++nrOfMessagesProcessed, data);
+		return f;
 	}
 
 	/**
-	 * Writes a message to file. If (msg.getMessageNumber() ==
-	 * msg.getTotalNrOfMsgs()) the output stream will be closed after writing.
-	 * 
+	 * Reads the data of the given message number into the file message. Each
+	 * thread may read a different message number at the same time, as long as
+	 * every thread uses its own file message.
+	 *
+	 * @param f
+	 *            FileMessage - the message to be populated with file data
+	 * @param messageNumber
+	 *            int - the 1 based number of the message
+	 * @throws IllegalArgumentException
+	 *             - if the factory is for writing or is closed
+	 * @throws IOException
+	 *             - if a file read exception occurs
+	 * @return FileMessage - returns the same message passed in as a parameter,
+	 *         or null if there is no such message
+	 */
+	public FileMessage readMessage(FileMessage f, int messageNumber)
+			throws IllegalArgumentException, IOException {
+		checkState(false);
+		if (messageNumber < 1 || messageNumber > totalNrOfMessages)
+			return null;
+		byte[] buf = f.getData();
+		if (buf == null || buf.length < chunkSize || buf == data)
+			buf = new byte[chunkSize];
+		read(f, messageNumber, buf);
+		return f;
+	}
+
+	private void read(FileMessage f, int messageNumber, byte[] buf)
+			throws IOException {
+		long offset = (long) (messageNumber - 1) * chunkSize;
+		int length = (int) Math.min(chunkSize, size - offset);
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, length);
+		channelLock.readLock().lock();
+		try {
+			FileChannel ch = channel;
+			if (ch == null)
+				throw new IllegalArgumentException("Factory has been closed.");
+			while (bb.hasRemaining()) {
+				if (ch.read(bb, offset + bb.position()) < 0)
+					throw new IOException(sm.getString(
+							"fileMessageFactory.truncated", file));
+			}
+		} finally {
+			channelLock.readLock().unlock();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf, 0, length);
+		f.setData(buf, length);
+		f.setOffset(offset);
+		f.setChecksum(crc.getValue());
+		f.setTransferId(transferId);
+		f.setTotalLength(size);
+		f.setTotalNrOfMsgs(totalNrOfMessages);
+		f.setMessageNumber(messageNumber);
+	}
+
+	/**
+	 * Writes a message to file at its offset. When all messages have been
+	 * written the file will be closed.
+	 *
 	 * @param msg
 	 *            FileMessage - message containing data to be written
 	 * @throws IllegalArgumentException
 	 *             - if the factory is opened for read or closed
 	 * @throws IOException
 	 *             - if a file write error occurs
-	 * @return returns true if the file is complete and outputstream is closed,
-	 *         false otherwise.
+	 * @return returns true if the file is complete and closed, false
+	 *         otherwise.
 	 */
 	public boolean writeMessage(FileMessage msg)
 			throws IllegalArgumentException, IOException {
@@ -241,102 +399,310 @@ public class FileMessageFactory {
 			throw new IllegalArgumentException(
 					"Can't write message, this factory is reading.");
 		if (log.isDebugEnabled())
-			log.debug("Message " + msg + " data "
-					+ HexUtils.toHexString(msg.getData()) + " data length "
-					+ msg.getDataLength() + " out " + out);
-
-		if (msg.getMessageNumber() <= lastMessageProcessed.get()) {
-			// Duplicate of message already processed
-			log.warn("Receive Message again -- Sender ActTimeout too short [ name: "
-					+ msg.getContextName()
-					+ " war: "
-					+ msg.getFileName()
-					+ " data: "
-					+ HexUtils.toHexString(msg.getData())
-					+ " data length: " + msg.getDataLength() + " ]");
-			return false;
-		}
-
-		FileMessage previous = msgBuffer.put(
-				Long.valueOf(msg.getMessageNumber()), msg);
-		if (previous != null) {
-			// Duplicate of message not yet processed
-			log.warn("Receive Message again -- Sender ActTimeout too short [ name: "
-					+ msg.getContextName()
-					+ " war: "
-					+ msg.getFileName()
-					+ " data: "
-					+ HexUtils.toHexString(msg.getData())
-					+ " data length: " + msg.getDataLength() + " ]");
-			return false;
-		}
-
-		FileMessage next = null;
+			log.debug("Message " + msg + " number " + msg.getMessageNumber()
+					+ " offset " + msg.getOffset() + " data length "
+					+ msg.getDataLength() + " file " + file);
+
+		int number = msg.getMessageNumber();
+		boolean legacy = msg.getTransferId() == null;
+		String id = legacy ? msg.getFileName() + "#" + msg.getTotalLength()
+				+ LEGACY_SUFFIX : msg.getTransferId();
+		long offset = legacy ? (long) (number - 1) * READ_SIZE : msg
+				.getOffset();
+		int gen;
 		synchronized (this) {
-			if (!isWriting) {
-				next = msgBuffer
-						.get(Long.valueOf(lastMessageProcessed.get() + 1));
-				if (next != null) {
-					isWriting = true;
-				} else {
-					return false;
+			if (closed || channel == null)
+				return false;
+			if (transferId == null || !transferId.equals(id)) {
+				if (transferId != null)
+					log.info(sm.getString("fileMessageFactory.newTransfer",
+							file, transferId, id));
+				start(msg, id);
+			}
+			if (number < 1 || number > totalNrOfMessages
+					|| received.get(number) || inFlight.get(number)) {
+				// Duplicate of message already processed or being processed
+				log.warn("Receive Message again -- Sender ActTimeout too short [ name: "
+						+ msg.getContextName()
+						+ " war: "
+						+ msg.getFileName()
+						+ " number: " + number
+						+ " data length: " + msg.getDataLength() + " ]");
+				return false;
+			}
+			inFlight.set(number);
+			gen = generation;
+		}
+		lastActivity = System.currentTimeMillis();
+
+		if (!legacy) {
+			CRC32 crc = new CRC32();
+			crc.update(msg.getData(), 0, msg.getDataLength());
+			if (crc.getValue() != msg.getChecksum()) {
+				log.warn(sm.getString("fileMessageFactory.checksumFail",
+						msg.getFileName(), Integer.valueOf(number)));
+				synchronized (this) {
+					if (generation == gen)
+						inFlight.clear(number);
 				}
-			} else {
 				return false;
 			}
 		}
 
-		while (next != null) {
-			out.write(next.getData(), 0, next.getDataLength());
-			lastMessageProcessed.incrementAndGet();
-			out.flush();
-			if (next.getMessageNumber() == next.getTotalNrOfMsgs()) {
-				out.close();
-				cleanup();
-				return true;
+		channelLock.readLock().lock();
+		try {
+			// The transfer may have been replaced or the factory closed since
+			// the message was accepted, its data must not reach the file then
+			FileChannel ch = channel;
+			if (ch == null || generation != gen)
+				return false;
+			ByteBuffer bb = ByteBuffer.wrap(msg.getData(), 0,
+					msg.getDataLength());
+			while (bb.hasRemaining()) {
+				ch.write(bb, offset + bb.position());
 			}
+		} finally {
+			channelLock.readLock().unlock();
 			synchronized (this) {
-				next = msgBuffer
-						.get(Long.valueOf(lastMessageProcessed.get() + 1));
-				if (next == null) {
-					isWriting = false;
-				}
+				if (generation == gen)
+					inFlight.clear(number);
 			}
 		}
 
+		boolean complete;
+		boolean save;
+		synchronized (this) {
+			if (closed || generation != gen || received.get(number))
+				return false;
+			received.set(number);
+			receivedCount++;
+			complete = receivedCount == totalNrOfMessages;
+			save = !complete && receivedCount % PROGRESS_INTERVAL == 0;
+			if (complete)
+				closed = true;
+		}
+		if (complete) {
+			force();
+			cleanup();
+			File progress = getProgressFile(file);
+			if (progress.exists() && !progress.delete())
+				log.warn(sm.getString("fileMessageFactory.deleteFail", progress));
+			return true;
+		}
+		if (save)
+			saveProgress();
 		return false;
 	}
 
 	/**
-	 * Closes the factory, its streams and sets all its references to null
+	 * Start writing a new transfer, the data of another version of the file is
+	 * discarded. Waits for the writes of the previous transfer to finish
+	 * before truncating the file, those writes are not counted as received.
 	 */
-	public void cleanup() {
-		if (in != null)
-			try {
-				in.close();
-			} catch (Exception ignore) {
+	private void start(FileMessage msg, String id) throws IOException {
+		channelLock.writeLock().lock();
+		try {
+			generation++;
+			if (transferId != null)
+				channel.truncate(0);
+		} finally {
+			channelLock.writeLock().unlock();
+		}
+		transferId = id;
+		contextName = msg.getContextName();
+		size = msg.getTotalLength();
+		totalNrOfMessages = msg.getTotalNrOfMsgs();
+		received.clear();
+		inFlight.clear();
+		receivedCount = 0;
+	}
+
+	/**
+	 * Returns the numbers of the messages which have not been written yet.
+	 *
+	 * @param max
+	 *            int - the maximum number of message numbers returned
+	 * @return int[] - empty if all messages are written or if no message has
+	 *         been received yet
+	 */
+	public synchronized int[] getMissingMessages(int max) {
+		if (transferId == null || closed)
+			return new int[0];
+		int[] missing = new int[(int) Math.min(max, totalNrOfMessages
+				- receivedCount)];
+		int count = 0;
+		for (int i = received.nextClearBit(1); i <= totalNrOfMessages
+				&& count < missing.length; i = received.nextClearBit(i + 1)) {
+			if (!inFlight.get(i))
+				missing[count++] = i;
+		}
+		if (count < missing.length) {
+			int[] result = new int[count];
+			System.arraycopy(missing, 0, result, 0, count);
+			return result;
+		}
+		return missing;
+	}
+
+	/**
+	 * Writes the received message numbers to the progress file. The data
+	 * written so far is forced to disk first, so the progress file never
+	 * contains messages which would be lost on a crash.
+	 */
+	protected void saveProgress() {
+		synchronized (progressLock) {
+			String id;
+			String context;
+			long length;
+			long total;
+			int[] numbers;
+			synchronized (this) {
+				if (closed || transferId == null)
+					return;
+				id = transferId;
+				context = contextName;
+				length = size;
+				total = totalNrOfMessages;
+				numbers = new int[receivedCount];
+				int count = 0;
+				for (int i = received.nextSetBit(1); i >= 0
+						&& count < numbers.length; i = received.nextSetBit(i + 1)) {
+					numbers[count++] = i;
+				}
 			}
-		if (out != null)
+			File progress = getProgressFile(file);
+			File tmp = new File(progress.getPath() + ".tmp");
+			DataOutputStream out = null;
 			try {
+				if (!force())
+					return;
+				out = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(tmp)));
+				out.writeUTF(id);
+				out.writeUTF(context == null ? "" : context);
+				out.writeLong(length);
+				out.writeLong(total);
+				out.writeInt(numbers.length);
+				for (int i = 0; i < numbers.length; i++) {
+					out.writeInt(numbers[i]);
+				}
 				out.close();
-			} catch (Exception ignore) {
+				out = null;
+				if (progress.exists() && !progress.delete())
+					log.warn(sm.getString("fileMessageFactory.deleteFail",
+							progress));
+				if (!tmp.renameTo(progress))
+					log.warn(sm.getString("fileMessageFactory.progressFail",
+							progress));
+			} catch (IOException x) {
+				log.warn(sm.getString("fileMessageFactory.progressFail",
+						progress), x);
+			} finally {
+				if (out != null)
+					try {
+						out.close();
+					} catch (IOException ignore) {
+					}
 			}
-		in = null;
-		out = null;
+		}
+	}
+
+	/**
+	 * Forces the data written so far to disk.
+	 *
+	 * @return false if the factory has been cleaned up
+	 */
+	private boolean force() throws IOException {
+		channelLock.readLock().lock();
+		try {
+			if (channel == null)
+				return false;
+			channel.force(false);
+			return true;
+		} finally {
+			channelLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the progress file of an earlier transfer of the file.
+	 *
+	 * @return true if the transfer continues, false if the file is written
+	 *         from the start
+	 */
+	private boolean loadProgress() {
+		File progress = getProgressFile(file);
+		if (!progress.exists())
+			return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(progress)));
+			transferId = in.readUTF();
+			contextName = in.readUTF();
+			size = in.readLong();
+			totalNrOfMessages = in.readLong();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int number = in.readInt();
+				if (number >= 1 && number <= totalNrOfMessages
+						&& !received.get(number)) {
+					received.set(number);
+					receivedCount++;
+				}
+			}
+			if (log.isInfoEnabled())
+				log.info(sm.getString("fileMessageFactory.resume", file,
+						Integer.valueOf(receivedCount),
+						Long.valueOf(totalNrOfMessages)));
+			return true;
+		} catch (IOException x) {
+			log.warn(sm.getString("fileMessageFactory.progressFail", progress),
+					x);
+			transferId = null;
+			contextName = null;
+			size = 0;
+			totalNrOfMessages = 0;
+			received.clear();
+			receivedCount = 0;
+			return false;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException ignore) {
+				}
+		}
+	}
+
+	/**
+	 * Closes the factory, its file and sets all its references to null. Waits
+	 * for the reads and writes in progress to finish.
+	 */
+	public synchronized void cleanup() {
+		channelLock.writeLock().lock();
+		try {
+			if (raf != null)
+				try {
+					raf.close();
+				} catch (Exception ignore) {
+				}
+			raf = null;
+			channel = null;
+		} finally {
+			channelLock.writeLock().unlock();
+		}
 		size = 0;
 		closed = true;
 		data = null;
 		nrOfMessagesProcessed = 0;
-		totalNrOfMessages = 0;
-		msgBuffer.clear();
-		lastMessageProcessed = null;
 	}
 
 	/**
 	 * Check to make sure the factory is able to perform the function it is
 	 * asked to do. Invoked by readMessage/writeMessage before those methods
 	 * proceed.
-	 * 
+	 *
 	 * @param openForWrite
 	 *            boolean
 	 * @throws IllegalArgumentException
@@ -358,6 +724,17 @@ public class FileMessageFactory {
 		}
 	}
 
+	/**
+	 * The progress file of a file written by a factory.
+	 *
+	 * @param f
+	 *            File - the file written
+	 * @return File
+	 */
+	public static File getProgressFile(File f) {
+		return new File(f.getPath() + PROGRESS_SUFFIX);
+	}
+
 	/**
 	 * Example usage.
 	 * 
@@ -398,17 +775,50 @@ public class FileMessageFactory {
 	public boolean isValid() {
 		if (maxValidTime > 0) {
 			long timeNow = System.currentTimeMillis();
-			int timeIdle = (int) ((timeNow - creationTime) / 1000L);
+			int timeIdle = (int) ((timeNow - Math.max(creationTime,
+					lastActivity)) / 1000L);
 			if (timeIdle > maxValidTime) {
 				cleanup();
 				if (file.exists())
 					file.delete();
+				File progress = getProgressFile(file);
+				if (progress.exists())
+					progress.delete();
 				return false;
 			}
 		}
 		return true;
 	}
 
+	public String getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * Is the file written from the messages of a sender without transfer ids,
+	 * which can't send missing messages again?
+	 */
+	public boolean isLegacy() {
+		String id = transferId;
+		return id != null && id.endsWith(LEGACY_SUFFIX);
+	}
+
+	public String getContextName() {
+		return contextName;
+	}
+
+	public long getTotalNrOfMessages() {
+		return totalNrOfMessages;
+	}
+
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
 	public int getMaxValidTime() {
 		return maxValidTime;
 	}
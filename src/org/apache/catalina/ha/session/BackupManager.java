@@ -28,6 +28,7 @@ import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.tipis.AbstractReplicatedMapMapOwner;
+import org.apache.catalina.tribes.tipis.ConsistentHashRing;
 import org.apache.catalina.tribes.tipis.LazyReplicatedMap;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -79,6 +80,17 @@ public class BackupManager extends ClusterManagerBase implements
 	 */
 	private boolean terminateOnStartFailure = false;
 
+	/**
+	 * Select the backup node of a session on a consistent hash ring instead
+	 * of round robin.
+	 */
+	private boolean consistentHashing = false;
+
+	/**
+	 * Number of points on the hash ring per cluster member.
+	 */
+	private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
 	/**
 	 * Constructor, just calls super()
 	 *
@@ -170,6 +182,8 @@ public class BackupManager extends ClusterManagerBase implements
 					this, getCluster().getChannel(), getRpcTimeoutData(), getMapName(),
 					getClassLoaders(), isTerminateOnStartFailureData());
 			map.setChannelSendOptions(getMapSendOptionsData());
+			map.setVirtualNodes(getVirtualNodesData());
+			map.setConsistentHashing(isConsistentHashingData());
 			this.setSessions(map);
 		} catch (Exception x) {
 			log.error(sm.getString("backupManager.startUnable", getName()), x);
@@ -248,6 +262,22 @@ public class BackupManager extends ClusterManagerBase implements
 		return isTerminateOnStartFailureData();
 	}
 
+	public void setConsistentHashing(boolean consistentHashing) {
+		this.setConsistentHashingData(consistentHashing);
+	}
+
+	public boolean isConsistentHashing() {
+		return isConsistentHashingData();
+	}
+
+	public void setVirtualNodes(int virtualNodes) {
+		this.setVirtualNodesData(virtualNodes);
+	}
+
+	public int getVirtualNodes() {
+		return getVirtualNodesData();
+	}
+
 	@Override
 	public String[] getInvalidatedSessions() {
 		return new String[0];
@@ -261,9 +291,27 @@ public class BackupManager extends ClusterManagerBase implements
 		result.setMapSendOptionsData(mapSendOptions);
 		result.setRpcTimeoutData(rpcTimeout);
 		result.setTerminateOnStartFailureData(terminateOnStartFailure);
+		result.setConsistentHashingData(consistentHashing);
+		result.setVirtualNodesData(virtualNodes);
 		return result;
 	}
 
+	/**
+	 * Find a session this node has no map entry for by asking the cluster
+	 * members where it is and retrieving it from its primary or backup node.
+	 * The session becomes primary on this node.
+	 * 
+	 * @param id
+	 *            the session id
+	 * @return the session or <code>null</code> if no member has it
+	 */
+	public Session2 findSessionInCluster(String id) {
+		if (!(getSessions() instanceof LazyReplicatedMap))
+			return null;
+		LazyReplicatedMap<String, Session2> map = (LazyReplicatedMap<String, Session2>) getSessions();
+		return map.retrieve(id);
+	}
+
 	@Override
 	public int getActiveSessionsFull() {
 		LazyReplicatedMap<String, Session2> map = (LazyReplicatedMap<String, Session2>) getSessions();
@@ -313,6 +361,22 @@ public class BackupManager extends ClusterManagerBase implements
 		this.terminateOnStartFailure = terminateOnStartFailure;
 	}
 
+	public boolean isConsistentHashingData() {
+		return consistentHashing;
+	}
+
+	public void setConsistentHashingData(boolean consistentHashing) {
+		this.consistentHashing = consistentHashing;
+	}
+
+	public int getVirtualNodesData() {
+		return virtualNodes;
+	}
+
+	public void setVirtualNodesData(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
 	public boolean ismExpireSessionsOnShutdownData() {
 		return mExpireSessionsOnShutdown;
 	}
@@ -24,7 +24,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Engine;
@@ -37,6 +40,7 @@ import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.io.ReplicationStream;
+import org.apache.catalina.tribes.util.Arrays;
 import org.apache.tomcat.util.ExceptionUtils2;
 import org.apache.tomcat.util.res.StringManager3;
 import org.apache.juli.logging.LogFactory;
@@ -100,6 +104,39 @@ public class DeltaManager extends ClusterManagerBase {
 	private boolean receiverQueue = false;
 	private boolean stateTimestampDrop = true;
 	private long stateTransferCreateSendTime;
+	/**
+	 * Pull the session state from all members at once, each member sends the
+	 * sessions of one partition of the session id space.
+	 */
+	private boolean parallelStateTransfer = false;
+	/**
+	 * Start the manager without waiting for the session state, requests for a
+	 * session that has not been transferred yet wait for it.
+	 */
+	private boolean backgroundStateTransfer = false;
+	/**
+	 * The longest time (in ms) a lookup waits for a session of a partition
+	 * still being transferred (default 2 sec)
+	 */
+	private int stateTransferSessionWaitTime = 2 * 1000;
+	private volatile boolean stateTransferInProgress = false;
+	/**
+	 * The thread pulling the session state when the state transfer runs in
+	 * the background, interrupted when the manager stops.
+	 */
+	private volatile Thread stateTransferThread = null;
+	/**
+	 * Serializes the state transfers without holding the lifecycle lock of the
+	 * manager, so a background state transfer does not block stop().
+	 */
+	private final Object stateTransferLock = new Object();
+	/**
+	 * The partitions requested from each member and not transferred yet,
+	 * guarded by itself. Also used to signal the arrival of sessions.
+	 */
+	private final HashMap<Member, LinkedList<Integer>> pendingPartitions = new HashMap<Member, LinkedList<Integer>>();
+	private int partitionCount = 0;
+	private final HashSet<Member> noContextManagerMembers = new HashSet<Member>();
 
 	// ------------------------------------------------------------------ stats
 	// attributes
@@ -400,6 +437,96 @@ public class DeltaManager extends ClusterManagerBase {
 		this.setSendAllSessionsSizeData(sendAllSessionsSize);
 	}
 
+	/**
+	 * @return Returns the parallelStateTransfer.
+	 */
+	public boolean isParallelStateTransfer() {
+		return isParallelStateTransferData();
+	}
+
+	/**
+	 * @param parallelStateTransfer
+	 *            The parallelStateTransfer to set.
+	 */
+	public void setParallelStateTransfer(boolean parallelStateTransfer) {
+		this.setParallelStateTransferData(parallelStateTransfer);
+	}
+
+	/**
+	 * @return Returns the backgroundStateTransfer.
+	 */
+	public boolean isBackgroundStateTransfer() {
+		return isBackgroundStateTransferData();
+	}
+
+	/**
+	 * @param backgroundStateTransfer
+	 *            The backgroundStateTransfer to set.
+	 */
+	public void setBackgroundStateTransfer(boolean backgroundStateTransfer) {
+		this.setBackgroundStateTransferData(backgroundStateTransfer);
+	}
+
+	/**
+	 * @return Returns the stateTransferSessionWaitTime.
+	 */
+	public int getStateTransferSessionWaitTime() {
+		return getStateTransferSessionWaitTimeData();
+	}
+
+	/**
+	 * @param stateTransferSessionWaitTime
+	 *            The stateTransferSessionWaitTime to set.
+	 */
+	public void setStateTransferSessionWaitTime(
+			int stateTransferSessionWaitTime) {
+		this.setStateTransferSessionWaitTimeData(stateTransferSessionWaitTime);
+	}
+
+	/**
+	 * is a background session state transfer still running?
+	 */
+	public boolean isStateTransferInProgress() {
+		return isStateTransferInProgressData();
+	}
+
+	/**
+	 * Return the active Session, associated with this Manager, with the
+	 * specified session id (if any). While a background state transfer is
+	 * running an unknown session may still be on its way, wait for it while
+	 * the partition of its id is not transferred yet, at most
+	 * stateTransferSessionWaitTime. Unknown ids of a transferred partition,
+	 * like expired or invalid ones, are not waited for.
+	 * 
+	 * @param id
+	 *            The session id for the session to be returned
+	 */
+	@Override
+	public Session2 findSession(String id) throws IOException {
+		Session2 session = super.findSession(id);
+		if (session == null && id != null && isStateTransferInProgressData()
+				&& getStateTransferSessionWaitTimeData() > 0) {
+			long timeout = getStateTransferSessionWaitTimeData();
+			long start = System.currentTimeMillis();
+			synchronized (getPendingPartitionsData()) {
+				session = super.findSession(id);
+				while (session == null && isStateTransferInProgressData()
+						&& isPartitionPending(id)) {
+					long wait = timeout - (System.currentTimeMillis() - start);
+					if (wait <= 0)
+						break;
+					try {
+						getPendingPartitionsData().wait(wait);
+					} catch (InterruptedException x) {
+						break;
+					}
+					session = super.findSession(id);
+				}
+			}
+		}
+		return session;
+	}
+
 	/**
 	 * @return Returns the notifySessionListenersOnReplication.
 	 */
@@ -677,7 +804,7 @@ public class DeltaManager extends ClusterManagerBase {
 				session.resetDeltaRequest();
 				// FIXME How inform other session id cache like SingleSignOn
 				// increment sessionCounter to correct stats report
-				if (findSession(session.getIdInternal()) == null) {
+				if (super.findSession(session.getIdInternal()) == null) {
 					setSessionCounter(getSessionCounter() + 1);
 				} else {
 					setSessionReplaceCounterData(getSessionReplaceCounterData() + 1);
@@ -788,7 +915,25 @@ public class DeltaManager extends ClusterManagerBase {
 				log.info(sm
 						.getString("deltaManager.startClustering", getName()));
 
-			getAllClusterSessions();
+			if (isBackgroundStateTransferData()) {
+				setStateTransferInProgressData(true);
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							getAllClusterSessions();
+						} finally {
+							stateTransferEnded();
+							stateTransferThread = null;
+						}
+					}
+				}, "DeltaManager-StateTransfer-" + getName());
+				t.setDaemon(true);
+				stateTransferThread = t;
+				t.start();
+			} else {
+				getAllClusterSessions();
+			}
 
 		} catch (Throwable t) {
 			ExceptionUtils2.handleThrowable(t);
@@ -803,40 +948,63 @@ public class DeltaManager extends ClusterManagerBase {
 	 * 
 	 * @see #findSessionMasterMember()
 	 */
-	public synchronized void getAllClusterSessions() {
+	public void getAllClusterSessions() {
+		synchronized (stateTransferLock) {
+			getAllClusterSessionsInternal();
+		}
+	}
+
+	private void getAllClusterSessionsInternal() {
 		if (getCluster() != null && getCluster().getMembers().length > 0) {
 			long beforeSendTime = System.currentTimeMillis();
-			Member mbr = findSessionMasterMember();
-			if (mbr == null) { // No domain member found
-				return;
+			Member[] mbrs;
+			if (isParallelStateTransferData()) {
+				mbrs = getCluster().getMembers();
+			} else {
+				Member mbr = findSessionMasterMember();
+				if (mbr == null) { // No domain member found
+					return;
+				}
+				mbrs = new Member[] { mbr };
 			}
-			SessionMessage msg = new SessionMessageImpl(this.getName(),
-					SessionMessage.EVT_GET_ALL_SESSIONS, null, "GET-ALL",
-					"GET-ALL-" + getName());
-			msg.setTimestamp(beforeSendTime);
 			// set reference time
 			setStateTransferCreateSendTimeData(beforeSendTime);
-			// request session state
-			setCounterSend_EVT_GET_ALL_SESSIONSData(getCounterSend_EVT_GET_ALL_SESSIONSData() + 1);
 			setStateTransferedData(false);
+			setNoContextManagerReceivedData(false);
+			synchronized (getPendingPartitionsData()) {
+				getPendingPartitionsData().clear();
+				getNoContextManagerMembersData().clear();
+				setPartitionCountData(isParallelStateTransferData() ? mbrs.length
+						: 0);
+				// register every partition before the first one can complete
+				for (int i = 0; i < getPartitionCountData(); i++) {
+					LinkedList<Integer> partitions = new LinkedList<Integer>();
+					partitions.add(Integer.valueOf(i));
+					getPendingPartitionsData().put(mbrs[i], partitions);
+				}
+			}
 			// FIXME This send call block the deploy thread, when sender
 			// waitForAck is enabled
 			try {
 				synchronized (getReceivedMessageQueueData()) {
 					setReceiverQueueData(true);
 				}
-				getCluster().send(msg, mbr);
+				for (int i = 0; i < mbrs.length; i++) {
+					requestSessions(mbrs[i], i, beforeSendTime);
+				}
 				if (log.isInfoEnabled())
 					log.info(sm.getString("deltaManager.waitForSessionState",
-							getName(), mbr,
+							getName(), Arrays.toNameString(mbrs),
 							Integer.valueOf(getStateTransferTimeout())));
 				// FIXME At sender ack mode this method check only the state
 				// transfer and resend is a problem!
 				waitForSendAllSessions(beforeSendTime);
 			} finally {
+				stateTransferEnded();
 				synchronized (getReceivedMessageQueueData()) {
 					for (Iterator<SessionMessage> iter = getReceivedMessageQueueData()
-							.iterator(); iter.hasNext();) {
+							.iterator(); iter.hasNext()
+							&& isStateTransferAllowed();) {
 						SessionMessage smsg = iter.next();
 						if (!isStateTimestampDropData()) {
 							messageReceived(
@@ -874,6 +1042,100 @@ public class DeltaManager extends ClusterManagerBase {
 		}
 	}
 
+	/**
+	 * Request the session state, or one partition of it when the state
+	 * transfer is parallel, from a member.
+	 * 
+	 * @param mbr
+	 *            the member to ask
+	 * @param partition
+	 *            the partition index, ignored if the transfer is not parallel
+	 * @param beforeSendTime
+	 *            the reference time of the state transfer
+	 */
+	protected void requestSessions(Member mbr, int partition,
+			long beforeSendTime) {
+		byte[] data = null;
+		if (getPartitionCountData() > 0)
+			data = serializePartition(partition, getPartitionCountData());
+		SessionMessage msg = new SessionMessageImpl(this.getName(),
+				SessionMessage.EVT_GET_ALL_SESSIONS, data, "GET-ALL",
+				"GET-ALL-" + getName());
+		msg.setTimestamp(beforeSendTime);
+		// request session state
+		setCounterSend_EVT_GET_ALL_SESSIONSData(getCounterSend_EVT_GET_ALL_SESSIONSData() + 1);
+		getCluster().send(msg, mbr);
+	}
+
+	/**
+	 * Mark the end of the state transfer and wake up the requests waiting for
+	 * a session.
+	 */
+	protected void stateTransferEnded() {
+		synchronized (getPendingPartitionsData()) {
+			setStateTransferInProgressData(false);
+			getPendingPartitionsData().notifyAll();
+		}
+	}
+
+	/**
+	 * May the transferred session state still be applied? Not once the manager
+	 * has begun to stop.
+	 */
+	protected boolean isStateTransferAllowed() {
+		LifecycleState state = getState();
+		return state == LifecycleState.STARTING_PREP
+				|| state == LifecycleState.STARTING
+				|| state == LifecycleState.STARTED;
+	}
+
+	/**
+	 * Is the partition holding the session id still being transferred? Called
+	 * with the lock on pendingPartitions held.
+	 */
+	protected boolean isPartitionPending(String id) {
+		if (isStateTransferedData())
+			return false;
+		if (getPartitionCountData() <= 0)
+			return true;
+		Integer partition = Integer.valueOf((id.hashCode() & 0x7FFFFFFF)
+				% getPartitionCountData());
+		for (LinkedList<Integer> partitions : getPendingPartitionsData()
+				.values()) {
+			if (partitions.contains(partition))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Serialize the partition of the session id space to transfer
+	 */
+	protected byte[] serializePartition(int partition, int count) {
+		return new byte[] { (byte) (partition >>> 24),
+				(byte) (partition >>> 16), (byte) (partition >>> 8),
+				(byte) partition, (byte) (count >>> 24), (byte) (count >>> 16),
+				(byte) (count >>> 8), (byte) count };
+	}
+
+	/**
+	 * Deserialize the partition of a session state request
+	 * 
+	 * @return {partition, count} or <code>null</code> if all sessions are
+	 *         requested
+	 */
+	protected int[] deserializePartition(byte[] data) {
+		if (data == null || data.length != 8)
+			return null;
+		int partition = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16)
+				| ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+		int count = ((data[4] & 0xFF) << 24) | ((data[5] & 0xFF) << 16)
+				| ((data[6] & 0xFF) << 8) | (data[7] & 0xFF);
+		if (count <= 1 || partition < 0 || partition >= count)
+			return null;
+		return new int[] { partition, count };
+	}
+
 	/**
 	 * Find the master of the session state
 	 * 
@@ -905,23 +1167,30 @@ public class DeltaManager extends ClusterManagerBase {
 			do {
 				try {
 					Thread.sleep(100);
-				} catch (Exception sleep) {
-					//
+				} catch (InterruptedException sleep) {
+					// the manager is stopping
+					Thread.currentThread().interrupt();
+					return;
 				}
 				reqNow = System.currentTimeMillis();
 				isTimeout = ((reqNow - reqStart) > (1000L * getStateTransferTimeout()));
 			} while ((!getStateTransfered()) && (!isTimeout)
-					&& (!isNoContextManagerReceived()));
+					&& (!isNoContextManagerReceived())
+					&& isStateTransferAllowed());
 		} else {
 			if (getStateTransferTimeout() == -1) {
 				// wait that state is transfered
 				do {
 					try {
 						Thread.sleep(100);
-					} catch (Exception sleep) {
+					} catch (InterruptedException sleep) {
+						// the manager is stopping
+						Thread.currentThread().interrupt();
+						return;
 					}
 				} while ((!getStateTransfered())
-						&& (!isNoContextManagerReceived()));
+						&& (!isNoContextManagerReceived())
+						&& isStateTransferAllowed());
 				reqNow = System.currentTimeMillis();
 			}
 		}
@@ -957,6 +1226,13 @@ public class DeltaManager extends ClusterManagerBase {
 		if (log.isDebugEnabled())
 			log.debug(sm.getString("deltaManager.stopped", getName()));
 
+		// Stop waiting for the session state, the background transfer no
+		// longer holds this lock but may be sleeping until its timeout
+		Thread transfer = stateTransferThread;
+		if (transfer != null) {
+			transfer.interrupt();
+		}
+
 		setState(LifecycleState.STOPPING);
 
 		// Expire all active sessions
@@ -1354,8 +1630,25 @@ public class DeltaManager extends ClusterManagerBase {
 			log.debug(sm.getString(
 					"deltaManager.receiveMessage.transfercomplete", getName(),
 					sender.getHost(), Integer.valueOf(sender.getPort())));
-		setStateTransferCreateSendTimeData(msg.getTimestamp());
-		setStateTransferedData(true);
+		synchronized (getPendingPartitionsData()) {
+			if (getPartitionCountData() > 0) {
+				LinkedList<Integer> partitions = getPendingPartitionsData()
+						.get(sender);
+				if (partitions == null || partitions.isEmpty())
+					return;
+				partitions.removeFirst();
+				if (partitions.isEmpty())
+					getPendingPartitionsData().remove(sender);
+				// the partitions are snapshots taken at different times, keep
+				// the request time as reference to replay every newer message
+				if (!getPendingPartitionsData().isEmpty())
+					return;
+			} else {
+				setStateTransferCreateSendTimeData(msg.getTimestamp());
+			}
+			setStateTransferedData(true);
+			getPendingPartitionsData().notifyAll();
+		}
 	}
 
 	/**
@@ -1471,8 +1764,21 @@ public class DeltaManager extends ClusterManagerBase {
 			log.debug(sm.getString(
 					"deltaManager.receiveMessage.allSessionDataBegin",
 					getName()));
+		if (!isStateTransferAllowed()) {
+			if (log.isWarnEnabled())
+				log.warn(sm.getString(
+						"deltaManager.receiveMessage.allSessionDataDropped",
+						getName(), getState()));
+			return;
+		}
 		byte[] data = msg.getSession();
 		deserializeSessions(data);
+		if (isStateTransferInProgressData()) {
+			// wake up the requests waiting for a session of this block
+			synchronized (getPendingPartitionsData()) {
+				getPendingPartitionsData().notifyAll();
+			}
+		}
 		if (log.isDebugEnabled())
 			log.debug(sm.getString(
 					"deltaManager.receiveMessage.allSessionDataAfter",
@@ -1500,6 +1806,17 @@ public class DeltaManager extends ClusterManagerBase {
 		// get all sessions and serialize without sync
 		Session2[] currentSessions = findSessions();
 		long findSessionTimestamp = System.currentTimeMillis();
+		int[] partition = deserializePartition(msg.getSession());
+		if (partition != null) {
+			ArrayList<Session2> selected = new ArrayList<Session2>();
+			for (int i = 0; i < currentSessions.length; i++) {
+				String id = currentSessions[i].getIdInternal();
+				if (id != null
+						&& (id.hashCode() & 0x7FFFFFFF) % partition[1] == partition[0])
+					selected.add(currentSessions[i]);
+			}
+			currentSessions = selected.toArray(new Session2[selected.size()]);
+		}
 		if (isSendAllSessions()) {
 			sendSessions(sender, currentSessions, findSessionTimestamp);
 		} else {
@@ -1571,6 +1888,39 @@ public class DeltaManager extends ClusterManagerBase {
 			log.debug(sm.getString(
 					"deltaManager.receiveMessage.noContextManager", getName(),
 					sender.getHost(), Integer.valueOf(sender.getPort())));
+		Member other = null;
+		LinkedList<Integer> partitions = null;
+		synchronized (getPendingPartitionsData()) {
+			if (getPartitionCountData() > 0) {
+				getNoContextManagerMembersData().add(sender);
+				partitions = getPendingPartitionsData().remove(sender);
+				if (partitions != null) {
+					// ask another member for the partitions this member
+					// cannot send
+					Member[] mbrs = getCluster().getMembers();
+					for (int i = 0; i < mbrs.length && other == null; i++) {
+						if (!getNoContextManagerMembersData().contains(mbrs[i]))
+							other = mbrs[i];
+					}
+					if (other != null) {
+						LinkedList<Integer> pending = getPendingPartitionsData()
+								.get(other);
+						if (pending == null) {
+							pending = new LinkedList<Integer>();
+							getPendingPartitionsData().put(other, pending);
+						}
+						pending.addAll(partitions);
+					}
+				}
+			}
+		}
+		if (other != null) {
+			for (Integer partition : partitions) {
+				requestSessions(other, partition.intValue(),
+						getStateTransferCreateSendTimeData());
+			}
+			return;
+		}
 		setNoContextManagerReceivedData(true);
 	}
 
@@ -1611,6 +1961,9 @@ public class DeltaManager extends ClusterManagerBase {
 		result.setSendAllSessionsSizeData(sendAllSessionsSize);
 		result.setSendAllSessionsWaitTimeData(sendAllSessionsWaitTime);
 		result.setStateTimestampDropData(stateTimestampDrop);
+		result.setParallelStateTransferData(parallelStateTransfer);
+		result.setBackgroundStateTransferData(backgroundStateTransfer);
+		result.setStateTransferSessionWaitTimeData(stateTransferSessionWaitTime);
 		return result;
 	}
 
@@ -1704,6 +2057,55 @@ public class DeltaManager extends ClusterManagerBase {
 		this.sendAllSessionsWaitTime = sendAllSessionsWaitTime;
 	}
 
+	public boolean isParallelStateTransferData() {
+		return parallelStateTransfer;
+	}
+
+	public void setParallelStateTransferData(boolean parallelStateTransfer) {
+		this.parallelStateTransfer = parallelStateTransfer;
+	}
+
+	public boolean isBackgroundStateTransferData() {
+		return backgroundStateTransfer;
+	}
+
+	public void setBackgroundStateTransferData(boolean backgroundStateTransfer) {
+		this.backgroundStateTransfer = backgroundStateTransfer;
+	}
+
+	public int getStateTransferSessionWaitTimeData() {
+		return stateTransferSessionWaitTime;
+	}
+
+	public void setStateTransferSessionWaitTimeData(
+			int stateTransferSessionWaitTime) {
+		this.stateTransferSessionWaitTime = stateTransferSessionWaitTime;
+	}
+
+	public boolean isStateTransferInProgressData() {
+		return stateTransferInProgress;
+	}
+
+	public void setStateTransferInProgressData(boolean stateTransferInProgress) {
+		this.stateTransferInProgress = stateTransferInProgress;
+	}
+
+	public HashMap<Member, LinkedList<Integer>> getPendingPartitionsData() {
+		return pendingPartitions;
+	}
+
+	public int getPartitionCountData() {
+		return partitionCount;
+	}
+
+	public void setPartitionCountData(int partitionCount) {
+		this.partitionCount = partitionCount;
+	}
+
+	public HashSet<Member> getNoContextManagerMembersData() {
+		return noContextManagerMembers;
+	}
+
 	public ArrayList<SessionMessage> getReceivedMessageQueueData() {
 		return receivedMessageQueue;
 	}
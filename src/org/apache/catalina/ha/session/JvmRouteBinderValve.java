@@ -17,6 +17,8 @@
 package org.apache.catalina.ha.session;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import javax.servlet.ServletException;
 
@@ -88,6 +90,13 @@ import org.apache.juli.logging.LogFactory;
  * and disable JvmRouteBinderValves again. This use case means that only
  * requested sessions are migrated.
  * 
+ * <p>
+ * With the BackupManager, a node only holds the sessions it is primary or
+ * backup for. Set <code>sessionPull</code> to true and a session this node
+ * does not know is retrieved on demand from its owner or backup node, so the
+ * failover stays transparent without replicating all sessions to all nodes.
+ * 
+ * 
  * @author Peter Rossbach
  */
 public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
@@ -130,6 +139,35 @@ public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
 
 	private String sessionIdAttribute = "org.apache.catalina.ha.session.JvmRouteOrignalSessionID";
 
+	/**
+	 * Retrieve an unknown session on demand from the node owning it, this
+	 * only works with the BackupManager
+	 */
+	private boolean sessionPull = false;
+
+	/**
+	 * How long (msec) a session id that could not be pulled is not looked up
+	 * again
+	 */
+	private long negativeCacheTimeout = 10000;
+
+	/**
+	 * Max number of session ids remembered as not found
+	 */
+	private int negativeCacheSize = 1000;
+
+	/**
+	 * Session ids not found in the cluster with the time they were looked up,
+	 * in access order
+	 */
+	private final LinkedHashMap<String, Long> negativeCache = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+
+	/**
+	 * number of sessions pulled from other nodes
+	 */
+	private long numberOfPulledSessions = 0;
+
 	/*--Logic---------------------------------------------------*/
 
 	/**
@@ -183,6 +221,58 @@ public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
 		this.enabled = enabled;
 	}
 
+	/**
+	 * @return Returns the sessionPull.
+	 */
+	public boolean getSessionPull() {
+		return sessionPull;
+	}
+
+	/**
+	 * @param sessionPull
+	 *            The sessionPull to set.
+	 */
+	public void setSessionPull(boolean sessionPull) {
+		this.sessionPull = sessionPull;
+	}
+
+	/**
+	 * @return Returns the negativeCacheTimeout in msec.
+	 */
+	public long getNegativeCacheTimeout() {
+		return negativeCacheTimeout;
+	}
+
+	/**
+	 * @param negativeCacheTimeout
+	 *            The negativeCacheTimeout to set in msec.
+	 */
+	public void setNegativeCacheTimeout(long negativeCacheTimeout) {
+		this.negativeCacheTimeout = negativeCacheTimeout;
+	}
+
+	/**
+	 * @return Returns the negativeCacheSize.
+	 */
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+
+	/**
+	 * @param negativeCacheSize
+	 *            The negativeCacheSize to set.
+	 */
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		this.negativeCacheSize = negativeCacheSize;
+	}
+
+	/**
+	 * @return Returns the number of sessions pulled from other nodes.
+	 */
+	public long getNumberOfPulledSessions() {
+		return numberOfPulledSessions;
+	}
+
 	/**
 	 * Detect possible the JVMRoute change at cluster backup node..
 	 * 
@@ -344,7 +434,12 @@ public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
 					// session is rewrite at other request, rewrite this also
 					changeRequestSessionID(request, sessionId, newSessionID);
 				} else {
-					if (log.isDebugEnabled()) {
+					catalinaSession = pullSession(request, sessionId);
+					if (catalinaSession != null) {
+						changeSessionID(request, sessionId, newSessionID,
+								catalinaSession);
+						numberOfSessions++;
+					} else if (log.isDebugEnabled()) {
 						log.debug(sm.getString("jvmRoute.cannotFindSession",
 								sessionId));
 					}
@@ -353,6 +448,51 @@ public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
 		}
 	}
 
+	/**
+	 * Retrieve a session this node does not know from the node owning it or
+	 * from its backup. Session ids that cannot be found are remembered for
+	 * negativeCacheTimeout msec, so requests carrying an expired session id
+	 * do not query the cluster each time.
+	 * 
+	 * @param request
+	 *            current request
+	 * @param sessionId
+	 *            request SessionID from Cookie
+	 * @return the session, now primary at this node, or null
+	 */
+	protected Session2 pullSession(Request request, String sessionId) {
+		Manager manager = getManager(request);
+		if (!sessionPull || !(manager instanceof BackupManager))
+			return null;
+		long now = System.currentTimeMillis();
+		synchronized (negativeCache) {
+			Long notFound = negativeCache.get(sessionId);
+			if (notFound != null) {
+				if (now - notFound.longValue() < negativeCacheTimeout)
+					return null;
+				negativeCache.remove(sessionId);
+			}
+		}
+		Session2 session = ((BackupManager) manager)
+				.findSessionInCluster(sessionId);
+		if (session == null) {
+			synchronized (negativeCache) {
+				negativeCache.put(sessionId, Long.valueOf(now));
+				Iterator<String> iter = negativeCache.keySet().iterator();
+				while (negativeCache.size() > negativeCacheSize
+						&& iter.hasNext()) {
+					iter.next();
+					iter.remove();
+				}
+			}
+		} else {
+			numberOfPulledSessions++;
+			if (log.isDebugEnabled())
+				log.debug(sm.getString("jvmRoute.pulledSession", sessionId));
+		}
+		return session;
+	}
+
 	/**
 	 * change session id and send to all cluster nodes
 	 * 
@@ -489,6 +629,10 @@ public class JvmRouteBinderValve extends ValveBase implements ClusterValve {
 
 		cluster = null;
 		numberOfSessions = 0;
+		numberOfPulledSessions = 0;
+		synchronized (negativeCache) {
+			negativeCache.clear();
+		}
 		if (log.isInfoEnabled())
 			log.info(sm.getString("jvmRoute.valve.stopped"));
 
@@ -0,0 +1,450 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.catalina.tribes.membership.Membership;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * <p>Title: A phi accrual failure detector </p>
+ *
+ * <p>Description: Instead of a fixed timeout, the detector keeps the
+ * distribution of the heartbeat inter-arrival times of every member and
+ * computes a suspicion level phi, the -log10 of the probability that a
+ * heartbeat is still on its way. A member is removed when phi exceeds the
+ * threshold, so the detection adapts to the network and to GC pauses.</p>
+ * <p>
+ * On each channel heartbeat the detector sends a unicast heartbeat message
+ * over the channel transport to all known members. Only these heartbeats are
+ * sampled for the inter-arrival times, so the distribution follows the
+ * heartbeat interval and not the replication traffic. Any other message
+ * received from a member shows it is alive and resets the elapsed time, a
+ * removed member is only added again once its heartbeat arrives. The heartbeat carries the members
+ * confirmed by the sender, a receiver starts sending heartbeats to the members
+ * it did not know and adds them once their own heartbeat arrives. A member
+ * learned that way is forgotten when no heartbeat arrives from it within the
+ * candidate timeout.
+ * Configured above a StaticMembershipInterceptor without a multicast
+ * membership service, the static members are the seeds and the membership
+ * of the cluster is gossiped through the heartbeats.
+ * </p>
+ * <p>
+ * memberDisappeared events from below, like a multicast dropTime expiry, are
+ * only trusted for a shutdown or when the member is suspected too.
+ * </p>
+ *
+ * @version 1.0
+ */
+public class PhiAccrualFailureDetector extends ChannelInterceptorBase {
+
+    private static final Log log = LogFactory.getLog( PhiAccrualFailureDetector.class );
+
+    private static byte[] PHI_HEARTBEAT = new byte[] {
+        -37, 11, 92, -104, 43, 5, 76, -28, -113, 60, 91, -7, 21, 120, -66, 3,
+        88, -90, 14, 70, -61, 35, 66, -11, -82, 103, 119, -48, 29, -3, 100, -17,
+        5, -120, 84, 31, -42, 97, 73, 18, -99, 40, -26, 110, 57, -74, 9, -55,
+        64, 26, -117, 81, 2, -68, 79, -33, -91, 47, 122, -14, 52, -101, 36, 94};
+
+    private double threshold = 8.0;
+
+    private int maxSampleSize = 200;
+
+    private long minStdDeviation = 100;
+
+    private long acceptableHeartbeatPause = 0;
+
+    /**
+     * Expected heartbeat interval before any has been measured, matches the
+     * default heartbeat of the GroupChannel
+     */
+    private long firstHeartbeatEstimate = 5000;
+
+    private boolean gossip = true;
+
+    /**
+     * Time after which a member learned through gossip is forgotten if we did
+     * not receive its heartbeat
+     */
+    private long candidateTimeout = 30000;
+
+    private Membership membership = null;
+
+    /**
+     * Heartbeat history of the members we heard from, updated while holding
+     * membership but read without it on the receive path
+     */
+    private final ConcurrentHashMap<Member, PhiAccrualFailureDetectorHeartbeatHistory> histories =
+        new ConcurrentHashMap<Member, PhiAccrualFailureDetectorHeartbeatHistory>();
+
+    /**
+     * Members learned through gossip we did not hear from yet with the time
+     * they were learned, guarded by membership
+     */
+    private final LinkedHashMap<Member, Long> candidates =
+        new LinkedHashMap<Member, Long>();
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        boolean heartbeat = false;
+        if ( okToProcess(msg.getOptions()) ) {
+            XByteBuffer buf = msg.getMessage();
+            heartbeat = buf.getLength() >= PHI_HEARTBEAT.length + 4 &&
+                        startsWith(buf.getBytesDirect(), PHI_HEARTBEAT);
+        }
+        Member sender = msg.getAddress();
+        if ( sender != null ) {
+            if ( heartbeat ) heartbeatReceived(sender);
+            else activityReceived(sender);
+        }
+        if ( heartbeat ) {
+            if ( gossip ) gossipReceived(msg.getMessage());
+            if ( log.isTraceEnabled() ) log.trace("Received a phi accrual heartbeat:"+msg);
+        } else {
+            super.messageReceived(msg);
+        }
+    }
+
+    @Override
+    public void memberAdded(Member member) {
+        if ( membership == null ) setupMembership();
+        boolean notify = false;
+        synchronized (membership) {
+            candidates.remove(member);
+            if ( !histories.containsKey(member) ) {
+                histories.put(member, newHistory());
+            }
+            notify = membership.memberAlive((MemberImpl) member);
+        }
+        if ( notify ) super.memberAdded(member);
+    }
+
+    @Override
+    public void memberDisappeared(Member member) {
+        if ( membership == null ) setupMembership();
+        boolean shutdown = Arrays.equals(member.getCommand(),Member.SHUTDOWN_PAYLOAD);
+        boolean notify = false;
+        double phi = 0.0;
+        synchronized (membership) {
+            if ( !membership.contains(member) ) return;
+            phi = phi(member, System.currentTimeMillis());
+            if ( shutdown || phi >= threshold ) {
+                membership.removeMember((MemberImpl) member);
+                histories.remove(member);
+                notify = true;
+            }
+        }
+        if ( notify ) {
+            if ( log.isInfoEnabled() )
+                log.info("Member disappeared["+member+"] phi["+phi+"] shutdown["+shutdown+"]");
+            super.memberDisappeared(member);
+        } else if ( log.isInfoEnabled() ) {
+            log.info("Received memberDisappeared["+member+"] message, ignored, phi["+phi+
+                    "] is below the threshold["+threshold+"].");
+        }
+    }
+
+    @Override
+    public boolean hasMembers() {
+        if ( membership == null ) setupMembership();
+        return membership.hasMembers();
+    }
+
+    @Override
+    public Member[] getMembers() {
+        if ( membership == null ) setupMembership();
+        return membership.getMembers();
+    }
+
+    @Override
+    public Member getMember(Member mbr) {
+        if ( membership == null ) setupMembership();
+        return membership.getMember(mbr);
+    }
+
+    @Override
+    public void heartbeat() {
+        super.heartbeat();
+        try {
+            sendHeartbeat();
+            checkMembers();
+        } catch ( Exception x ) {
+            log.warn("Unable to perform heartbeat on the PhiAccrualFailureDetector.",x);
+        }
+    }
+
+    /**
+     * Remove the members whose suspicion level exceeds the threshold and
+     * forget the candidates that did not send a heartbeat in time.
+     */
+    public void checkMembers() {
+        if ( membership == null ) setupMembership();
+        long now = System.currentTimeMillis();
+        ArrayList<Member> suspects = new ArrayList<Member>();
+        synchronized (membership) {
+            Iterator<Map.Entry<Member, Long>> it = candidates.entrySet().iterator();
+            while ( it.hasNext() ) {
+                Map.Entry<Member, Long> candidate = it.next();
+                if ( now - candidate.getValue().longValue() > candidateTimeout ) {
+                    if ( log.isDebugEnabled() )
+                        log.debug("Forgetting gossiped member[" + candidate.getKey() +
+                                "], no heartbeat received.");
+                    it.remove();
+                }
+            }
+            Member[] members = membership.getMembers();
+            for (int i = 0; i < members.length; i++) {
+                double phi = phi(members[i], now);
+                if ( phi >= threshold ) {
+                    if ( log.isInfoEnabled() )
+                        log.info("Suspect member["+members[i]+"] phi["+phi+
+                                "] exceeds threshold["+threshold+"], confirmed dead.");
+                    membership.removeMember((MemberImpl) members[i]);
+                    histories.remove(members[i]);
+                    suspects.add(members[i]);
+                }
+            }
+        }
+        for (Member suspect : suspects) {
+            super.memberDisappeared(suspect);
+        }
+    }
+
+    /**
+     * The suspicion level of a member, 0 for an unknown member.
+     * @param member Member
+     * @return double
+     */
+    public double getPhi(Member member) {
+        if ( membership == null ) setupMembership();
+        synchronized (membership) {
+            return phi(member, System.currentTimeMillis());
+        }
+    }
+
+    protected void sendHeartbeat() {
+        if ( membership == null ) setupMembership();
+        LinkedHashSet<Member> destinations = new LinkedHashSet<Member>();
+        destinations.addAll(Arrays.asList(super.getMembers()));
+        byte[] data;
+        synchronized (membership) {
+            destinations.addAll(Arrays.asList(membership.getMembers()));
+            // only gossip the confirmed members, a candidate may be gone
+            data = createHeartbeat(destinations);
+            destinations.addAll(candidates.keySet());
+        }
+        Member local = getLocalMember(false);
+        if ( local != null ) destinations.remove(local);
+        if ( destinations.size() == 0 ) return;
+        ChannelData msg = new ChannelData(true);
+        msg.setAddress(local);
+        msg.setTimestamp(System.currentTimeMillis());
+        msg.setOptions(getOptionFlag());
+        msg.setMessage(new XByteBuffer(data, false));
+        Member[] mbrs = destinations.toArray(new Member[destinations.size()]);
+        try {
+            super.sendMessage(mbrs, msg, null);
+        } catch ( ChannelException x ) {
+            if ( log.isDebugEnabled() ) log.debug("Unable to send phi accrual heartbeat.",x);
+        }
+    }
+
+    protected void heartbeatReceived(Member sender) {
+        if ( membership == null ) setupMembership();
+        boolean added = false;
+        synchronized (membership) {
+            PhiAccrualFailureDetectorHeartbeatHistory history = histories.get(sender);
+            if ( history == null ) {
+                history = newHistory();
+                histories.put(sender, history);
+            }
+            history.heartbeat(System.currentTimeMillis());
+            candidates.remove(sender);
+            if ( sender instanceof MemberImpl && !membership.contains(sender) ) {
+                added = membership.memberAlive((MemberImpl) sender);
+            }
+        }
+        if ( added ) {
+            if ( log.isInfoEnabled() ) log.info("Member added through heartbeat["+sender+"]");
+            super.memberAdded(sender);
+        }
+    }
+
+    /**
+     * A message other than a heartbeat was received, the member is alive but
+     * no interval is sampled and an unknown member is not added. Called for
+     * every message, so it takes no lock.
+     */
+    protected void activityReceived(Member sender) {
+        PhiAccrualFailureDetectorHeartbeatHistory history = histories.get(sender);
+        if ( history != null ) history.activity(System.currentTimeMillis());
+    }
+
+    /**
+     * Heartbeat message: PHI_HEARTBEAT, member count, then for each member
+     * its length and its data.
+     */
+    protected byte[] createHeartbeat(Collection<Member> members) {
+        ArrayList<byte[]> datas = new ArrayList<byte[]>();
+        int length = PHI_HEARTBEAT.length + 4;
+        if ( gossip ) {
+            for (Member member : members) {
+                if ( member instanceof MemberImpl ) {
+                    byte[] d = ((MemberImpl) member).getData(false, false);
+                    datas.add(d);
+                    length += 4 + d.length;
+                }
+            }
+        }
+        byte[] data = new byte[length];
+        System.arraycopy(PHI_HEARTBEAT, 0, data, 0, PHI_HEARTBEAT.length);
+        int pos = PHI_HEARTBEAT.length;
+        XByteBuffer.toBytes(datas.size(), data, pos);
+        pos += 4;
+        for (byte[] d : datas) {
+            XByteBuffer.toBytes(d.length, data, pos);
+            pos += 4;
+            System.arraycopy(d, 0, data, pos, d.length);
+            pos += d.length;
+        }
+        return data;
+    }
+
+    protected void gossipReceived(XByteBuffer buf) {
+        byte[] data = buf.getBytesDirect();
+        int end = buf.getLength();
+        int pos = PHI_HEARTBEAT.length;
+        int count = XByteBuffer.toInt(data, pos);
+        pos += 4;
+        Member local = getLocalMember(false);
+        try {
+            for (int i = 0; i < count && pos + 4 <= end; i++) {
+                int len = XByteBuffer.toInt(data, pos);
+                pos += 4;
+                if ( len <= 0 || pos + len > end ) break;
+                MemberImpl member = MemberImpl.getMember(data, pos, len);
+                pos += len;
+                if ( member.equals(local) ) continue;
+                synchronized (membership) {
+                    if ( !membership.contains(member) && !candidates.containsKey(member) ) {
+                        if ( log.isDebugEnabled() )
+                            log.debug("Learned member through gossip["+member+"]");
+                        candidates.put(member, Long.valueOf(System.currentTimeMillis()));
+                    }
+                }
+            }
+        } catch ( RuntimeException x ) {
+            log.warn("Unable to read the members of a phi accrual heartbeat.",x);
+        }
+    }
+
+    protected synchronized void setupMembership() {
+        if ( membership == null ) {
+            membership = new Membership((MemberImpl)super.getLocalMember(true));
+        }
+    }
+
+    private double phi(Member member, long now) {
+        PhiAccrualFailureDetectorHeartbeatHistory history = histories.get(member);
+        if ( history == null ) return 0.0;
+        return history.phi(now, minStdDeviation, acceptableHeartbeatPause);
+    }
+
+    private PhiAccrualFailureDetectorHeartbeatHistory newHistory() {
+        return new PhiAccrualFailureDetectorHeartbeatHistory(maxSampleSize, firstHeartbeatEstimate);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if ( data[i] != prefix[i] ) return false;
+        }
+        return true;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getMaxSampleSize() {
+        return maxSampleSize;
+    }
+
+    public void setMaxSampleSize(int maxSampleSize) {
+        this.maxSampleSize = maxSampleSize;
+    }
+
+    public long getMinStdDeviation() {
+        return minStdDeviation;
+    }
+
+    public void setMinStdDeviation(long minStdDeviation) {
+        this.minStdDeviation = minStdDeviation;
+    }
+
+    public long getAcceptableHeartbeatPause() {
+        return acceptableHeartbeatPause;
+    }
+
+    public void setAcceptableHeartbeatPause(long acceptableHeartbeatPause) {
+        this.acceptableHeartbeatPause = acceptableHeartbeatPause;
+    }
+
+    public long getFirstHeartbeatEstimate() {
+        return firstHeartbeatEstimate;
+    }
+
+    public void setFirstHeartbeatEstimate(long firstHeartbeatEstimate) {
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+    }
+
+    public boolean getGossip() {
+        return gossip;
+    }
+
+    public void setGossip(boolean gossip) {
+        this.gossip = gossip;
+    }
+
+    public long getCandidateTimeout() {
+        return candidateTimeout;
+    }
+
+    public void setCandidateTimeout(long candidateTimeout) {
+        this.candidateTimeout = candidateTimeout;
+    }
+
+}
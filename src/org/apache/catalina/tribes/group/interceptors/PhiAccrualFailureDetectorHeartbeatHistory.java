@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+/**
+ * The heartbeat inter-arrival times of one member, kept in a bounded window
+ * with a running sum and sum of squares so the mean and the standard deviation
+ * are available in constant time.
+ *
+ * @version 1.0
+ */
+public class PhiAccrualFailureDetectorHeartbeatHistory {
+
+    private final long[] intervals;
+    private int size = 0;
+    private int index = 0;
+    private double sum = 0;
+    private double sumSquares = 0;
+    private long lastHeartbeat = -1;
+    private volatile long lastActivity = -1;
+
+    public PhiAccrualFailureDetectorHeartbeatHistory(int maxSampleSize,
+            long firstHeartbeatEstimate) {
+        intervals = new long[Math.max(1, maxSampleSize)];
+        // seed the window with a guess so phi can be computed after the
+        // first heartbeat, the stddev is a quarter of the estimate
+        long stdDeviation = firstHeartbeatEstimate / 4;
+        add(firstHeartbeatEstimate - stdDeviation);
+        add(firstHeartbeatEstimate + stdDeviation);
+    }
+
+    /**
+     * Record a heartbeat.
+     * @param now long - the arrival time in ms
+     * @return true if this is the first heartbeat of the member
+     */
+    public synchronized boolean heartbeat(long now) {
+        boolean first = lastHeartbeat < 0;
+        if (!first && now > lastHeartbeat) {
+            add(now - lastHeartbeat);
+        }
+        lastHeartbeat = now;
+        if (now > lastActivity) lastActivity = now;
+        return first;
+    }
+
+    /**
+     * Record a message other than a heartbeat, it resets the elapsed time used
+     * by phi but is not sampled as an interval. It does not lock, a race with
+     * another message only loses a few milliseconds of the elapsed time.
+     * @param now long - the arrival time in ms
+     */
+    public void activity(long now) {
+        if (now > lastActivity) lastActivity = now;
+    }
+
+    /**
+     * The suspicion level of the member at the given time, measured from the
+     * last message received, 0 if no message has been received yet.
+     * @param now long - the current time in ms
+     * @param minStdDeviation long - lower bound of the stddev in ms
+     * @param acceptableHeartbeatPause long - pause added to the mean in ms
+     * @return double
+     */
+    public synchronized double phi(long now, long minStdDeviation, long acceptableHeartbeatPause) {
+        if (lastActivity < 0) return 0.0;
+        double mean = sum / size + acceptableHeartbeatPause;
+        double variance = sumSquares / size - (sum / size) * (sum / size);
+        double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0.0)), minStdDeviation);
+        return phi(now - lastActivity, mean, stdDeviation);
+    }
+
+    public synchronized long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * -log10(1 - F(elapsed)) where F is the cumulative distribution of a
+     * normal distribution, using the logistic approximation of the latter.
+     */
+    protected static double phi(long elapsed, double mean, double stdDeviation) {
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        } else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    private void add(long interval) {
+        if (size == intervals.length) {
+            long old = intervals[index];
+            sum -= old;
+            sumSquares -= (double) old * old;
+        } else {
+            size++;
+        }
+        intervals[index] = interval;
+        sum += interval;
+        sumSquares += (double) interval * interval;
+        index = (index + 1) % intervals.length;
+    }
+}
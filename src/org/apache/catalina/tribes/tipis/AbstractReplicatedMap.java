@@ -128,6 +128,18 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 	 */
 	private transient int currentNode = 0;
 
+	/**
+	 * Place backups on a consistent hash ring of the map members instead of
+	 * the round robin, so a membership change only moves the backups of the
+	 * keys whose ring segment changed owner
+	 */
+	private transient boolean consistentHashing = false;
+
+	/**
+	 * The hash ring of the map members, maintained together with mapMembers
+	 */
+	private final transient ConsistentHashRing backupRing = new ConsistentHashRing();
+
 	/**
 	 * Since the map keeps internal membership this is the timeout for a ping
 	 * message to be responded to If a remote map doesn't respond within this
@@ -366,6 +378,7 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		this.setRpcChannelData(null);
 		this.setChannelData(null);
 		this.getMapMembersData().clear();
+		getBackupRingData().clear();
 		getInnerMapData().clear();
 		this.setStateTransferredData(false);
 		this.setExternalLoadersData(null);
@@ -599,6 +612,21 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 			return mapmsg;
 		}
 
+		// locate request, only the primary and the backup know where the
+		// value is
+		if (mapmsg.getMsgType() == AbstractReplicatedMapMapMessage.getMsgLocate()) {
+			AbstractReplicatedMapMapEntry<K, V> entry = getInnerMapData().get(mapmsg
+					.getKey());
+			if (entry == null || entry.isProxy() || (!entry.isSerializable())
+					|| entry.getBackupNodes() == null
+					|| entry.getBackupNodes().length == 0)
+				return null;
+			mapmsg.setPrimary(entry.isPrimary() ? getChannelData()
+					.getLocalMember(false) : entry.getPrimary());
+			mapmsg.setNodes(entry.getBackupNodes());
+			return mapmsg;
+		}
+
 		// state transfer request
 		if (mapmsg.getMsgType() == AbstractReplicatedMapMapMessage.getMsgState()
 				|| mapmsg.getMsgType() == AbstractReplicatedMapMapMessage.getMsgStateCopy()) {
@@ -812,6 +840,7 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		synchronized (getMapMembersData()) {
 			if (!getMapMembersData().containsKey(member)) {
 				getMapMembersData().put(member, new Long(System.currentTimeMillis()));
+				getBackupRingData().add(member);
 				memberAdded = true;
 			}
 		}
@@ -827,8 +856,9 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 					if (entry == null)
 						continue;
 					if (entry.isPrimary()
-							&& (entry.getBackupNodes() == null || entry
-									.getBackupNodes().length == 0)) {
+							&& (entry.getBackupNodes() == null
+									|| entry.getBackupNodes().length == 0 || isRelocated(
+										entry, member))) {
 						try {
 							Member[] backup = publishEntryInfo(entry.getKey(),
 									entry.getValue());
@@ -843,6 +873,40 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		}
 	}
 
+	/**
+	 * When consistent hashing is used, the new member only takes over the
+	 * keys whose ring segment it now owns, the backup of those keys is moved
+	 * to it and every other entry keeps its backup.
+	 * 
+	 * @param entry
+	 *            the primary entry
+	 * @param member
+	 *            the member that joined the map
+	 * @return true if the backup of the entry has to move to the new member
+	 */
+	protected boolean isRelocated(AbstractReplicatedMapMapEntry<K, V> entry,
+			Member member) {
+		if (!isConsistentHashingData())
+			return false;
+		return member.equals(getBackupRingData().getOwner(entry.getKey()))
+				&& !inSet(member, entry.getBackupNodes());
+	}
+
+	/**
+	 * Returns the map members in the order in which they should be tried as
+	 * backup of the key, or <code>null</code> if backups are selected round
+	 * robin.
+	 * 
+	 * @param key
+	 *            Object
+	 * @return Member[]
+	 */
+	public Member[] getBackupCandidates(Object key) {
+		if (!isConsistentHashingData())
+			return null;
+		return getBackupRingData().getOrderedMembers(key);
+	}
+
 	public boolean inSet(Member m, Member[] set) {
 		if (set == null)
 			return false;
@@ -876,6 +940,7 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		boolean removed = false;
 		synchronized (getMapMembersData()) {
 			removed = (getMapMembersData().remove(member) != null);
+			getBackupRingData().remove(member);
 			if (!removed) {
 				if (log.isDebugEnabled())
 					log.debug("Member[" + member
@@ -1110,6 +1175,56 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		return entry.getValue();
 	}
 
+	/**
+	 * Returns the value of a key this node might have no entry for, for
+	 * example because the proxy message of the key was missed. The members are
+	 * asked for the location of the key, the primary or the backup answers,
+	 * and the value is retrieved as for a proxy entry: this node becomes the
+	 * primary of the key.
+	 * 
+	 * @param key
+	 *            Object
+	 * @return the value or <code>null</code> if no member has the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V retrieve(Object key) {
+		if (getInnerMapData().containsKey(key))
+			return get(key);
+		Member[] members = getMapMembers();
+		if (!(key instanceof Serializable) || members.length == 0)
+			return null;
+		try {
+			AbstractReplicatedMapMapMessage msg = new AbstractReplicatedMapMapMessage(
+					getMapContextName(),
+					AbstractReplicatedMapMapMessage.getMsgLocate(), false,
+					(Serializable) key, null, null, null, null);
+			Response2[] resp = getRpcChannel().send(members, msg,
+					RpcChannel.getAllReply(), Channel.SEND_OPTIONS_DEFAULT,
+					getRpcTimeout());
+			for (int i = 0; resp != null && i < resp.length; i++) {
+				AbstractReplicatedMapMapMessage location = (AbstractReplicatedMapMapMessage) resp[i]
+						.getMessage();
+				if (location == null || location.getBackupNodes() == null
+						|| location.getBackupNodes().length == 0)
+					continue;
+				if (log.isDebugEnabled())
+					log.debug("Located key:" + key + " at:"
+							+ Arrays.toNameString(location.getBackupNodes()));
+				AbstractReplicatedMapMapEntry<K, V> entry = new AbstractReplicatedMapMapEntry<K, V>(
+						(K) key, null);
+				entry.setProxy(true);
+				entry.setBackup(false);
+				entry.setPrimary(location.getPrimary());
+				entry.setBackupNodes(location.getBackupNodes());
+				getInnerMapData().putIfAbsent((K) key, entry);
+				return get(key);
+			}
+		} catch (ChannelException x) {
+			log.error("Unable to locate key:" + key, x);
+		}
+		return null;
+	}
+
 	protected void printMap(String header) {
 		try {
 			System.out.println("\nDEBUG MAP:" + header);
@@ -1408,6 +1523,22 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		this.setCurrentNodeData(currentNode);
 	}
 
+	public boolean isConsistentHashing() {
+		return isConsistentHashingData();
+	}
+
+	public void setConsistentHashing(boolean consistentHashing) {
+		this.setConsistentHashingData(consistentHashing);
+	}
+
+	public int getVirtualNodes() {
+		return getBackupRingData().getVirtualNodes();
+	}
+
+	public void setVirtualNodes(int virtualNodes) {
+		getBackupRingData().setVirtualNodes(virtualNodes);
+	}
+
 	public String getMapname() {
 		return getMapnameData();
 	}
@@ -1536,6 +1667,18 @@ public abstract class AbstractReplicatedMap<K, V> implements Map<K, V>,
 		this.currentNode = currentNode;
 	}
 
+	public boolean isConsistentHashingData() {
+		return consistentHashing;
+	}
+
+	public void setConsistentHashingData(boolean consistentHashing) {
+		this.consistentHashing = consistentHashing;
+	}
+
+	public ConsistentHashRing getBackupRingData() {
+		return backupRing;
+	}
+
 	public long getAccessTimeoutData() {
 		return accessTimeout;
 	}
@@ -22,6 +22,7 @@ public class AbstractReplicatedMapMapMessage implements Serializable {
 	private static final int MSG_COPY = 9;
 	private static final int MSG_STATE_COPY = 10;
 	private static final int MSG_ACCESS = 11;
+	private static final int MSG_LOCATE = 12;
 
 	private byte[] mapId;
 	private int msgtype;
@@ -72,6 +73,8 @@ public class AbstractReplicatedMapMapMessage implements Serializable {
 			return "MSG_COPY";
 		case MSG_ACCESS:
 			return "MSG_ACCESS";
+		case MSG_LOCATE:
+			return "MSG_LOCATE";
 		default:
 			return "UNKNOWN";
 		}
@@ -341,6 +344,10 @@ public class AbstractReplicatedMapMapMessage implements Serializable {
 		return MSG_ACCESS;
 	}
 
+	public static int getMsgLocate() {
+		return MSG_LOCATE;
+	}
+
 	public void setMapId(byte[] mapId) {
 		this.mapId = mapId;
 	}
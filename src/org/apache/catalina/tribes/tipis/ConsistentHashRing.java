@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * A consistent hash ring used to place map entries on backup members.<br>
+ * Every member is mapped to <code>virtualNodes</code> points on the ring, a
+ * key is owned by the first member found walking the ring clockwise from the
+ * hash of the key. When a member joins or leaves only the keys in the ring
+ * segments next to its points change owner, all other keys keep their backup.
+ * <br>
+ * Lookups work on an immutable snapshot and do not lock, membership changes
+ * rebuild the snapshot.
+ *
+ * @version 1.0
+ */
+public class ConsistentHashRing {
+
+    /**
+     * The default number of points on the ring per member.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final ArrayList<Member> members = new ArrayList<Member>();
+
+    private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+
+    private volatile ConsistentHashRingPoints ring = new ConsistentHashRingPoints(
+            new int[0], new Member[0], 0);
+
+    public ConsistentHashRing() {
+        // NOOP
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        setVirtualNodes(virtualNodes);
+    }
+
+    public synchronized void add(Member member) {
+        if (member == null || members.contains(member))
+            return;
+        members.add(member);
+        rebuild();
+    }
+
+    public synchronized void remove(Member member) {
+        if (members.remove(member))
+            rebuild();
+    }
+
+    public synchronized void clear() {
+        members.clear();
+        rebuild();
+    }
+
+    public synchronized Member[] getMembers() {
+        return members.toArray(new Member[members.size()]);
+    }
+
+    public boolean isEmpty() {
+        return ring.getPoints().length == 0;
+    }
+
+    /**
+     * Returns the member owning the key, or <code>null</code> if the ring is
+     * empty.
+     * @param key Object
+     * @return Member
+     */
+    public Member getOwner(Object key) {
+        ConsistentHashRingPoints r = ring;
+        int[] p = r.getPoints();
+        Member[] o = r.getOwners();
+        if (p.length == 0)
+            return null;
+        return o[indexOf(p, hash(key))];
+    }
+
+    /**
+     * Returns the distinct members of the ring in the order in which they are
+     * found walking clockwise from the key. The first member is the preferred
+     * backup of the key, the following ones are the fallbacks.
+     * @param key Object
+     * @return Member[] - never <code>null</code>
+     */
+    public Member[] getOrderedMembers(Object key) {
+        return getOrderedMembers(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns at most <code>max</code> distinct members of the ring in the
+     * order in which they are found walking clockwise from the key. The walk
+     * stops as soon as enough members, or all of them, have been found.
+     * @param key Object
+     * @param max int - the number of members needed
+     * @return Member[] - never <code>null</code>
+     */
+    public Member[] getOrderedMembers(Object key, int max) {
+        ConsistentHashRingPoints r = ring;
+        int[] p = r.getPoints();
+        Member[] o = r.getOwners();
+        if (p.length == 0 || max <= 0)
+            return new Member[0];
+        int count = Math.min(max, r.getOwnerCount());
+        LinkedHashSet<Member> result = new LinkedHashSet<Member>();
+        int start = indexOf(p, hash(key));
+        for (int i = 0; i < p.length && result.size() < count; i++) {
+            result.add(o[(start + i) % p.length]);
+        }
+        return result.toArray(new Member[result.size()]);
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public synchronized void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException(
+                    "The number of virtual nodes must be positive:" + virtualNodes);
+        if (this.virtualNodes != virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            rebuild();
+        }
+    }
+
+    /**
+     * Index of the first point greater than or equal to the hash, wrapping
+     * around to the first point of the ring.
+     */
+    private static int indexOf(int[] p, int hash) {
+        int low = 0;
+        int high = p.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (p[mid] < hash)
+                low = mid + 1;
+            else if (p[mid] > hash)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return low == p.length ? 0 : low;
+    }
+
+    private void rebuild() {
+        TreeMap<Integer, Member> sorted = new TreeMap<Integer, Member>();
+        MessageDigest md5 = getDigest();
+        for (Member member : members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                md5.reset();
+                md5.update(member.getHost());
+                md5.update(toBytes(member.getPort()));
+                md5.update(toBytes(i));
+                byte[] d = md5.digest();
+                int point = ((d[0] & 0xFF) << 24) | ((d[1] & 0xFF) << 16)
+                        | ((d[2] & 0xFF) << 8) | (d[3] & 0xFF);
+                // on a collision the lower member wins, so every node builds
+                // the same ring whatever order the members joined in
+                Member existing = sorted.get(Integer.valueOf(point));
+                if (existing == null || compare(member, existing) < 0)
+                    sorted.put(Integer.valueOf(point), member);
+            }
+        }
+        int[] p = new int[sorted.size()];
+        Member[] o = new Member[sorted.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Member> e : sorted.entrySet()) {
+            p[i] = e.getKey().intValue();
+            o[i] = e.getValue();
+            i++;
+        }
+        // a member can lose all its points to collisions
+        int owners = new HashSet<Member>(sorted.values()).size();
+        ring = new ConsistentHashRingPoints(p, o, owners);
+    }
+
+    private static int compare(Member m1, Member m2) {
+        byte[] h1 = m1.getHost();
+        byte[] h2 = m2.getHost();
+        for (int i = 0; i < Math.min(h1.length, h2.length); i++) {
+            if (h1[i] != h2[i])
+                return (h1[i] & 0xFF) - (h2[i] & 0xFF);
+        }
+        if (h1.length != h2.length)
+            return h1.length - h2.length;
+        return m1.getPort() - m2.getPort();
+    }
+
+    /**
+     * Spreads the hash code of the key over the ring, String keys (session
+     * ids) give the same result on every node.
+     */
+    private static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static byte[] toBytes(int i) {
+        return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16),
+                (byte) (i >>> 8), (byte) i };
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * Immutable snapshot of a {@link ConsistentHashRing}, the sorted hashes of
+ * the ring points where <code>owners[i]</code> owns <code>points[i]</code>
+ * and the number of distinct owners.
+ */
+class ConsistentHashRingPoints {
+
+    private final int[] points;
+    private final Member[] owners;
+    private final int ownerCount;
+
+    ConsistentHashRingPoints(int[] points, Member[] owners, int ownerCount) {
+        this.points = points;
+        this.owners = owners;
+        this.ownerCount = ownerCount;
+    }
+
+    int[] getPoints() {
+        return points;
+    }
+
+    Member[] getOwners() {
+        return owners;
+    }
+
+    int getOwnerCount() {
+        return ownerCount;
+    }
+}
@@ -57,6 +57,12 @@ import org.apache.juli.logging.LogFactory;
  * each time the object gets replicated the entire object gets serialized, hence a call to <code>replicate(true)</code>
  * will replicate all objects in this map that are using this node as primary.
  * 
+ * <br><br>
+ * Backup nodes are selected round robin, unless <code>setConsistentHashing(true)</code> is
+ * invoked. The backup of a key is then the owner of the key on a consistent hash ring of the
+ * map members, and a member joining or leaving only relocates the backups of the keys in
+ * the ring segments it owns or owned.
+ * 
  * <br><br><b>REMBER TO CALL <code>breakdown()</code> or <code>finalize()</code> when you are done with the map to 
  * avoid memory leaks.<br><br>
  * TODO implement periodic sync/transfer thread
@@ -135,8 +141,15 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     @Override
     protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
         if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
-        Member[] members = getMapMembers();
-        int firstIdx = getNextBackupIndex();
+        Member[] members = getBackupCandidates(key);
+        int firstIdx;
+        if (members != null) {
+            //consistent hashing, start with the owner of the key on the ring
+            firstIdx = 0;
+        } else {
+            members = getMapMembers();
+            firstIdx = getNextBackupIndex();
+        }
         int nextIdx = firstIdx;
         Member[] backup = new Member[0];
         
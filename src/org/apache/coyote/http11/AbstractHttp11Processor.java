@@ -1478,8 +1478,8 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 		// Add date header unless application has already set one (e.g. in a
 		// Caching Filter)
 		if (headers.getValue("Date") == null) {
-			headers.setValue("Date").setString(
-					FastHttpDateFormat.getCurrentDate());
+			byte[] date = FastHttpDateFormat.getCurrentDateBytes();
+			headers.setValue("Date").setBytes(date, 0, date.length);
 		}
 
 		// FIXME: Add transfer encoding header
@@ -19,6 +19,8 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
@@ -104,6 +106,49 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 	private static final Log log = LogFactory
 			.getLog(AbstractOutputBuffer.class);
 
+	/**
+	 * Highest status code (exclusive) whose status line is cached.
+	 */
+	private static final int STATUS_LINE_CACHE_SIZE = 1000;
+
+	/**
+	 * Encoded status lines, indexed by status code. Only lines with the
+	 * standard message are cached, a line is replaced if the message changes
+	 * (other locale).
+	 */
+	private static final AbstractOutputBufferStatusLine[] statusLines = new AbstractOutputBufferStatusLine[STATUS_LINE_CACHE_SIZE];
+
+	/**
+	 * Names of the headers which are written from pre-encoded bytes.
+	 */
+	private static final String[] commonHeaderNames = { "Content-Type",
+			"Content-Length", "Date", "Server", "Transfer-Encoding",
+			"Connection", "Content-Language", "Content-Encoding", "Vary",
+			"Set-Cookie", "Location", "Cache-Control", "Last-Modified",
+			"ETag", "Expires", "Pragma" };
+
+	/**
+	 * The header names above followed by ": ".
+	 */
+	private static final byte[][] commonHeaderNameBytes = new byte[commonHeaderNames.length][];
+
+	/**
+	 * Maximum number of cached encoded Content-Type values.
+	 */
+	private static final int CONTENT_TYPE_CACHE_SIZE = 128;
+
+	/**
+	 * Encoded Content-Type values. Applications only use a handful of them,
+	 * the cache simply stops growing if there are more.
+	 */
+	private static final Map<String, byte[]> contentTypes = new ConcurrentHashMap<String, byte[]>();
+
+	static {
+		for (int i = 0; i < commonHeaderNames.length; i++) {
+			commonHeaderNameBytes[i] = encode(commonHeaderNames[i] + ": ");
+		}
+	}
+
 	// ------------------------------------------------------------- Properties
 
 	/**
@@ -306,12 +351,28 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 	 */
 	public void sendStatus() {
 
+		int status = response.getStatus();
+		String message = null;
+		if (Constants24.isUseCustomStatusMsgInHeader()
+				&& HttpMessages.isSafeInHttpHeader(response.getMessage())) {
+			message = response.getMessage();
+		}
+		if (message == null) {
+			message = HttpMessages.getInstance(response.getLocale())
+					.getMessage(status);
+			// Standard message: write the whole line at once
+			byte[] line = getStatusLine(status, message);
+			if (line != null) {
+				write(line);
+				return;
+			}
+		}
+
 		// Write protocol name
 		write(Constants26.getHttp11Bytes());
 		buf[pos++] = Constants26.getSp();
 
 		// Write status code
-		int status = response.getStatus();
 		switch (status) {
 		case 200:
 			write(Constants26.get200Bytes());
@@ -329,17 +390,7 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 		buf[pos++] = Constants26.getSp();
 
 		// Write message
-		String message = null;
-		if (Constants24.isUseCustomStatusMsgInHeader()
-				&& HttpMessages.isSafeInHttpHeader(response.getMessage())) {
-			message = response.getMessage();
-		}
-		if (message == null) {
-			write(HttpMessages.getInstance(response.getLocale()).getMessage(
-					status));
-		} else {
-			write(message);
-		}
+		write(message);
 
 		// End the response status line
 		if (Constants24.isSecurityEnabled()) {
@@ -358,6 +409,30 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 
 	}
 
+	/**
+	 * Get the encoded status line, including the CRLF, for the given status
+	 * and standard message.
+	 * 
+	 * @return the status line or <code>null</code> if it can't be cached
+	 */
+	private static byte[] getStatusLine(int status, String message) {
+		if (message == null || status < 100
+				|| status >= STATUS_LINE_CACHE_SIZE) {
+			return null;
+		}
+		AbstractOutputBufferStatusLine line = statusLines[status];
+		if (line == null || !line.getMessage().equals(message)) {
+			byte[] text = encode("HTTP/1.1 " + status + " " + message);
+			byte[] bytes = new byte[text.length + 2];
+			System.arraycopy(text, 0, bytes, 0, text.length);
+			bytes[text.length] = Constants26.getCr();
+			bytes[text.length + 1] = Constants26.getLf();
+			line = new AbstractOutputBufferStatusLine(message, bytes);
+			statusLines[status] = line;
+		}
+		return line.getBytes();
+	}
+
 	/**
 	 * Send a header.
 	 * 
@@ -368,15 +443,64 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 	 */
 	public void sendHeader(MessageBytes name, MessageBytes value) {
 
-		write(name);
-		buf[pos++] = Constants26.getColon();
-		buf[pos++] = Constants26.getSp();
-		write(value);
+		int common = -1;
+		if (name.getType() == MessageBytes.gettStr()) {
+			String s = name.toString();
+			for (int i = 0; i < commonHeaderNames.length; i++) {
+				if (commonHeaderNames[i].equals(s)) {
+					common = i;
+					break;
+				}
+			}
+		}
+		if (common < 0) {
+			write(name);
+			buf[pos++] = Constants26.getColon();
+			buf[pos++] = Constants26.getSp();
+			write(value);
+		} else {
+			write(commonHeaderNameBytes[common]);
+			if (common == 0 && value.getType() == MessageBytes.gettStr()) {
+				write(getContentType(value.toString()));
+			} else {
+				write(value);
+			}
+		}
 		buf[pos++] = Constants26.getCr();
 		buf[pos++] = Constants26.getLf();
 
 	}
 
+	/**
+	 * Get the encoded Content-Type value.
+	 */
+	private static byte[] getContentType(String contentType) {
+		byte[] result = contentTypes.get(contentType);
+		if (result == null) {
+			result = encode(contentType);
+			if (contentTypes.size() < CONTENT_TYPE_CACHE_SIZE) {
+				contentTypes.put(contentType, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Encode a String the same way as {@link #write(String)}.
+	 */
+	private static byte[] encode(String s) {
+		int len = s.length();
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (((c <= 31) && (c != 9)) || c == 127 || c > 255) {
+				c = ' ';
+			}
+			result[i] = (byte) c;
+		}
+		return result;
+	}
+
 	/**
 	 * End the header block.
 	 */
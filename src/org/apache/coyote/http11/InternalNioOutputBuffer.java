@@ -29,6 +29,7 @@ import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
 import org.apache.tomcat.util.net.NioEndpointKeyAttachment;
 import org.apache.tomcat.util.net.NioSelectorPool;
+import org.apache.tomcat.util.net.SecureNioChannel;
 import org.apache.tomcat.util.net.SocketWrapper;
 
 /**
@@ -204,6 +205,42 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     }
 
     public synchronized void addToBB(byte[] buf, int offset, int length) throws IOException {
+        if (length >= socket.getBufHandler().getWriteBuffer().capacity()
+                && !(socket instanceof SecureNioChannel)) {
+            // Large write: send the data itself rather than copying it
+            // through the write buffer (SSL channels only write from the
+            // write buffer). The data is written in slices of the write
+            // buffer size: the JDK copies a heap buffer to a temporary direct
+            // buffer of the same size, which stays cached by the thread
+            ByteBuffer writeBuffer = socket.getBufHandler().getWriteBuffer();
+            int slice = writeBuffer.capacity();
+            access();
+            if (writeBuffer.position() > 0) {
+                // Send what is buffered (headers, chunk header) and the first
+                // slice of the data with a single gathering write, then block
+                // for the rest
+                ByteBuffer data = ByteBuffer.wrap(buf, offset, slice);
+                writeBuffer.flip();
+                socket.write(new ByteBuffer[] {writeBuffer, data});
+                if (writeBuffer.hasRemaining()) {
+                    writeToSocket(writeBuffer, true, false);
+                } else {
+                    writeBuffer.clear();
+                }
+                if (data.hasRemaining()) {
+                    writeToSocket(data, true, false);
+                }
+                offset += slice;
+                length -= slice;
+            }
+            while (length > 0) {
+                int thisTime = Math.min(length, slice);
+                writeToSocket(ByteBuffer.wrap(buf, offset, thisTime), true, false);
+                offset += thisTime;
+                length -= thisTime;
+                access();
+            }
+        }
         while (length > 0) {
             int thisTime = length;
             if (socket.getBufHandler().getWriteBuffer().position() ==
@@ -229,11 +266,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     private void flushBuffer() throws IOException {
 
         //prevent timeout for async,
-        SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
-        if (key != null) {
-            NioEndpointKeyAttachment attach = (NioEndpointKeyAttachment) key.attachment();
-            attach.access();
-        }
+        access();
 
         //write to the socket, if there is anything to write
         if (socket.getBufHandler().getWriteBuffer().position() > 0) {
@@ -241,4 +274,16 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
             writeToSocket(socket.getBufHandler().getWriteBuffer(),true, false);
         }
     }
+
+
+    /**
+     * Prevent the async timeout while a write blocks.
+     */
+    private void access() {
+        SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
+        if (key != null) {
+            NioEndpointKeyAttachment attach = (NioEndpointKeyAttachment) key.attachment();
+            attach.access();
+        }
+    }
 }
@@ -34,6 +34,7 @@ import javax.el.VariableMapper;
 import org.apache.el.lang.ELSupport;
 import org.apache.el.lang.EvaluationContext;
 import org.apache.el.lang.ExpressionBuilder;
+import org.apache.el.lang.ExpressionCompiler;
 import org.apache.el.parser.AstLiteralExpression;
 import org.apache.el.parser.Node;
 import org.apache.el.util.ReflectionUtil;
@@ -183,7 +184,7 @@ public final class ValueExpressionImpl extends ValueExpression implements
 			ELException {
 		EvaluationContext ctx = new EvaluationContext(context, this.fnMapper,
 				this.varMapper);
-		Object value = this.getNode().getValue(ctx);
+		Object value = ExpressionCompiler.getValue(this.getNode(), ctx);
 		if (this.expectedType != null) {
 			return ELSupport.coerceToType(value, this.expectedType);
 		}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.el.lang;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.el.ELException;
+import javax.el.ELResolver;
+import javax.el.PropertyNotFoundException;
+
+import org.apache.el.parser.Node;
+import org.apache.el.util.MessageFactory;
+
+/**
+ * A compiled expression, built by {@link ExpressionCompiler}. Each instance
+ * evaluates one operation of the expression on its compiled operands, with
+ * the same semantics as the parse tree node it was compiled from.
+ */
+public final class CompiledExpression {
+
+    static final int CONSTANT = 0;
+    static final int INTERPRETED = 1;
+    static final int VALUE = 2;
+    static final int COMPOSITE = 3;
+    static final int AND = 4;
+    static final int OR = 5;
+    static final int NOT = 6;
+    static final int CHOICE = 7;
+    static final int EMPTY = 8;
+    static final int EQUAL = 9;
+    static final int NOT_EQUAL = 10;
+    static final int LESS_THAN = 11;
+    static final int LESS_THAN_EQUAL = 12;
+    static final int GREATER_THAN = 13;
+    static final int GREATER_THAN_EQUAL = 14;
+    static final int PLUS = 15;
+    static final int MINUS = 16;
+    static final int MULT = 17;
+    static final int DIV = 18;
+    static final int MOD = 19;
+
+    private final int kind;
+
+    private final Node node;
+
+    private final Object constant;
+
+    private final CompiledExpression[] children;
+
+    private final CompiledExpressionPropertySite[] sites;
+
+    CompiledExpression(int kind, Node node, CompiledExpression[] children,
+            CompiledExpressionPropertySite[] sites) {
+        this.kind = kind;
+        this.node = node;
+        this.constant = null;
+        this.children = children;
+        this.sites = sites;
+    }
+
+    private CompiledExpression(Node node, Object constant) {
+        this.kind = CONSTANT;
+        this.node = node;
+        this.constant = constant;
+        this.children = null;
+        this.sites = null;
+    }
+
+    static CompiledExpression constant(Node node, Object value) {
+        return new CompiledExpression(node, value);
+    }
+
+    static CompiledExpression interpreted(Node node) {
+        return new CompiledExpression(INTERPRETED, node, null, null);
+    }
+
+    public boolean isConstant() {
+        return kind == CONSTANT;
+    }
+
+    public Object getConstant() {
+        return constant;
+    }
+
+    public Node getNode() {
+        return node;
+    }
+
+    public Object getValue(EvaluationContext ctx) throws ELException {
+        Object obj0;
+        Object obj1;
+        switch (kind) {
+        case CONSTANT:
+            return constant;
+        case INTERPRETED:
+            return node.getValue(ctx);
+        case VALUE:
+            return getPropertyValue(ctx);
+        case COMPOSITE:
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < children.length; i++) {
+                obj0 = children[i].getValue(ctx);
+                if (obj0 != null) {
+                    sb.append(ELSupport.coerceToString(obj0));
+                }
+            }
+            return sb.toString();
+        case AND:
+            Boolean and = ELSupport.coerceToBoolean(children[0].getValue(ctx));
+            if (!and.booleanValue()) {
+                return and;
+            }
+            return ELSupport.coerceToBoolean(children[1].getValue(ctx));
+        case OR:
+            Boolean or = ELSupport.coerceToBoolean(children[0].getValue(ctx));
+            if (or.booleanValue()) {
+                return or;
+            }
+            return ELSupport.coerceToBoolean(children[1].getValue(ctx));
+        case NOT:
+            return Boolean.valueOf(!ELSupport.coerceToBoolean(
+                    children[0].getValue(ctx)).booleanValue());
+        case CHOICE:
+            Boolean choice = ELSupport.coerceToBoolean(
+                    children[0].getValue(ctx));
+            return children[choice.booleanValue() ? 1 : 2].getValue(ctx);
+        case EMPTY:
+            return isEmpty(children[0].getValue(ctx));
+        case EQUAL:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return Boolean.valueOf(ELSupport.equals(obj0, obj1));
+        case NOT_EQUAL:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return Boolean.valueOf(!ELSupport.equals(obj0, obj1));
+        case LESS_THAN:
+            obj0 = children[0].getValue(ctx);
+            if (obj0 == null) {
+                return Boolean.FALSE;
+            }
+            obj1 = children[1].getValue(ctx);
+            if (obj1 == null) {
+                return Boolean.FALSE;
+            }
+            return Boolean.valueOf(ELSupport.compare(obj0, obj1) < 0);
+        case GREATER_THAN:
+            obj0 = children[0].getValue(ctx);
+            if (obj0 == null) {
+                return Boolean.FALSE;
+            }
+            obj1 = children[1].getValue(ctx);
+            if (obj1 == null) {
+                return Boolean.FALSE;
+            }
+            return Boolean.valueOf(ELSupport.compare(obj0, obj1) > 0);
+        case LESS_THAN_EQUAL:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            if (obj0 == obj1) {
+                return Boolean.TRUE;
+            }
+            if (obj0 == null || obj1 == null) {
+                return Boolean.FALSE;
+            }
+            return Boolean.valueOf(ELSupport.compare(obj0, obj1) <= 0);
+        case GREATER_THAN_EQUAL:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            if (obj0 == obj1) {
+                return Boolean.TRUE;
+            }
+            if (obj0 == null || obj1 == null) {
+                return Boolean.FALSE;
+            }
+            return Boolean.valueOf(ELSupport.compare(obj0, obj1) >= 0);
+        case PLUS:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return ELArithmetic.add(obj0, obj1);
+        case MINUS:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return ELArithmetic.subtract(obj0, obj1);
+        case MULT:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return ELArithmetic.multiply(obj0, obj1);
+        case DIV:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return ELArithmetic.divide(obj0, obj1);
+        case MOD:
+            obj0 = children[0].getValue(ctx);
+            obj1 = children[1].getValue(ctx);
+            return ELArithmetic.mod(obj0, obj1);
+        default:
+            return node.getValue(ctx);
+        }
+    }
+
+    /**
+     * Same as AstValue.getValue() for expressions without method calls,
+     * property reads with a literal name go through the inline cache of their
+     * site.
+     */
+    private Object getPropertyValue(EvaluationContext ctx) throws ELException {
+        Object base = children[0].getValue(ctx);
+        Object suffix = null;
+        ELResolver resolver = ctx.getELResolver();
+        int i = 1;
+        while (base != null && i < children.length) {
+            suffix = children[i].getValue(ctx);
+            if (suffix == null) {
+                return null;
+            }
+            if (sites[i] != null) {
+                base = sites[i].getValue(ctx, resolver, base);
+            } else {
+                ctx.setPropertyResolved(false);
+                base = resolver.getValue(ctx, base, suffix);
+            }
+            i++;
+        }
+        if (!ctx.isPropertyResolved()) {
+            throw new PropertyNotFoundException(MessageFactory.get(
+                    "error.resolver.unhandled", base, suffix));
+        }
+        return base;
+    }
+
+    private static Boolean isEmpty(Object obj) {
+        if (obj == null) {
+            return Boolean.TRUE;
+        } else if (obj instanceof String) {
+            return Boolean.valueOf(((String) obj).length() == 0);
+        } else if (obj instanceof Object[]) {
+            return Boolean.valueOf(((Object[]) obj).length == 0);
+        } else if (obj instanceof Collection<?>) {
+            return Boolean.valueOf(((Collection<?>) obj).isEmpty());
+        } else if (obj instanceof Map<?,?>) {
+            return Boolean.valueOf(((Map<?,?>) obj).isEmpty());
+        }
+        return Boolean.FALSE;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.el.lang;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import javax.el.BeanElResolverBeanProperties;
+import javax.el.ELException;
+import javax.el.ELResolver;
+
+import org.apache.el.util.MessageFactory;
+
+/**
+ * The inline cache of one property read with a literal name. The cache holds
+ * up to {@link #MAX_ENTRIES} base classes (monomorphic or polymorphic site)
+ * with the bean getter the ELResolver chain resolved the property to, or no
+ * getter if the property was not a bean property. A site which sees more base
+ * classes, or whose cached getter can't be called any more, is deoptimized
+ * and resolves the property through the ELResolver chain from then on.
+ */
+public final class CompiledExpressionPropertySite {
+
+    public static final int MAX_ENTRIES = 4;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private final String property;
+
+    /**
+     * Triplets of ELResolver, base class and getter (or null), replaced as a
+     * whole when an entry is added.
+     */
+    private volatile Object[] entries = EMPTY;
+
+    private volatile boolean deoptimized = false;
+
+    public CompiledExpressionPropertySite(String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public boolean isDeoptimized() {
+        return deoptimized;
+    }
+
+    public Object getValue(EvaluationContext ctx, ELResolver resolver,
+            Object base) throws ELException {
+        Class<?> type = base.getClass();
+        Object[] e = this.entries;
+        boolean known = false;
+        for (int i = 0; i < e.length; i += 3) {
+            if (e[i] == resolver && e[i + 1] == type) {
+                known = true;
+                Method m = (Method) e[i + 2];
+                if (m == null) {
+                    break;
+                }
+                try {
+                    Object result = m.invoke(base, (Object[]) null);
+                    ctx.setPropertyResolved(true);
+                    return result;
+                } catch (InvocationTargetException ite) {
+                    Throwable cause = ite.getCause();
+                    if (cause instanceof ThreadDeath) {
+                        throw (ThreadDeath) cause;
+                    }
+                    if (cause instanceof VirtualMachineError) {
+                        throw (VirtualMachineError) cause;
+                    }
+                    throw new ELException(MessageFactory.get(
+                            "error.property.invocation", type.getName(),
+                            property), cause);
+                } catch (IllegalAccessException iae) {
+                    deoptimize();
+                } catch (IllegalArgumentException iae) {
+                    deoptimize();
+                }
+                break;
+            }
+        }
+        ctx.setPropertyResolved(false);
+        Object result = resolver.getValue(ctx, base, property);
+        if (!known && ctx.isPropertyResolved() && !deoptimized) {
+            add(resolver, type, e);
+        }
+        return result;
+    }
+
+    private synchronized void add(ELResolver resolver, Class<?> type,
+            Object[] seen) {
+        Object[] e = this.entries;
+        if (e != seen || deoptimized) {
+            // changed meanwhile, the next miss will try again
+            return;
+        }
+        for (int i = 0; i < e.length; i += 3) {
+            if (e[i] == resolver && e[i + 1] == type) {
+                return;
+            }
+        }
+        if (e.length / 3 >= MAX_ENTRIES) {
+            // megamorphic
+            deoptimize();
+            return;
+        }
+        Object[] n = new Object[e.length + 3];
+        System.arraycopy(e, 0, n, 0, e.length);
+        n[e.length] = resolver;
+        n[e.length + 1] = type;
+        n[e.length + 2] = getReadMethod(type);
+        this.entries = n;
+    }
+
+    private void deoptimize() {
+        deoptimized = true;
+        entries = EMPTY;
+    }
+
+    /**
+     * The getter BeanELResolver uses for the property, null if the base is
+     * handled by another standard resolver or has no such bean property.
+     */
+    private Method getReadMethod(Class<?> type) {
+        if (type.isArray() || Map.class.isAssignableFrom(type)
+                || List.class.isAssignableFrom(type)
+                || ResourceBundle.class.isAssignableFrom(type)) {
+            return null;
+        }
+        try {
+            return new BeanElResolverBeanProperties(type).getBeanProperty(
+                    property).getReadMethod();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -41,8 +41,9 @@ import org.apache.el.parser.AstValue;
 import org.apache.el.parser.ELParser;
 import org.apache.el.parser.Node;
 import org.apache.el.parser.NodeVisitor;
-import org.apache.el.util.ConcurrentCache;
 import org.apache.el.util.MessageFactory;
+import org.apache.tomcat.util.collections.ConcurrentLfuCache;
+import org.apache.tomcat.util.collections.ConcurrentLfuCacheMBean;
 
 /**
  * @author Jacob Hookom [jacob@hookom.net]
@@ -70,8 +71,8 @@ public final class ExpressionBuilder implements NodeVisitor {
         }
     }
 
-    private static final ConcurrentCache<String, Node> cache =
-        new ConcurrentCache<String, Node>(CACHE_SIZE);
+    private static final ConcurrentLfuCache<String, Node> cache =
+        new ConcurrentLfuCache<String, Node>(CACHE_SIZE);
 
     private FunctionMapper2 fnMapper;
 
@@ -97,6 +98,14 @@ public final class ExpressionBuilder implements NodeVisitor {
         }
     }
 
+    /**
+     * The statistics of the cache of parsed expressions, registered with JMX
+     * by the server.
+     */
+    public static ConcurrentLfuCacheMBean getCacheStatistics() {
+        return cache;
+    }
+
     public static final Node createNode(String expr) throws ELException {
         Node n = createNodeInternal(expr);
         return n;
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.el.lang;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import javax.el.ELException;
+
+import org.apache.el.parser.AstAnd;
+import org.apache.el.parser.AstBracketSuffix;
+import org.apache.el.parser.AstChoice;
+import org.apache.el.parser.AstCompositeExpression;
+import org.apache.el.parser.AstDeferredExpression;
+import org.apache.el.parser.AstDiv;
+import org.apache.el.parser.AstDotSuffix;
+import org.apache.el.parser.AstDynamicExpression;
+import org.apache.el.parser.AstEmpty;
+import org.apache.el.parser.AstEqual;
+import org.apache.el.parser.AstFalse;
+import org.apache.el.parser.AstFloatingPoint;
+import org.apache.el.parser.AstGreaterThan;
+import org.apache.el.parser.AstGreaterThanEqual;
+import org.apache.el.parser.AstInteger;
+import org.apache.el.parser.AstLessThan;
+import org.apache.el.parser.AstLessThanEqual;
+import org.apache.el.parser.AstLiteralExpression;
+import org.apache.el.parser.AstMethodParameters;
+import org.apache.el.parser.AstMinus;
+import org.apache.el.parser.AstMod;
+import org.apache.el.parser.AstMult;
+import org.apache.el.parser.AstNot;
+import org.apache.el.parser.AstNotEqual;
+import org.apache.el.parser.AstNull;
+import org.apache.el.parser.AstOr;
+import org.apache.el.parser.AstPlus;
+import org.apache.el.parser.AstString;
+import org.apache.el.parser.AstTrue;
+import org.apache.el.parser.AstValue;
+import org.apache.el.parser.Node;
+import org.apache.el.parser.SimpleNode;
+
+/**
+ * Optional compilation of frequently evaluated expressions. Once the parsed
+ * expression of a <code>ValueExpression</code> has been evaluated
+ * <code>org.apache.el.COMPILE_THRESHOLD</code> times it is turned into a
+ * {@link CompiledExpression}: literals and operations on literals are folded,
+ * operators call {@link ELArithmetic} and {@link ELSupport} directly and every
+ * <code>a.b</code> / <code>a['b']</code> property read gets an inline cache of
+ * the bean getters per base class. Parts of the expression the compiler does
+ * not handle (functions, method calls) are evaluated by the parse tree.
+ * <p>
+ * Compilation is off unless the system property
+ * <code>org.apache.el.COMPILE</code> is <code>true</code>. A bean getter is
+ * only cached once the ELResolver chain of the context has resolved the
+ * property, and only for that ELResolver instance, but later reads with the
+ * same resolver and base class no longer go through the chain. Don't enable
+ * compilation when an application ELResolver resolves properties of beans
+ * differently from <code>BeanELResolver</code>.
+ */
+public final class ExpressionCompiler {
+
+    private static final boolean IS_SECURITY_ENABLED =
+        (System.getSecurityManager() != null);
+
+    private static final boolean COMPILE;
+
+    private static final int COMPILE_THRESHOLD;
+
+    static {
+        String compile;
+        String threshold;
+        if (IS_SECURITY_ENABLED) {
+            compile = AccessController.doPrivileged(
+                    new PrivilegedAction<String>(){
+                        @Override
+                        public String run() {
+                            return System.getProperty(
+                                    "org.apache.el.COMPILE", "false");
+                        }
+                    });
+            threshold = AccessController.doPrivileged(
+                    new PrivilegedAction<String>(){
+                        @Override
+                        public String run() {
+                            return System.getProperty(
+                                    "org.apache.el.COMPILE_THRESHOLD", "100");
+                        }
+                    });
+        } else {
+            compile = System.getProperty("org.apache.el.COMPILE", "false");
+            threshold = System.getProperty(
+                    "org.apache.el.COMPILE_THRESHOLD", "100");
+        }
+        COMPILE = Boolean.valueOf(compile).booleanValue();
+        int t = 100;
+        try {
+            t = Integer.parseInt(threshold);
+        } catch (NumberFormatException e) {
+            // use the default
+        }
+        COMPILE_THRESHOLD = t;
+    }
+
+    private ExpressionCompiler() {
+        // Utility class
+    }
+
+    public static boolean isCompile() {
+        return COMPILE;
+    }
+
+    public static int getCompileThreshold() {
+        return COMPILE_THRESHOLD;
+    }
+
+    /**
+     * Evaluates the expression, using its compiled form once it has been
+     * evaluated often enough.
+     *
+     * @param node  the root of the parsed expression
+     * @param ctx   the evaluation context
+     * @return the value of the expression
+     * @throws ELException if the evaluation fails
+     */
+    public static Object getValue(Node node, EvaluationContext ctx)
+            throws ELException {
+        if (!COMPILE || !(node instanceof SimpleNode)) {
+            return node.getValue(ctx);
+        }
+        SimpleNode root = (SimpleNode) node;
+        CompiledExpression compiled = root.getCompiled();
+        if (compiled == null) {
+            if (root.incrementEvaluations() < COMPILE_THRESHOLD) {
+                return node.getValue(ctx);
+            }
+            compiled = compile(node);
+            root.setCompiled(compiled);
+        }
+        return compiled.getValue(ctx);
+    }
+
+    /**
+     * Compiles a parsed expression.
+     *
+     * @param node  the node to compile
+     * @return the compiled expression, never <code>null</code>
+     */
+    public static CompiledExpression compile(Node node) {
+        if (node instanceof AstDeferredExpression
+                || node instanceof AstDynamicExpression
+                || node instanceof AstBracketSuffix) {
+            return compile(node.jjtGetChild(0));
+        }
+        if (node instanceof AstLiteralExpression || node instanceof AstString
+                || node instanceof AstInteger
+                || node instanceof AstFloatingPoint
+                || node instanceof AstTrue || node instanceof AstFalse
+                || node instanceof AstNull || node instanceof AstDotSuffix) {
+            // these ignore the context
+            return CompiledExpression.constant(node, node.getValue(null));
+        }
+        if (node instanceof AstValue) {
+            return compileValue(node);
+        }
+        int kind = kindOf(node);
+        if (kind == CompiledExpression.INTERPRETED) {
+            return CompiledExpression.interpreted(node);
+        }
+        CompiledExpression[] children =
+            new CompiledExpression[node.jjtGetNumChildren()];
+        boolean constant = true;
+        for (int i = 0; i < children.length; i++) {
+            children[i] = compile(node.jjtGetChild(i));
+            constant &= children[i].isConstant();
+        }
+        CompiledExpression result =
+            new CompiledExpression(kind, node, children, null);
+        if (constant) {
+            try {
+                return CompiledExpression.constant(node,
+                        result.getValue(null));
+            } catch (RuntimeException e) {
+                // leave the error to the evaluation
+            }
+        }
+        return result;
+    }
+
+    private static CompiledExpression compileValue(Node node) {
+        int count = node.jjtGetNumChildren();
+        for (int i = 1; i < count; i++) {
+            if (node.jjtGetChild(i) instanceof AstMethodParameters) {
+                return CompiledExpression.interpreted(node);
+            }
+        }
+        CompiledExpression[] children = new CompiledExpression[count];
+        CompiledExpressionPropertySite[] sites =
+            new CompiledExpressionPropertySite[count];
+        for (int i = 0; i < count; i++) {
+            children[i] = compile(node.jjtGetChild(i));
+            if (i > 0 && children[i].isConstant()
+                    && children[i].getConstant() instanceof String) {
+                sites[i] = new CompiledExpressionPropertySite(
+                        (String) children[i].getConstant());
+            }
+        }
+        return new CompiledExpression(CompiledExpression.VALUE, node,
+                children, sites);
+    }
+
+    private static int kindOf(Node node) {
+        if (node instanceof AstCompositeExpression) {
+            return CompiledExpression.COMPOSITE;
+        } else if (node instanceof AstAnd) {
+            return CompiledExpression.AND;
+        } else if (node instanceof AstOr) {
+            return CompiledExpression.OR;
+        } else if (node instanceof AstNot) {
+            return CompiledExpression.NOT;
+        } else if (node instanceof AstChoice) {
+            return CompiledExpression.CHOICE;
+        } else if (node instanceof AstEmpty) {
+            return CompiledExpression.EMPTY;
+        } else if (node instanceof AstEqual) {
+            return CompiledExpression.EQUAL;
+        } else if (node instanceof AstNotEqual) {
+            return CompiledExpression.NOT_EQUAL;
+        } else if (node instanceof AstLessThan) {
+            return CompiledExpression.LESS_THAN;
+        } else if (node instanceof AstLessThanEqual) {
+            return CompiledExpression.LESS_THAN_EQUAL;
+        } else if (node instanceof AstGreaterThan) {
+            return CompiledExpression.GREATER_THAN;
+        } else if (node instanceof AstGreaterThanEqual) {
+            return CompiledExpression.GREATER_THAN_EQUAL;
+        } else if (node instanceof AstPlus) {
+            return CompiledExpression.PLUS;
+        } else if (node instanceof AstMinus) {
+            return CompiledExpression.MINUS;
+        } else if (node instanceof AstMult) {
+            return CompiledExpression.MULT;
+        } else if (node instanceof AstDiv) {
+            return CompiledExpression.DIV;
+        } else if (node instanceof AstMod) {
+            return CompiledExpression.MOD;
+        }
+        return CompiledExpression.INTERPRETED;
+    }
+}
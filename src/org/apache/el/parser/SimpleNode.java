@@ -25,6 +25,7 @@ import javax.el.MethodInfo;
 import javax.el.PropertyNotWritableException;
 import javax.el.ValueReference;
 
+import org.apache.el.lang.CompiledExpression;
 import org.apache.el.lang.ELSupport;
 import org.apache.el.lang.EvaluationContext;
 import org.apache.el.util.MessageFactory;
@@ -41,6 +42,18 @@ public abstract class SimpleNode extends ELSupport implements Node {
 
 	private String image;
 
+	/**
+	 * The compiled form of the expression when this node is the root of a
+	 * compiled expression
+	 */
+	private volatile CompiledExpression compiled;
+
+	/**
+	 * The number of evaluations of the expression before it is compiled, not
+	 * exact under concurrent evaluations
+	 */
+	private int evaluations;
+
 	public SimpleNode(int i) {
 		setIdData(i);
 	}
@@ -107,6 +120,18 @@ public abstract class SimpleNode extends ELSupport implements Node {
 		return prefix + toString();
 	}
 
+	public CompiledExpression getCompiled() {
+		return compiled;
+	}
+
+	public void setCompiled(CompiledExpression compiled) {
+		this.compiled = compiled;
+	}
+
+	public int incrementEvaluations() {
+		return ++evaluations;
+	}
+
 	@Override
 	public String getImage() {
 		return getImageData();
@@ -104,6 +104,11 @@ public final class EmbeddedServletOptions implements Options {
      */
     private boolean genStringAsCharArray = false;
     
+    /**
+     * Is template text to be encoded when the servlet class is loaded?
+     */
+    private boolean preEncodeTemplateText = false;
+    
     private boolean errorOnUseBeanInvalidClassAttribute = true;
     
     /**
@@ -199,6 +204,28 @@ public final class EmbeddedServletOptions implements Options {
      */
     private int jspIdleTimeout = -1;
 
+    /**
+     * Are EL expressions which only read bean properties compiled to direct
+     * getter calls?
+     */
+    private boolean inlineEL = false;
+
+    /**
+     * The number of threads compiling JSPs in the background.
+     */
+    private int compileThreads = 1;
+
+    /**
+     * Are all JSPs compiled in the background when the web application
+     * starts?
+     */
+    private boolean precompileOnStart = false;
+
+    /**
+     * Are the generated source and the compiled classes kept in memory?
+     */
+    private boolean inMemoryCompile = false;
+
     public String getProperty(String name ) {
         return settings.getProperty( name );
     }
@@ -302,6 +329,15 @@ public final class EmbeddedServletOptions implements Options {
         return this.genStringAsCharArray;
     }
     
+    /**
+     * Is large template text to be encoded with the charset of the page
+     * when the servlet class is loaded, and written to the response as bytes?
+     */
+    @Override
+    public boolean getPreEncodeTemplateText() {
+        return this.preEncodeTemplateText;
+    }
+    
     /**
      * Class ID for use in the plugin tag when the browser is IE. 
      */
@@ -442,6 +478,45 @@ public final class EmbeddedServletOptions implements Options {
         return jspIdleTimeout;
     }
 
+    /**
+     * Should EL expressions in template text which only read properties of a
+     * jsp:useBean bean be compiled to direct getter calls? Default: false
+     */
+    @Override
+    public boolean getInlineEL() {
+        return inlineEL;
+    }
+
+    /**
+     * How many threads compile JSPs in the background, when the pages are
+     * checked every checkInterval seconds or precompiled on start? Default: 1
+     */
+    @Override
+    public int getCompileThreads() {
+        return compileThreads;
+    }
+
+    /**
+     * Should all JSPs of the web application be compiled in the background
+     * when it starts? Default: false
+     */
+    @Override
+    public boolean getPrecompileOnStart() {
+        return precompileOnStart;
+    }
+
+    /**
+     * Should the generated Java source be compiled from memory, and the
+     * compiled classes be loaded from memory? The class files are still
+     * written to the scratch directory to be reused after a restart, the
+     * Java source file is not written. Only the JDT compiler supports this.
+     * Default: false
+     */
+    @Override
+    public boolean getInMemoryCompile() {
+        return inMemoryCompile;
+    }
+
     /**
      * Create an EmbeddedServletOptions object using data available from
      * ServletConfig and ServletContext. 
@@ -609,6 +684,19 @@ public final class EmbeddedServletOptions implements Options {
             }
         }
         
+        String preEncode = config.getInitParameter("preEncodeTemplateText");
+        if (preEncode != null) {
+            if (preEncode.equalsIgnoreCase("true")) {
+                preEncodeTemplateText = true;
+            } else if (preEncode.equalsIgnoreCase("false")) {
+                preEncodeTemplateText = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.preEncodeTemplateText"));
+                }
+            }
+        }
+        
         String errBeanClass =
             config.getInitParameter("errorOnUseBeanInvalidClassAttribute");
         if (errBeanClass != null) {
@@ -741,6 +829,63 @@ public final class EmbeddedServletOptions implements Options {
             }
         }
 
+        String inlineEL = config.getInitParameter("inlineEL");
+        if (inlineEL != null) {
+            if (inlineEL.equalsIgnoreCase("true")) {
+                this.inlineEL = true;
+            } else if (inlineEL.equalsIgnoreCase("false")) {
+                this.inlineEL = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.inlineEL"));
+                }
+            }
+        }
+
+        String compileThreads = config.getInitParameter("compileThreads");
+        if (compileThreads != null) {
+            try {
+                int threads = Integer.parseInt(compileThreads);
+                if (threads > 0) {
+                    this.compileThreads = threads;
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn(Localizer.getMessage("jsp.warning.compileThreads"));
+                    }
+                }
+            } catch(NumberFormatException ex) {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.compileThreads"));
+                }
+            }
+        }
+
+        String precompileOnStart = config.getInitParameter("precompileOnStart");
+        if (precompileOnStart != null) {
+            if (precompileOnStart.equalsIgnoreCase("true")) {
+                this.precompileOnStart = true;
+            } else if (precompileOnStart.equalsIgnoreCase("false")) {
+                this.precompileOnStart = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileOnStart"));
+                }
+            }
+        }
+
+        String inMemoryCompile = config.getInitParameter("inMemoryCompile");
+        if (inMemoryCompile != null) {
+            if (inMemoryCompile.equalsIgnoreCase("true")) {
+                this.inMemoryCompile = true;
+            } else if (inMemoryCompile.equalsIgnoreCase("false")) {
+                this.inMemoryCompile = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.inMemoryCompile"));
+                }
+            }
+        }
+
         // Setup the global Tag Libraries location cache for this
         // web-application.
         tldLocationsCache = TldLocationsCache.getInstance(context);
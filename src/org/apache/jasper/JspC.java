@@ -119,6 +119,7 @@ public class JspC extends Task implements Options {
     private static final String SWITCH_MAPPED = "-mapped";
     private static final String SWITCH_XPOWERED_BY = "-xpoweredBy";
     private static final String SWITCH_TRIM_SPACES = "-trimSpaces";
+    private static final String SWITCH_INLINE_EL = "-inlineEL";
     private static final String SWITCH_CLASSPATH = "-classpath";
     private static final String SWITCH_DIE = "-die";
     private static final String SWITCH_POOLING = "-poolingEnabled";
@@ -158,7 +159,9 @@ public class JspC extends Task implements Options {
     private String classPath = null;
     private URLClassLoader loader = null;
     private boolean trimSpaces = false;
+    private boolean inlineEL = false;
     private boolean genStringAsCharArray = false;
+    private boolean preEncodeTemplateText = false;
     private boolean validateTld;
     private boolean validateXml;
     private boolean blockExternal = true;
@@ -334,6 +337,8 @@ public class JspC extends Task implements Options {
                 xpoweredBy = true;
             } else if (tok.equals(SWITCH_TRIM_SPACES)) {
                 setTrimSpaces(true);
+            } else if (tok.equals(SWITCH_INLINE_EL)) {
+                setInlineEL(true);
             } else if (tok.equals(SWITCH_CACHE)) {
                 tok = nextArg();
                 if ("false".equals(tok)) {
@@ -474,6 +479,49 @@ public class JspC extends Task implements Options {
         return -1;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getInlineEL() {
+        return inlineEL;
+    }
+
+    /**
+     * In JspC this always returns <code>1</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCompileThreads() {
+        return 1;
+    }
+
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getPrecompileOnStart() {
+        return false;
+    }
+
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getInMemoryCompile() {
+        return false;
+    }
+
+    /**
+     * Sets the option to compile EL expressions which only read bean
+     * properties to direct getter calls.
+     */
+    public void setInlineEL(boolean inlineEL) {
+        this.inlineEL = inlineEL;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -633,6 +681,25 @@ public class JspC extends Task implements Options {
         return genStringAsCharArray;
     }
 
+    /**
+     * Determines whether large template text strings are also encoded with
+     * the charset of the page when the servlet class is loaded.
+     *
+     * @param preEncodeTemplateText true if template text is to be
+     * pre-encoded, false otherwise
+     */
+    public void setPreEncodeTemplateText(boolean preEncodeTemplateText) {
+        this.preEncodeTemplateText = preEncodeTemplateText;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getPreEncodeTemplateText() {
+        return preEncodeTemplateText;
+    }
+
     /**
      * Sets the class-id value to be sent to Internet Explorer when using
      * &lt;jsp:plugin&gt; tags.
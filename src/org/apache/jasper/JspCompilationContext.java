@@ -74,6 +74,7 @@ public class JspCompilationContext {
     private String javaPath;
     private String classFileName;
     private ServletWriter writer;
+    private char[] servletJavaSource;
     private Options options;
     private JspServletWrapper jsw;
     private Compiler2 jspCompiler;
@@ -564,6 +565,13 @@ public class JspCompilationContext {
         return context;
     }
 
+    /**
+     * The wrapper of the page being compiled, <code>null</code> for JspC.
+     */
+    public JspServletWrapper getServletWrapper() {
+        return jsw;
+    }
+
     public JspRuntimeContext getRuntimeContext() {
         return rctxt;
     }
@@ -605,6 +613,18 @@ public class JspCompilationContext {
         this.writer = writer;
     }
 
+    /**
+     * The generated Java source while the servlet is compiled in memory,
+     * <code>null</code> when it was written to the Java file.
+     */
+    public char[] getServletJavaSource() {
+        return servletJavaSource;
+    }
+
+    public void setServletJavaSource(char[] servletJavaSource) {
+        this.servletJavaSource = servletJavaSource;
+    }
+
     /**
      * Gets the 'location' of the TLD associated with the given taglib 'uri'.
      *
@@ -191,6 +191,15 @@ public interface Options {
      *         arrays, <code>false</code> otherwise
      */
     public boolean genStringAsCharArray();
+
+    /**
+     * Indicates whether large template text strings are also encoded with
+     * the charset of the page, to be written without a conversion.
+     *
+     * @return <code>true</code> if template text is to be pre-encoded,
+     *         <code>false</code> otherwise
+     */
+    public boolean getPreEncodeTemplateText();
     
     /**
      * Modification test interval.
@@ -233,4 +242,28 @@ public interface Options {
      * If unset or less or equal than 0, no jsps are unloaded.
      */
     public int getJspIdleTimeout();
+
+    /**
+     * Are EL expressions in template text which only read properties of a
+     * jsp:useBean bean compiled to direct getter calls?
+     */
+    public boolean getInlineEL();
+
+    /**
+     * The number of threads compiling JSPs in the background.
+     */
+    public int getCompileThreads();
+
+    /**
+     * Are all JSPs of the web application compiled in the background when
+     * it starts?
+     */
+    public boolean getPrecompileOnStart();
+
+    /**
+     * Are the generated Java source and the compiled classes passed from the
+     * compiler to the class loader in memory instead of through the work
+     * directory?
+     */
+    public boolean getInMemoryCompile();
 }
@@ -17,6 +17,7 @@
 
 package org.apache.jasper.compiler;
 
+import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -34,6 +35,7 @@ import java.util.Map.Entry;
 import org.apache.jasper.JasperException;
 import org.apache.jasper.JspCompilationContext;
 import org.apache.jasper.Options;
+import org.apache.jasper.servlet.JasperLoader;
 import org.apache.jasper.servlet.JspServletWrapper;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -69,6 +71,8 @@ public abstract class Compiler2 {
 
 	private NodeNodes pageNodes;
 
+	private CharArrayWriter javaSource;
+
 	// ------------------------------------------------------------ Constructor
 
 	public void init(JspCompilationContext ctxt, JspServletWrapper jsw) {
@@ -210,6 +214,7 @@ public abstract class Compiler2 {
 				Generator.generate(writer, this, pageNodes);
 				writer.close();
 				writer = null;
+				keepJavaSource();
 				return null;
 			}
 
@@ -251,6 +256,7 @@ public abstract class Compiler2 {
 			Generator.generate(writer, this, pageNodes);
 			writer.close();
 			writer = null;
+			keepJavaSource();
 
 			// The writer is only used during the compile, dereference
 			// it in the JspCompilationContext when done to allow it
@@ -310,6 +316,14 @@ public abstract class Compiler2 {
 	private ServletWriter setupContextWriter(String javaFileName)
 			throws FileNotFoundException, JasperException {
 		ServletWriter writer;
+		if (isInMemory()) {
+			// The source is handed to the compiler as characters, the Java
+			// encoding doesn't matter
+			javaSource = new CharArrayWriter(8192);
+			writer = new ServletWriter(new PrintWriter(javaSource));
+			ctxt.setWriter(writer);
+			return writer;
+		}
 		// Setup the ServletWriter
 		String javaEncoding = ctxt.getOptions().getJavaEncoding();
 		OutputStreamWriter osw = null;
@@ -327,6 +341,67 @@ public abstract class Compiler2 {
 		return writer;
 	}
 
+	/**
+	 * Hands the source generated in memory to the compilation context, where
+	 * the compiler and the error reporting pick it up.
+	 */
+	private void keepJavaSource() {
+		if (javaSource != null) {
+			ctxt.setServletJavaSource(javaSource.toCharArray());
+			javaSource = null;
+		}
+	}
+
+	/**
+	 * Is the servlet compiled from the source held in memory, without writing
+	 * the Java file? Compilers which can do this override this method to
+	 * return the inMemoryCompile option.
+	 */
+	protected boolean isInMemory() {
+		return false;
+	}
+
+	/**
+	 * Writes the classes compiled in memory to the scratch directory, where
+	 * they are picked up again after a restart, and passes them to the class
+	 * loader of the page, which defines them without reading the files back.
+	 * 
+	 * @param classes
+	 *            the bytecode of the compiled classes, by class name
+	 * @param smap
+	 *            the SMAPs to install in the classes, or null
+	 */
+	protected void writeClassFiles(Map<String, byte[]> classes, String[] smap)
+			throws IOException {
+		File outputDir = options.getScratchDir();
+		JasperLoader loader = null;
+		if (!ctxt.isPrototypeMode()
+				&& ctxt.getJspLoader() instanceof JasperLoader) {
+			loader = (JasperLoader) ctxt.getJspLoader();
+		}
+		Iterator<Entry<String, byte[]>> it = classes.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, byte[]> entry = it.next();
+			String className = entry.getKey();
+			byte[] bytes = entry.getValue();
+			File classFile = new File(outputDir, className.replace('.',
+					File.separatorChar) + ".class");
+			// JSR45 Support
+			if (smap != null && !options.isSmapSuppressed()) {
+				bytes = SmapUtil.installSmap(smap, classFile, bytes);
+			}
+			FileOutputStream fos = new FileOutputStream(classFile);
+			try {
+				fos.write(bytes);
+			} finally {
+				fos.close();
+			}
+			if (loader != null) {
+				loader.addCompiledClass(className, bytes);
+			}
+		}
+	}
+
 	/**
 	 * Compile the servlet from .java file to .class file
 	 */
@@ -372,9 +447,11 @@ public abstract class Compiler2 {
 
 		try {
 			String[] smap = generateJava();
-			File javaFile = new File(ctxt.getServletJavaFileName());
 			Long jspLastModified = ctxt.getLastModified(ctxt.getJspFile());
-			javaFile.setLastModified(jspLastModified.longValue());
+			if (ctxt.getServletJavaSource() == null) {
+				File javaFile = new File(ctxt.getServletJavaFileName());
+				javaFile.setLastModified(jspLastModified.longValue());
+			}
 			if (compileClass) {
 				generateClass(smap);
 				// Fix for bugzilla 41606
@@ -403,6 +480,7 @@ public abstract class Compiler2 {
 			tfp = null;
 			errDispatcher = null;
 			pageInfo = null;
+			javaSource = null;
 
 			// Only get rid of the pageNodes if in production.
 			// In development mode, they are used for detailed
@@ -411,6 +489,13 @@ public abstract class Compiler2 {
 			if (!this.options.getDevelopment()) {
 				pageNodes = null;
 			}
+			// Likewise the source compiled in memory, there is no Java file
+			// to read it back from
+			if (jsw != null) {
+				jsw.setServletJavaSource(this.options.getDevelopment() ? ctxt
+						.getServletJavaSource() : null);
+			}
+			ctxt.setServletJavaSource(null);
 
 			if (ctxt.getWriter() != null) {
 				ctxt.getWriter().close();
@@ -495,9 +580,18 @@ public abstract class Compiler2 {
 		Iterator<Entry<String, Long>> it = depends.entrySet().iterator();
 		while (it.hasNext()) {
 			Entry<String, Long> include = it.next();
+			String key = include.getKey();
+			Long checked = ctxt.getRuntimeContext()
+					.getDependencyLastModified(key);
+			if (checked != null) {
+				// Looked at for another page of this background check
+				if (checked.longValue() != include.getValue().longValue()) {
+					return true;
+				}
+				continue;
+			}
 			URLConnection iuc = null;
 			try {
-				String key = include.getKey();
 				URL includeUrl;
 				if (key.startsWith("jar:") || key.startsWith("file:")) {
 					includeUrl = new URL(key);
@@ -516,6 +610,8 @@ public abstract class Compiler2 {
 				} else {
 					includeLastModified = iuc.getLastModified();
 				}
+				ctxt.getRuntimeContext().setDependencyLastModified(key,
+						includeLastModified);
 
 				if (includeLastModified != include.getValue().longValue()) {
 					return true;
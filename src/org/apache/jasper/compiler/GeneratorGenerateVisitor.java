@@ -1,12 +1,21 @@
 package org.apache.jasper.compiler;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
 
 import javax.el.MethodExpression;
 import javax.el.ValueExpression;
@@ -66,6 +75,33 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 
 	private HashMap<String, String> textMap;
 
+	private int encodedTextCount;
+
+	private HashMap<String, String> encodedTextMap;
+
+	/**
+	 * Template text shorter than this is not worth pre-encoding, it ends up
+	 * in the buffer of the JspWriter anyway.
+	 */
+	private static final int PRE_ENCODE_MIN_LENGTH = 1024;
+
+	/**
+	 * Charsets whose encoders have no state, so text encoded on its own gives
+	 * the same bytes as the converter of the response.
+	 */
+	private static final Set<String> PRE_ENCODE_CHARSETS = new HashSet<String>(
+			Arrays.asList("UTF-8", "ISO-8859-1", "US-ASCII"));
+
+	private static final Set<String> IMPLICIT_EL_OBJECTS = new HashSet<String>(
+			Arrays.asList("pageContext", "pageScope", "requestScope",
+					"sessionScope", "applicationScope", "param", "paramValues",
+					"header", "headerValues", "initParam", "cookie"));
+
+	private static final Set<String> RESERVED_EL_WORDS = new HashSet<String>(
+			Arrays.asList("and", "or", "not", "eq", "ne", "lt", "gt", "le",
+					"ge", "true", "false", "null", "instanceof", "empty",
+					"div", "mod"));
+
 	/**
 	 * Constructor.
 	 */
@@ -82,6 +118,7 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 		handlerInfos = new Hashtable<String, Hashtable<String, GeneratorTagHandlerInfo>>();
 		tagVarNumbers = new Hashtable<String, Integer>();
 		textMap = new HashMap<String, String>();
+		encodedTextMap = new HashMap<String, String>();
 	}
 
 	/**
@@ -173,7 +210,10 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 	@Override
 	public void visit(NodeELExpression n) throws JasperException {
 		n.setBeginJavaLine(getOut().getJavaLine());
-		if (!this.generator.getPageInfo().isELIgnored() && (n.getEL() != null)) {
+		if (!this.generator.getPageInfo().isELIgnored() && (n.getEL() != null)
+				&& generateInlineEL(n)) {
+			// written as getter calls
+		} else if (!this.generator.getPageInfo().isELIgnored() && (n.getEL() != null)) {
 			getOut().printil("out.write("
 					+ this.generator.getElInterpreter().interpreterCall(
 							this.generator.getCtxt(), this.isTagFile, n.getType()
@@ -187,6 +227,140 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 		n.setEndJavaLine(getOut().getJavaLine());
 	}
 
+	/**
+	 * Writes a ${bean.property...} expression of template text as getter
+	 * calls, if the expression only reads properties, its identifier is a
+	 * jsp:useBean bean and the getters can be found at translation time.
+	 * Every step checks at run time that the value is a bean the getter can
+	 * be called on and that the application has no ELResolvers, otherwise the
+	 * step (and the identifier) is resolved through the ELResolver chain of
+	 * the page, so the result is the same as the one of the interpreter.
+	 *
+	 * @return true if the expression has been written
+	 */
+	private boolean generateInlineEL(NodeELExpression n) {
+		if (this.isTagFile || n.getType() != '$'
+				|| !this.generator.getCtxt().getOptions().getInlineEL()) {
+			return false;
+		}
+		String[] names = n.getText().trim().split("\\.", -1);
+		for (int i = 0; i < names.length; i++) {
+			if (!isInlineELIdentifier(names[i])) {
+				return false;
+			}
+		}
+		if (names.length < 2 || IMPLICIT_EL_OBJECTS.contains(names[0])
+				|| !this.generator.getBeanInfo().checkVariable(names[0])) {
+			return false;
+		}
+		Method[] getters = new Method[names.length];
+		boolean inlined = false;
+		try {
+			Class<?> type = this.generator.getBeanInfo().getBeanType(names[0]);
+			for (int i = 1; i < names.length && type != null; i++) {
+				getters[i] = getInlineELGetter(type, names[i]);
+				if (getters[i] == null) {
+					break;
+				}
+				inlined = true;
+				type = getters[i].getReturnType();
+			}
+		} catch (JasperException e) {
+			return false;
+		} catch (IntrospectionException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+		if (!inlined) {
+			return false;
+		}
+
+		String pageContext = getJspContextVar();
+		ServletWriter out = getOut();
+		out.printil("try {");
+		out.pushIndent();
+		out.printin("Object _jspx_el = org.apache.jasper.runtime.PageContextImpl.resolveELVariable(");
+		out.println(pageContext + ", " + Generator.quote(names[0]) + ");");
+		for (int i = 1; i < names.length; i++) {
+			String resolve = "org.apache.jasper.runtime.PageContextImpl.resolveELProperty("
+					+ pageContext + ", _jspx_el, " + Generator.quote(names[i]) + ")";
+			out.printin("if (_jspx_el != null) _jspx_el = ");
+			if (getters[i] == null) {
+				out.println(resolve + ";");
+			} else {
+				String type = getters[i].getDeclaringClass().getCanonicalName();
+				out.println("(_jspx_el instanceof " + type
+						+ " && org.apache.jasper.runtime.PageContextImpl.isELBean("
+						+ pageContext + ", _jspx_el))");
+				out.printin("        ? (Object) ((" + type + ") _jspx_el).");
+				out.println(getters[i].getName() + "()");
+				out.printil("        : " + resolve + ";");
+			}
+		}
+		out.printil("out.write(org.apache.jasper.runtime.PageContextImpl.coerceELToString(_jspx_el));");
+		out.popIndent();
+		out.printil("} catch (javax.el.ELException _jspx_ele) {");
+		out.pushIndent();
+		out.printil("throw _jspx_ele;");
+		out.popIndent();
+		out.printil("} catch (java.lang.RuntimeException _jspx_ree) {");
+		out.pushIndent();
+		out.printil("throw new javax.el.ELException(_jspx_ree);");
+		out.popIndent();
+		out.printil("}");
+		return true;
+	}
+
+	private static boolean isInlineELIdentifier(String name) {
+		if (name.length() == 0 || RESERVED_EL_WORDS.contains(name)
+				|| !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The public getter of a bean property which can be called from the
+	 * generated code, null if there is none or if the type is handled by
+	 * another standard ELResolver than BeanELResolver.
+	 */
+	private static Method getInlineELGetter(Class<?> type, String property)
+			throws IntrospectionException {
+		if (type.isPrimitive() || type.isArray()
+				|| Map.class.isAssignableFrom(type)
+				|| List.class.isAssignableFrom(type)
+				|| ResourceBundle.class.isAssignableFrom(type)) {
+			return null;
+		}
+		PropertyDescriptor[] pds =
+			Introspector.getBeanInfo(type).getPropertyDescriptors();
+		for (int i = 0; i < pds.length; i++) {
+			if (!property.equals(pds[i].getName())) {
+				continue;
+			}
+			Method m = pds[i].getReadMethod();
+			if (m == null || !Modifier.isPublic(m.getModifiers())
+					|| m.getExceptionTypes().length > 0
+					|| m.getDeclaringClass().getCanonicalName() == null) {
+				return null;
+			}
+			for (Class<?> c = m.getDeclaringClass(); c != null;
+					c = c.getDeclaringClass()) {
+				if (!Modifier.isPublic(c.getModifiers())) {
+					return null;
+				}
+			}
+			return m;
+		}
+		return null;
+	}
+
 	@Override
 	public void visit(NodeIncludeAction n) throws JasperException {
 
@@ -1199,6 +1373,14 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 			return;
 		}
 
+		if (textSize >= PRE_ENCODE_MIN_LENGTH) {
+			String charset = getPreEncodeCharset();
+			if (charset != null) {
+				generatePreEncodedText(n, text, charset);
+				return;
+			}
+		}
+
 		if (this.generator.getCtxt().getOptions().genStringAsCharArray()) {
 			// Generate Strings as char arrays, for performance
 			ServletWriter caOut;
@@ -1296,6 +1478,88 @@ public class GeneratorGenerateVisitor extends NodeVisitor {
 		n.setEndJavaLine(getOut().getJavaLine());
 	}
 
+	/**
+	 * The charset large template text is pre-encoded with, null if the
+	 * preEncodeTemplateText option is off or the content type of the page has
+	 * no charset which can be pre-encoded.
+	 */
+	private String getPreEncodeCharset() {
+		if (!this.generator.getCtxt().getOptions().getPreEncodeTemplateText()) {
+			return null;
+		}
+		String contentType = this.generator.getPageInfo().getContentType();
+		if (contentType == null) {
+			return null;
+		}
+		int index = contentType.indexOf("charset=");
+		if (index < 0) {
+			return null;
+		}
+		String charset = contentType.substring(index + 8).trim();
+		try {
+			charset = Charset.forName(charset).name();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!PRE_ENCODE_CHARSETS.contains(charset)) {
+			return null;
+		}
+		return charset;
+	}
+
+	/**
+	 * Generates the template text as static Strings, which are also encoded
+	 * with the charset of the page when the servlet class is initialized, and
+	 * writes them with JspWriterImpl.writeEncoded().
+	 */
+	private void generatePreEncodedText(NodeTemplateText n, String text,
+			String charset) {
+		ServletWriter caOut;
+		if (this.generator.getCharArrayBuffer() == null) {
+			this.generator.setCharArrayBuffer(new GeneratorGenBuffer());
+			caOut = this.generator.getCharArrayBuffer().getOut();
+			caOut.pushIndent();
+		} else {
+			caOut = this.generator.getCharArrayBuffer().getOut();
+		}
+		// Limit string constants to 16k characters, as for char arrays
+		int textIndex = 0;
+		int textLength = text.length();
+		n.setBeginJavaLine(getOut().getJavaLine());
+		while (textIndex < textLength) {
+			int len = Math.min(16384, textLength - textIndex);
+			String output = text.substring(textIndex, textIndex + len);
+			String textName = encodedTextMap.get(output);
+			if (textName == null) {
+				textName = "_jspx_text_" + encodedTextCount++;
+				encodedTextMap.put(output, textName);
+				caOut.printin("static final java.lang.String ");
+				caOut.print(textName);
+				caOut.print(" = ");
+				caOut.print(Generator.quote(output));
+				caOut.println(";");
+				caOut.printin("static final byte[] ");
+				caOut.print(textName);
+				caOut.print("_bytes = org.apache.jasper.runtime.JspWriterImpl.encode(");
+				caOut.print(textName);
+				caOut.print(", ");
+				caOut.print(Generator.quote(charset));
+				caOut.println(");");
+			}
+
+			getOut().printin("org.apache.jasper.runtime.JspWriterImpl.writeEncoded(out, ");
+			getOut().print(textName);
+			getOut().print(", ");
+			getOut().print(textName);
+			getOut().print("_bytes, ");
+			getOut().print(Generator.quote(charset));
+			getOut().println(");");
+
+			textIndex = textIndex + len;
+		}
+		n.setEndJavaLine(getOut().getJavaLine());
+	}
+
 	@Override
 	public void visit(NodeJspBody n) throws JasperException {
 		if (n.getBody() != null) {
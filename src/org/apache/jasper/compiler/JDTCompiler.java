@@ -30,6 +30,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -66,6 +67,15 @@ public class JDTCompiler extends Compiler2 {
 
     private final Log log = LogFactory.getLog(JDTCompiler.class); // must not be static
    
+    /**
+     * JDT compiles from the source held in the compilation context when the
+     * inMemoryCompile option is set.
+     */
+    @Override
+    protected boolean isInMemory() {
+        return getOptions().getInMemoryCompile();
+    }
+
     /** 
      * Compile the servlet from .java file to .class file
      */
@@ -89,6 +99,9 @@ public class JDTCompiler extends Compiler2 {
         String[] classNames = new String[] {targetClassName};
         final ArrayList<JavacErrorDetail> problemList =
             new ArrayList<JavacErrorDetail>();
+        final boolean inMemory = getCtxt().getServletJavaSource() != null;
+        final Map<String,byte[]> compiledClasses =
+            new LinkedHashMap<String,byte[]>();
         
         class CompilationUnit implements ICompilationUnit {
 
@@ -107,6 +120,9 @@ public class JDTCompiler extends Compiler2 {
             
             @Override
             public char[] getContents() {
+                if (inMemory) {
+                    return getCtxt().getServletJavaSource();
+                }
                 char[] result = null;
                 FileInputStream is = null;
                 InputStreamReader isr = null;
@@ -445,6 +461,10 @@ public class JDTCompiler extends Compiler2 {
                                     sep = ".";
                                 }
                                 byte[] bytes = classFile.getBytes();
+                                if (inMemory) {
+                                    compiledClasses.put(className, bytes);
+                                    continue;
+                                }
                                 String outFile = outputDir + "/" + 
                                     className.replace('.', '/') + ".class";
                                 FileOutputStream fout = 
@@ -493,6 +513,11 @@ public class JDTCompiler extends Compiler2 {
                       + (t2-t1) + "ms");
         }
 
+        if (inMemory) {
+            writeClassFiles(compiledClasses, smap);
+            return;
+        }
+
         if (getCtxt().isPrototypeMode()) {
             return;
         }
@@ -18,10 +18,12 @@
 package org.apache.jasper.compiler;
 
 import java.io.BufferedReader;
+import java.io.CharArrayReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -92,10 +94,20 @@ public class JavacErrorDetail {
             try {
                 // Read both files in, so we can inspect them
                 is = ctxt.getResourceAsStream(jspFileName);
-                String[] jspLines = readFile(is);
+                String[] jspLines = readFile(new InputStreamReader(is));
     
-                fis = new FileInputStream(ctxt.getServletJavaFileName());
-                String[] javaLines = readFile(fis);
+                String[] javaLines;
+                char[] javaSource = ctxt.getServletJavaSource();
+                if (javaSource == null && ctxt.getServletWrapper() != null) {
+                    // compiled in memory earlier, in development mode
+                    javaSource = ctxt.getServletWrapper().getServletJavaSource();
+                }
+                if (javaSource != null) {
+                    javaLines = readFile(new CharArrayReader(javaSource));
+                } else {
+                    fis = new FileInputStream(ctxt.getServletJavaFileName());
+                    javaLines = readFile(new InputStreamReader(fis));
+                }
     
                 if (jspLines.length < jspBeginLineNum) {
                     // Avoid ArrayIndexOutOfBoundsException
@@ -214,11 +226,11 @@ public class JavacErrorDetail {
     }
     
     /**
-     * Reads a text file from an input stream into a String[]. Used to read in
+     * Reads a text file from a reader into a String[]. Used to read in
      * the JSP and generated Java file when generating error messages.
      */
-    private String[] readFile(InputStream s) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(s));
+    private String[] readFile(Reader r) throws IOException {
+        BufferedReader reader = new BufferedReader(r);
         List<String> lines = new ArrayList<String>();
         String line;
 
@@ -21,6 +21,8 @@ import java.io.CharArrayWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 import java.util.jar.JarFile;
@@ -261,6 +263,13 @@ public class JspReader {
     }
 
     public String getText(Mark start, Mark stop) throws JasperException {
+        if (start.getStream() == stop.getStream()
+                && start.getFileId() == stop.getFileId()
+                && start.getCursor() <= stop.getCursor()) {
+            // Both marks are in the same file, no need to walk the chars
+            return new String(start.getStream(), start.getCursor(),
+                    stop.getCursor() - start.getCursor());
+        }
         Mark oldstart = mark();
         reset(start);
         CharArrayWriter caw = new CharArrayWriter();
@@ -700,16 +709,12 @@ public class JspReader {
         currFileId = fileid;
 
         try {
-            CharArrayWriter caw = new CharArrayWriter();
-            char buf[] = new char[1024];
-            for (int i = 0 ; (i = reader.read(buf)) != -1 ;)
-                caw.write(buf, 0, i);
-            caw.close();
+            char[] stream = readFully(reader);
             if (current == null) {
-                current = new Mark(this, caw.toCharArray(), fileid, 
+                current = new Mark(this, stream, fileid, 
                                    getFile(fileid), master, encoding);
             } else {
-                current.pushStream(caw.toCharArray(), fileid, getFile(fileid),
+                current.pushStream(stream, fileid, getFile(fileid),
                                    longName, encoding);
             }
         } catch (Throwable ex) {
@@ -731,6 +736,23 @@ public class JspReader {
         }
     }
 
+    /**
+     * Reads the whole file into a single array, trimmed to the length of the
+     * file with one final copy.
+     */
+    private static char[] readFully(Reader reader) throws IOException {
+        char[] buf = new char[8192];
+        int len = 0;
+        int n;
+        while ((n = reader.read(buf, len, buf.length - len)) != -1) {
+            len += n;
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+        return Arrays.copyOf(buf, len);
+    }
+
     /**
      * Pop a file from the file stack.  The field "current" is retored
      * to the value to point to the previous files, if any, and is set
@@ -29,6 +29,11 @@ import java.security.cert.Certificate;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
@@ -38,6 +43,7 @@ import org.apache.jasper.Constants28;
 import org.apache.jasper.JspCompilationContext;
 import org.apache.jasper.Options;
 import org.apache.jasper.runtime.JspFactoryImpl;
+import org.apache.jasper.runtime.JspRuntimeLibrary;
 import org.apache.jasper.security.SecurityClassLoad2;
 import org.apache.jasper.servlet.JspServletWrapper;
 import org.apache.jasper.util.ExceptionUtils;
@@ -45,6 +51,7 @@ import org.apache.jasper.util.FastRemovalDequeue;
 import org.apache.jasper.util.FastRemovalDequeueEntry;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 
 /**
@@ -185,6 +192,10 @@ public final class JspRuntimeContext {
     private final CodeSource codeSource;                    
     private final String classpath;
     private volatile long lastCompileCheck = -1L;
+    private ExecutorService compileExecutor = null;
+    /* Pages queued or being compiled in the background */
+    private final AtomicInteger pendingCompiles = new AtomicInteger(0);
+    private volatile Map<String, Long> dependencyLastModified = null;
     private volatile long lastJspQueueUpdate = System.currentTimeMillis();
     /* JSP idle timeout in milliseconds */
     private long jspIdleTimeout;
@@ -316,6 +327,12 @@ public final class JspRuntimeContext {
         while (servlets.hasNext()) {
             servlets.next().destroy();
         }
+        synchronized (this) {
+            if (compileExecutor != null) {
+                compileExecutor.shutdownNow();
+            }
+        }
+        JspRuntimeLibrary.clearBeanProperties(parentClassLoader);
     }
 
     /**
@@ -343,6 +360,22 @@ public final class JspRuntimeContext {
         return jspReloadCount.intValue();
     }
 
+    /**
+     * Gets the number of bytes allocated for tag body buffers by the JSPs
+     * which are currently loaded.
+     *
+     * @return The sum of the allocations of the JSPs (in the webapp with
+     * which this JspServlet is associated)
+     */
+    public long getBodyContentAllocated() {
+        long result = 0;
+        Iterator<JspServletWrapper> it = jsps.values().iterator();
+        while (it.hasNext()) {
+            result += it.next().getBodyContentAllocated();
+        }
+        return result;
+    }
+
     /**
      * Gets the number of JSPs that are in the JSP limiter queue
      *
@@ -376,7 +409,9 @@ public final class JspRuntimeContext {
 
     /**
      * Method used by background thread to check the JSP dependencies
-     * registered with this class for JSP's.
+     * registered with this class for JSP's. The pages are compiled by the
+     * compile threads, the check is skipped while the previous one is still
+     * running.
      */
     public void checkCompile() {
 
@@ -390,26 +425,105 @@ public final class JspRuntimeContext {
         } else {
             return;
         }
-        
-        Object [] wrappers = jsps.values().toArray();
-        for (int i = 0; i < wrappers.length; i++ ) {
-            JspServletWrapper jsw = (JspServletWrapper)wrappers[i];
-            JspCompilationContext ctxt = jsw.getJspEngineContext();
-            // JspServletWrapper also synchronizes on this when
-            // it detects it has to do a reload
-            synchronized(jsw) {
-                try {
-                    ctxt.compile();
-                } catch (FileNotFoundException ex) {
-                    ctxt.incrementRemoved();
-                } catch (Throwable t) {
-                    ExceptionUtils.handleThrowable(t);
-                    jsw.getServletContext().log("Background compile failed",
-                                                t);
-                }
+        if (pendingCompiles.get() > 0) {
+            return;
+        }
+
+        // Held until all pages of this check are done
+        pendingCompiles.incrementAndGet();
+        dependencyLastModified = new ConcurrentHashMap<String, Long>();
+        try {
+            Iterator<JspServletWrapper> wrappers = jsps.values().iterator();
+            while (wrappers.hasNext()) {
+                compileInBackground(wrappers.next());
             }
+        } finally {
+            compileDone();
         }
+    }
 
+    /**
+     * Compiles a page with the compile threads if it is out of date. Until
+     * the new version is ready requests are served by the current one.
+     *
+     * @param jsw Servlet wrapper for the JSP
+     */
+    public void compileInBackground(final JspServletWrapper jsw) {
+        final ClassLoader loader =
+            Thread.currentThread().getContextClassLoader();
+        pendingCompiles.incrementAndGet();
+        try {
+            getCompileExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Thread currentThread = Thread.currentThread();
+                    ClassLoader old = currentThread.getContextClassLoader();
+                    currentThread.setContextClassLoader(loader);
+                    try {
+                        jsw.compile();
+                    } catch (FileNotFoundException ex) {
+                        jsw.getJspEngineContext().incrementRemoved();
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        jsw.getServletContext().log(
+                                "Background compile failed", t);
+                    } finally {
+                        currentThread.setContextClassLoader(old);
+                        compileDone();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Destroyed meanwhile
+            compileDone();
+        }
+    }
+
+    /**
+     * The last modification time of a file some JSPs depend on, as seen by
+     * the pages checked before in the current background check, so a file
+     * included by many pages is only looked at once per check.
+     *
+     * @param key The key of the dependency in
+     *            {@link org.apache.jasper.runtime.JspSourceDependent#getDependants()}
+     * @return The time, or <code>null</code> if it has not been looked at or
+     *         no check is running
+     */
+    public Long getDependencyLastModified(String key) {
+        Map<String, Long> timestamps = dependencyLastModified;
+        return timestamps == null ? null : timestamps.get(key);
+    }
+
+    /**
+     * Records the last modification time of a file some JSPs depend on for
+     * the rest of the current background check.
+     */
+    public void setDependencyLastModified(String key, long lastModified) {
+        Map<String, Long> timestamps = dependencyLastModified;
+        if (timestamps != null) {
+            timestamps.put(key, Long.valueOf(lastModified));
+        }
+    }
+
+    private void compileDone() {
+        if (pendingCompiles.decrementAndGet() == 0) {
+            dependencyLastModified = null;
+        }
+    }
+
+    private synchronized ExecutorService getCompileExecutor() {
+        if (compileExecutor == null) {
+            int threads = options.getCompileThreads();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                    threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new TaskThreadFactory("jsp-compile-"
+                            + context.getContextPath() + "-", true,
+                            Thread.NORM_PRIORITY));
+            executor.allowCoreThreadTimeOut(true);
+            compileExecutor = executor;
+        }
+        return compileExecutor;
     }
 
     /**
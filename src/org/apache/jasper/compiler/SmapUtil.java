@@ -162,6 +162,31 @@ public class SmapUtil {
         }
     }
 
+    /**
+     * Installs the SMAP for a class which has been compiled in memory.
+     *
+     * @param smap  the SMAPs as returned by {@link #generateSmap}
+     * @param classFile  the class file the class will be written to
+     * @param classBytes  the bytecode of the class
+     * @return the bytecode with the SMAP of the class file installed, the
+     *         given bytecode if there is no SMAP for the class file
+     */
+    public static byte[] installSmap(String[] smap, File classFile,
+            byte[] classBytes) throws IOException {
+        if (smap == null) {
+            return classBytes;
+        }
+
+        File target = classFile.getAbsoluteFile();
+        for (int i = 0; i < smap.length; i += 2) {
+            if (target.equals(new File(smap[i]).getAbsoluteFile())) {
+                return SmapUtilSDEInstaller.install(classBytes,
+                        smap[i+1].getBytes(Charset.defaultCharset()));
+            }
+        }
+        return classBytes;
+    }
+
     //*********************************************************************
     // Private utilities
 
@@ -37,6 +37,23 @@ public class SmapUtilSDEInstaller {
         }
     }
 
+    public static byte[] install(byte[] classBytes, byte[] smap)
+        throws IOException {
+        SmapUtilSDEInstaller installer =
+            new SmapUtilSDEInstaller(classBytes, smap);
+        byte[] result = new byte[installer.genPos];
+        System.arraycopy(installer.gen, 0, result, 0, installer.genPos);
+        return result;
+    }
+
+    private SmapUtilSDEInstaller(byte[] classBytes, byte[] sdeAttr)
+        throws IOException {
+        this.sdeAttr = sdeAttr;
+        orig = classBytes;
+        gen = new byte[orig.length + sdeAttr.length + 100];
+        addSDE();
+    }
+
     public SmapUtilSDEInstaller(File inClassFile, byte[] sdeAttr, File outClassFile)
         throws IOException {
         if (!inClassFile.exists()) {
@@ -156,30 +156,57 @@ public class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
 
         String tldName = location.getName();
         JarResource jarResource = location.getJarResource();
+        TldLocationsCache tldCache = ctxt.getOptions().getTldLocationsCache();
         try {
             if (jarResource == null) {
                 // Location points directly to TLD file
-                try {
-                    in = getResourceAsStream(tldName);
-                    if (in == null) {
-                        throw new FileNotFoundException(tldName);
+                Long lastModified = ctxt.getLastModified(tldName);
+                TreeNode tld = null;
+                if (tldCache != null) {
+                    tld = tldCache.getParsedTld(tldName,
+                            lastModified.longValue());
+                }
+                if (tld == null) {
+                    try {
+                        in = getResourceAsStream(tldName);
+                        if (in == null) {
+                            throw new FileNotFoundException(tldName);
+                        }
+                    } catch (FileNotFoundException ex) {
+                        err.jspError(mark, "jsp.error.file.not.found", tldName);
+                    }
+                    tld = parseXML(tldName, in);
+                    if (tldCache != null) {
+                        tldCache.putParsedTld(tldName,
+                                lastModified.longValue(), tld);
                     }
-                } catch (FileNotFoundException ex) {
-                    err.jspError(mark, "jsp.error.file.not.found", tldName);
                 }
 
-                parseTLD(tldName, in, null);
+                parseTLD(tldName, tld, null);
                 // Add TLD to dependency list
                 PageInfo pageInfo = ctxt.createCompiler().getPageInfo();
                 if (pageInfo != null) {
-                    pageInfo.addDependant(tldName,
-                            ctxt.getLastModified(tldName));
+                    pageInfo.addDependant(tldName, lastModified);
                 }
             } else {
                 // Tag library is packaged in JAR file
                 try {
-                    in = jarResource.getEntry(tldName).openStream();
-                    parseTLD(jarResource.getUrl(), in, jarResource);
+                    String key = jarResource.getUrl() + "!/" + tldName;
+                    long lastModified = -1;
+                    TreeNode tld = null;
+                    if (tldCache != null) {
+                        lastModified = TldLocationsCache.getLastModified(
+                                jarResource.getUrl());
+                        tld = tldCache.getParsedTld(key, lastModified);
+                    }
+                    if (tld == null) {
+                        in = jarResource.getEntry(tldName).openStream();
+                        tld = parseXML(jarResource.getUrl(), in);
+                        if (tldCache != null) {
+                            tldCache.putParsedTld(key, lastModified, tld);
+                        }
+                    }
+                    parseTLD(jarResource.getUrl(), tld, jarResource);
                 } catch (Exception ex) {
                     err.jspError(mark, "jsp.error.tld.unable_to_read", jarResource.getUrl(),
                             tldName, ex.toString());
@@ -204,16 +231,13 @@ public class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
     }
     
     /*
-     * @param ctxt The JSP compilation context @param uri The TLD's uri @param
-     * in The TLD's input stream @param jarFileUrl The JAR file containing the
-     * TLD, or null if the tag library is not packaged in a JAR
+     * Parses the TLD document, the result may be shared by other compilations
+     * through the TldLocationsCache and must not be modified.
+     * 
+     * @param uri The TLD's uri @param in The TLD's input stream
      */
-    private void parseTLD(String uri, InputStream in, JarResource jarResource)
+    private TreeNode parseXML(String uri, InputStream in)
             throws JasperException {
-        Vector<TagInfo> tagVector = new Vector<TagInfo>();
-        Vector<TagFileInfo> tagFileVector = new Vector<TagFileInfo>();
-        Hashtable<String, FunctionInfo> functionTable = new Hashtable<String, FunctionInfo>();
-
         ServletContext servletContext = ctxt.getServletContext();
         boolean validate = Boolean.parseBoolean(servletContext.getInitParameter(
                 Constants28.getXmlValidationTldInitParam()));
@@ -226,9 +250,20 @@ public class TagLibraryInfoImpl extends TagLibraryInfo implements TagConstants {
             blockExternal = Boolean.parseBoolean(blockExternalString);
         }
 
-        // Create an iterator over the child elements of our <taglib> element
         ParserUtils pu = new ParserUtils(validate, blockExternal);
-        TreeNode tld = pu.parseXMLDocument(uri, in);
+        return pu.parseXMLDocument(uri, in);
+    }
+
+    /*
+     * @param uri The TLD's uri @param tld The parsed TLD @param jarResource
+     * The JAR file containing the TLD, or null if the tag library is not
+     * packaged in a JAR
+     */
+    private void parseTLD(String uri, TreeNode tld, JarResource jarResource)
+            throws JasperException {
+        Vector<TagInfo> tagVector = new Vector<TagInfo>();
+        Vector<TagFileInfo> tagFileVector = new Vector<TagFileInfo>();
+        Hashtable<String, FunctionInfo> functionTable = new Hashtable<String, FunctionInfo>();
 
         // Check to see if the <taglib> root element contains a 'version'
         // attribute, which was added in JSP 2.0 to replace the <jsp-version>
@@ -21,12 +21,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 
@@ -57,7 +60,7 @@ import org.apache.tomcat.util.scan.JarFactory;
  * it is not currently possible to share an instance of TagLibraryInfo across
  * page invocations. A bug has been submitted to the spec lead. In the mean
  * time, all we do is save the 'location' where the TLD associated with a taglib
- * URI can be found.
+ * URI can be found, and the parsed TLD documents, which are immutable.
  *
  * When a JSP page has a taglib directive, the mappings in this container are
  * first searched (see method getLocation()). If a mapping is found, then the
@@ -150,6 +153,14 @@ public class TldLocationsCache {
 	private volatile boolean initialized;
 	private ServletContext ctxt;
 
+	/**
+	 * The parsed TLDs, keyed by the path of the TLD (prefixed by the URL of
+	 * the JAR for TLDs packaged in a JAR), shared by all the compilations of
+	 * the web application.
+	 */
+	private final ConcurrentHashMap<String, TldLocationsCacheParsedTld> parsedTlds =
+		new ConcurrentHashMap<String, TldLocationsCacheParsedTld>();
+
 	/**
 	 * Constructor.
 	 *
@@ -203,6 +214,61 @@ public class TldLocationsCache {
 		return mappings.get(uri);
 	}
 
+	/**
+	 * Gets the parsed TLD stored under the given key, unless the TLD has been
+	 * modified since it was parsed.
+	 * 
+	 * @param key
+	 *            The path of the TLD, prefixed by the URL of the JAR if the
+	 *            TLD is packaged in a JAR
+	 * @param lastModified
+	 *            The current last modification time of the TLD or JAR
+	 * 
+	 * @return The parsed TLD, or null if it has to be parsed again
+	 */
+	public TreeNode getParsedTld(String key, long lastModified) {
+		TldLocationsCacheParsedTld parsed = parsedTlds.get(key);
+		if (parsed == null || parsed.getLastModified() != lastModified) {
+			return null;
+		}
+		return parsed.getTld();
+	}
+
+	/**
+	 * Stores a parsed TLD, which must not be modified afterwards. Nothing is
+	 * stored when the last modification time is unknown.
+	 */
+	public void putParsedTld(String key, long lastModified, TreeNode tld) {
+		if (lastModified > 0) {
+			parsedTlds.put(key, new TldLocationsCacheParsedTld(lastModified,
+					tld));
+		}
+	}
+
+	/**
+	 * Returns the last modification time of the resource with the given URL,
+	 * such as a JAR containing TLDs, or -1 if it can't be determined.
+	 */
+	public static long getLastModified(String url) {
+		try {
+			if (url.startsWith("file:")) {
+				return new File(new URI(url)).lastModified();
+			}
+			URLConnection conn = new URL(url).openConnection();
+			try {
+				return conn.getLastModified();
+			} finally {
+				conn.getInputStream().close();
+			}
+		} catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("Unable to get the last modification time of " + url,
+						e);
+			}
+			return -1;
+		}
+	}
+
 	/**
 	 * Returns the type of a URI: ABS_URI ROOT_REL_URI NOROOT_REL_URI
 	 */
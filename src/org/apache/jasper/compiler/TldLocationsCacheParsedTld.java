@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import org.apache.jasper.xmlparser.TreeNode;
+
+/**
+ * A parsed TLD kept by {@link TldLocationsCache}, with the last modification
+ * time of the TLD (or of the JAR containing it) when it was parsed. The tree
+ * is never modified once it is in the cache.
+ */
+public class TldLocationsCacheParsedTld {
+
+	private final long lastModified;
+
+	private final TreeNode tld;
+
+	public TldLocationsCacheParsedTld(long lastModified, TreeNode tld) {
+		this.lastModified = lastModified;
+		this.tld = tld;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public TreeNode getTld() {
+		return tld;
+	}
+
+}
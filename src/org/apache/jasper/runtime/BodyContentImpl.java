@@ -44,6 +44,11 @@ public class BodyContentImpl extends BodyContent {
     private static final boolean LIMIT_BUFFER = 
         Boolean.valueOf(System.getProperty("org.apache.jasper.runtime.BodyContentImpl.LIMIT_BUFFER", "false")).booleanValue();
     
+    // Segments holding the content, from the pool of the page context
+    private final BodyContentImplPool pool;
+    private char[][] segments;
+    private int segmentCount;
+    // Last segment, and the next position in it
     private char[] cb;
     private int nextChar;
     private boolean closed;
@@ -51,12 +56,29 @@ public class BodyContentImpl extends BodyContent {
     // Enclosed writer to which any output is written
     private Writer writer;
     
+    static boolean isLimitBuffer() {
+        return LIMIT_BUFFER;
+    }
+    
     /**
      * Constructor.
      */
     public BodyContentImpl(JspWriter enclosingWriter) {
+        this(enclosingWriter, new BodyContentImplPool(
+                Constants28.getDefaultTagBufferSize(), !LIMIT_BUFFER));
+    }
+    
+    /**
+     * Constructor for the body contents of a page context, which share the
+     * segments of their buffers.
+     */
+    BodyContentImpl(JspWriter enclosingWriter, BodyContentImplPool pool) {
         super(enclosingWriter);
-        cb = new char[Constants28.getDefaultTagBufferSize()];
+        this.pool = pool;
+        cb = pool.get();
+        segments = new char[4][];
+        segments[0] = cb;
+        segmentCount = 1;
         setBufferSize(cb.length);
         nextChar = 0;
         closed = false;
@@ -71,8 +93,8 @@ public class BodyContentImpl extends BodyContent {
             writer.write(c);
         } else {
             ensureOpen();
-            if (nextChar >= getBufferSize()) {
-                reAllocBuff (1);
+            if (nextChar >= cb.length) {
+                nextSegment();
             }
             cb[nextChar++] = (char) c;
         }
@@ -107,11 +129,16 @@ public class BodyContentImpl extends BodyContent {
                 return;
             } 
             
-            if (len >= getBufferSize() - nextChar)
-                reAllocBuff (len);
-            
-            System.arraycopy(cbuf, off, cb, nextChar, len);
-            nextChar+=len;
+            while (len > 0) {
+                if (nextChar >= cb.length) {
+                    nextSegment();
+                }
+                int n = Math.min(cb.length - nextChar, len);
+                System.arraycopy(cbuf, off, cb, nextChar, n);
+                nextChar += n;
+                off += n;
+                len -= n;
+            }
         }
     }
     
@@ -141,11 +168,16 @@ public class BodyContentImpl extends BodyContent {
             writer.write(s, off, len);
         } else {
             ensureOpen();
-            if (len >= getBufferSize() - nextChar)
-                reAllocBuff(len);
-            
-            s.getChars(off, off + len, cb, nextChar);
-            nextChar += len;
+            while (len > 0) {
+                if (nextChar >= cb.length) {
+                    nextSegment();
+                }
+                int n = Math.min(cb.length - nextChar, len);
+                s.getChars(off, off + n, cb, nextChar);
+                nextChar += n;
+                off += n;
+                len -= n;
+            }
         }
     }
     
@@ -493,11 +525,15 @@ public class BodyContentImpl extends BodyContent {
         if (writer != null) {
             throw new IOException();
         } else {
-            nextChar = 0;
-            if (LIMIT_BUFFER && (cb.length > Constants28.getDefaultTagBufferSize())) {
-                cb = new char[Constants28.getDefaultTagBufferSize()];
-                setBufferSize(cb.length);
+            // Keep the first segment, the others go back to the pool
+            for (int i = 1; i < segmentCount; i++) {
+                pool.release(segments[i]);
+                segments[i] = null;
             }
+            segmentCount = 1;
+            cb = segments[0];
+            nextChar = 0;
+            setBufferSize(cb.length);
         }
     }
     
@@ -543,7 +579,7 @@ public class BodyContentImpl extends BodyContent {
         // JspContext.pushBody(java.io.Writer writer) must behave as
         // though it were unbuffered. This means that its getBufferSize()
         // must always return 0.
-        return (writer == null) ? getBufferSize() : 0;
+        return (writer == null) ? super.getBufferSize() : 0;
     }
     
     /**
@@ -551,7 +587,7 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public int getRemaining() {
-        return (writer == null) ? getBufferSize()-nextChar : 0;
+        return (writer == null) ? super.getBufferSize() - length() : 0;
     }
     
     /**
@@ -563,7 +599,13 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public Reader getReader() {
-        return (writer == null) ? new CharArrayReader (cb, 0, nextChar) : null;
+        if (writer != null) {
+            return null;
+        }
+        if (segmentCount == 1) {
+            return new CharArrayReader(cb, 0, nextChar);
+        }
+        return new CharArrayReader(toCharArray());
     }
     
     /**
@@ -575,7 +617,13 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public String getString() {
-        return (writer == null) ? new String(cb, 0, nextChar) : null;
+        if (writer != null) {
+            return null;
+        }
+        if (segmentCount == 1) {
+            return new String(cb, 0, nextChar);
+        }
+        return new String(toCharArray());
     }
     
     /**
@@ -589,6 +637,9 @@ public class BodyContentImpl extends BodyContent {
     @Override
     public void writeOut(Writer out) throws IOException {
         if (writer == null) {
+            for (int i = 0; i < segmentCount - 1; i++) {
+                out.write(segments[i], 0, segments[i].length);
+            }
             out.write(cb, 0, nextChar);
             // Flush not called as the writer passed could be a BodyContent and
             // it doesn't allow to flush.
@@ -631,23 +682,37 @@ public class BodyContentImpl extends BodyContent {
     }
     
     /**
-     * Reallocates buffer since the spec requires it to be unbounded.
+     * Continues in a new segment since the spec requires the buffer to be
+     * unbounded. The content written so far is not copied.
      */
-    private void reAllocBuff(int len) {
-        
-        if (getBufferSize() + len <= cb.length) {
-            setBufferSize(cb.length);
-            return;
+    private void nextSegment() {
+        if (segmentCount == segments.length) {
+            char[][] tmp = new char[segmentCount * 2][];
+            System.arraycopy(segments, 0, tmp, 0, segmentCount);
+            segments = tmp;
         }
-        
-        if (len < cb.length) {
-            len = cb.length;
+        cb = pool.get();
+        segments[segmentCount++] = cb;
+        nextChar = 0;
+        setBufferSize(super.getBufferSize() + cb.length);
+    }
+    
+    /**
+     * The number of characters in the buffer.
+     */
+    private int length() {
+        return super.getBufferSize() - cb.length + nextChar;
+    }
+    
+    private char[] toCharArray() {
+        char[] result = new char[length()];
+        int pos = 0;
+        for (int i = 0; i < segmentCount - 1; i++) {
+            System.arraycopy(segments[i], 0, result, pos, segments[i].length);
+            pos += segments[i].length;
         }
-        
-        char[] tmp = new char[cb.length + len];
-        System.arraycopy(cb, 0, tmp, 0, cb.length);
-        cb = tmp;
-        setBufferSize(cb.length);
+        System.arraycopy(cb, 0, result, pos, nextChar);
+        return result;
     }
     
     
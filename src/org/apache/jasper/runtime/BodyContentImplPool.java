@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+/**
+ * The buffer segments of the {@link BodyContentImpl} instances of one
+ * {@link PageContextImpl}. A body content stores its text in segments of a
+ * fixed size taken from this pool, so that it grows without copying what
+ * has been written so far, and the segments of a body content which is
+ * cleared are reused by the next tag body, of the same or a later request.
+ * <p>
+ * A PageContextImpl is only used by one thread at a time, this class is not
+ * thread safe.
+ */
+final class BodyContentImplPool {
+
+    private static final char[][] EMPTY = new char[0][];
+
+    private final int segmentSize;
+
+    private final boolean keepFree;
+
+    private char[][] free = EMPTY;
+
+    private int freeCount = 0;
+
+    private long allocated = 0;
+
+    /**
+     * @param segmentSize the size of the segments
+     * @param keepFree    <code>false</code> to let released segments be
+     *                    garbage collected instead of keeping them
+     */
+    BodyContentImplPool(int segmentSize, boolean keepFree) {
+        this.segmentSize = segmentSize;
+        this.keepFree = keepFree;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    char[] get() {
+        if (freeCount > 0) {
+            char[] segment = free[--freeCount];
+            free[freeCount] = null;
+            return segment;
+        }
+        allocated += segmentSize;
+        return new char[segmentSize];
+    }
+
+    void release(char[] segment) {
+        if (!keepFree) {
+            return;
+        }
+        if (freeCount == free.length) {
+            char[][] tmp = new char[Math.max(4, freeCount * 2)][];
+            System.arraycopy(free, 0, tmp, 0, freeCount);
+            free = tmp;
+        }
+        free[freeCount++] = segment;
+    }
+
+    /**
+     * The number of characters allocated for new segments since the last
+     * call, which is reset.
+     */
+    long takeAllocated() {
+        long result = allocated;
+        allocated = 0;
+        return result;
+    }
+}
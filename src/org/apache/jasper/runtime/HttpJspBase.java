@@ -18,6 +18,7 @@
 package org.apache.jasper.runtime;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -37,9 +38,23 @@ public abstract class HttpJspBase extends HttpServlet implements HttpJspPage {
     
     private static final long serialVersionUID = 1L;
 
+    private final AtomicLong bodyContentAllocated = new AtomicLong();
+
     public HttpJspBase() {
     }
 
+    /**
+     * The number of bytes allocated for the buffers of tag bodies by the
+     * requests to this page.
+     */
+    public long getBodyContentAllocated() {
+        return bodyContentAllocated.get();
+    }
+
+    void addBodyContentAllocated(long bytes) {
+        bodyContentAllocated.addAndGet(bytes);
+    }
+
     @Override
     public final void init(ServletConfig config) 
         throws ServletException 
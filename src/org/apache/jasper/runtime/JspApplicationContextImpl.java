@@ -130,6 +130,13 @@ public class JspApplicationContextImpl implements JspApplicationContext {
         this.resolvers.add(resolver);
     }
 
+    /**
+     * Have ELResolvers been added to the ones of the JSP container?
+     */
+    public boolean hasELResolvers() {
+        return !this.resolvers.isEmpty();
+    }
+
     @Override
     public ExpressionFactory getExpressionFactory() {
         return expressionFactory;
@@ -17,6 +17,9 @@
 
 package org.apache.jasper.runtime;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
 import java.beans.PropertyEditor;
 import java.beans.PropertyEditorManager;
 import java.io.ByteArrayOutputStream;
@@ -26,6 +29,10 @@ import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -54,6 +61,11 @@ import org.apache.jasper.util.ExceptionUtils;
  * @author Shawn Bayern
  */
 public class JspRuntimeLibrary {
+
+    private static final ConcurrentHashMap<Class<?>,
+            Map<String, JspRuntimeLibraryBeanProperty>> beanProperties =
+        new ConcurrentHashMap<Class<?>,
+            Map<String, JspRuntimeLibraryBeanProperty>>();
     
     /**
      * Returns the value of the javax.servlet.error.exception request
@@ -284,19 +296,12 @@ public class JspRuntimeLibrary {
         Class<?> type = null;
         Class<?> propertyEditorClass = null;
         try {
-            java.beans.BeanInfo info
-                = java.beans.Introspector.getBeanInfo(bean.getClass());
-            if ( info != null ) {
-                java.beans.PropertyDescriptor pd[]
-                    = info.getPropertyDescriptors();
-                for (int i = 0 ; i < pd.length ; i++) {
-                    if ( pd[i].getName().equals(prop) ) {
-                        method = pd[i].getWriteMethod();
-                        type   = pd[i].getPropertyType();
-                        propertyEditorClass = pd[i].getPropertyEditorClass();
-                        break;
-                    }
-                }
+            JspRuntimeLibraryBeanProperty property =
+                getBeanProperties(bean.getClass()).get(prop);
+            if (property != null) {
+                method = property.writeMethod;
+                type = property.type;
+                propertyEditorClass = property.propertyEditorClass;
             }
             if ( method != null ) {
                 if (type.isArray()) {
@@ -718,23 +723,11 @@ public class JspRuntimeLibrary {
         Method method = null;        
         Class<?> type = null;
         try {
-            java.beans.BeanInfo info
-                = java.beans.Introspector.getBeanInfo(beanClass);
-            if ( info != null ) {
-                java.beans.PropertyDescriptor pd[]
-                    = info.getPropertyDescriptors();
-                for (int i = 0 ; i < pd.length ; i++) {
-                    if ( pd[i].getName().equals(prop) ) {
-                        method = pd[i].getWriteMethod();
-                        type   = pd[i].getPropertyType();
-                        break;
-                    }
-                }
-            } else {        
-                // just in case introspection silently fails.
-                throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.nobeaninfo",
-                                         beanClass.getName()));
+            JspRuntimeLibraryBeanProperty property =
+                getBeanProperties(beanClass).get(prop);
+            if (property != null) {
+                method = property.writeMethod;
+                type = property.type;
             }
         } catch (Exception ex) {
             throw new JasperException (ex);
@@ -762,23 +755,11 @@ public class JspRuntimeLibrary {
         Method method = null;        
         Class<?> type = null;
         try {
-            java.beans.BeanInfo info
-                = java.beans.Introspector.getBeanInfo(beanClass);
-            if ( info != null ) {
-                java.beans.PropertyDescriptor pd[]
-                    = info.getPropertyDescriptors();
-                for (int i = 0 ; i < pd.length ; i++) {
-                    if ( pd[i].getName().equals(prop) ) {
-                        method = pd[i].getReadMethod();
-                        type   = pd[i].getPropertyType();
-                        break;
-                    }
-                }
-            } else {        
-                // just in case introspection silently fails.
-                throw new JasperException(
-                    Localizer.getMessage("jsp.error.beans.nobeaninfo",
-                                         beanClass.getName()));
+            JspRuntimeLibraryBeanProperty property =
+                getBeanProperties(beanClass).get(prop);
+            if (property != null) {
+                method = property.readMethod;
+                type = property.type;
             }
         } catch (Exception ex) {
             throw new JasperException (ex);
@@ -798,6 +779,50 @@ public class JspRuntimeLibrary {
         return method;
     }
 
+    /**
+     * The bean properties of a class by name. The Introspector is only asked
+     * the first time, it synchronizes globally on each call.
+     */
+    static Map<String, JspRuntimeLibraryBeanProperty> getBeanProperties(
+            Class<?> beanClass) throws IntrospectionException {
+        Map<String, JspRuntimeLibraryBeanProperty> properties =
+            beanProperties.get(beanClass);
+        if (properties == null) {
+            PropertyDescriptor pd[] =
+                Introspector.getBeanInfo(beanClass).getPropertyDescriptors();
+            properties = new HashMap<String, JspRuntimeLibraryBeanProperty>(
+                    pd.length * 2);
+            for (int i = 0; i < pd.length; i++) {
+                if (!properties.containsKey(pd[i].getName())) {
+                    properties.put(pd[i].getName(),
+                            new JspRuntimeLibraryBeanProperty(pd[i]));
+                }
+            }
+            beanProperties.put(beanClass, properties);
+        }
+        return properties;
+    }
+
+    /**
+     * Forgets the bean properties of the classes loaded by a class loader or
+     * its children, so a stopped web application can be garbage collected.
+     *
+     * @param loader The class loader of the web application
+     */
+    public static void clearBeanProperties(ClassLoader loader) {
+        Iterator<Class<?>> classes = beanProperties.keySet().iterator();
+        while (classes.hasNext()) {
+            ClassLoader cl = classes.next().getClassLoader();
+            while (cl != null) {
+                if (cl == loader) {
+                    classes.remove();
+                    break;
+                }
+                cl = cl.getParent();
+            }
+        }
+    }
+
     //*********************************************************************
     // PropertyEditor Support
 
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+
+/**
+ * What {@link JspRuntimeLibrary} needs to know about a bean property, taken
+ * from its <code>PropertyDescriptor</code> once per bean class.
+ */
+final class JspRuntimeLibraryBeanProperty {
+
+    final Method readMethod;
+
+    final Method writeMethod;
+
+    final Class<?> type;
+
+    final Class<?> propertyEditorClass;
+
+    JspRuntimeLibraryBeanProperty(PropertyDescriptor pd) {
+        this.readMethod = pd.getReadMethod();
+        this.writeMethod = pd.getWriteMethod();
+        this.type = pd.getPropertyType();
+        this.propertyEditorClass = pd.getPropertyEditorClass();
+    }
+}
@@ -19,6 +19,10 @@ package org.apache.jasper.runtime;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -28,6 +32,7 @@ import javax.servlet.jsp.JspWriter;
 import org.apache.jasper.Constants28;
 import org.apache.jasper.compiler.Localizer;
 import org.apache.jasper.security.SecurityUtil2;
+import org.apache.tomcat.util.buf.EncodedWriter;
 
 /**
  * Write text to a character-output stream, buffering characters so as
@@ -340,6 +345,74 @@ public class JspWriterImpl extends JspWriter {
     }
     
     
+    /**
+     * Write a String of template text which has also been encoded with the
+     * charset of the page. Used by the generated code of JSP pages compiled
+     * with the preEncodeTemplateText option.
+     *
+     * @param  out      The JspWriter of the page, which may be a BodyContent
+     * @param  s        Template text to be written
+     * @param  bytes    The template text encoded by {@link #encode}, or null
+     * @param  charset  Name of the charset of the encoded text
+     */
+    public static void writeEncoded(JspWriter out, String s, byte[] bytes,
+            String charset) throws IOException {
+        if (bytes != null && out instanceof JspWriterImpl) {
+            ((JspWriterImpl) out).writeEncoded(s, bytes, charset);
+        } else {
+            out.write(s);
+        }
+    }
+    
+    /**
+     * Encode template text, when the servlet class of the page is
+     * initialized.
+     *
+     * @param  s        Template text
+     * @param  charset  Name of the charset of the page
+     * @return the encoded text, or null if the charset is not supported or
+     *         can't encode all the characters of the text
+     */
+    public static byte[] encode(String s, String charset) {
+        try {
+            ByteBuffer bb = Charset.forName(charset).newEncoder().encode(
+                    CharBuffer.wrap(s));
+            byte[] bytes = new byte[bb.remaining()];
+            bb.get(bytes);
+            return bytes;
+        } catch (CharacterCodingException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Write a String of template text which has also been encoded. When the
+     * text would make this writer flush its buffer anyway, the buffer is
+     * flushed and the bytes are handed to the response writer, if it
+     * encodes with the same charset. Otherwise the String is written.
+     *
+     * @param  s        Template text to be written
+     * @param  bytes    The encoded template text
+     * @param  charset  Name of the charset of the encoded text
+     */
+    public void writeEncoded(String s, byte[] bytes, String charset)
+    throws IOException {
+        ensureOpen();
+        if (getBufferSize() == 0
+                || (isAutoFlush() && s.length() > getRemaining())) {
+            flushBuffer();
+            initOut();
+            if (out instanceof EncodedWriter && ((EncodedWriter) out)
+                    .writeEncoded(bytes, 0, bytes.length, charset)) {
+                return;
+            }
+        }
+        write(s);
+    }
+    
+    
     private static String lineSeparator = System.getProperty("line.separator");
     
     /**
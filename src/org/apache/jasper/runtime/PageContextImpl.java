@@ -26,10 +26,16 @@ import java.security.PrivilegedExceptionAction;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
 
 import javax.el.ELContext;
+import javax.el.ELException;
 import javax.el.ExpressionFactory;
+import javax.el.PropertyNotFoundException;
 import javax.el.ValueExpression;
+import javax.el.VariableMapper;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -75,6 +81,8 @@ public class PageContextImpl extends PageContext {
 
     private BodyContentImpl[] outs;
 
+    private final BodyContentImplPool bodyContentPool;
+
     private int depth;
 
     // per-servlet state
@@ -113,6 +121,9 @@ public class PageContextImpl extends PageContext {
      */
     public PageContextImpl() {
         this.outs = new BodyContentImpl[0];
+        this.bodyContentPool = new BodyContentImplPool(
+                Constants28.getDefaultTagBufferSize(),
+                !BodyContentImpl.isLimitBuffer());
         this.attributes = new HashMap<String, Object>(16);
         this.depth = -1;
     }
@@ -197,6 +208,11 @@ public class PageContextImpl extends PageContext {
             IllegalStateException ise = new IllegalStateException(Localizer.getMessage("jsp.error.flush"), ex);
             throw ise;
         } finally {
+            long allocated = bodyContentPool.takeAllocated();
+            if (allocated > 0 && servlet instanceof HttpJspBase) {
+                // Two bytes per char
+                ((HttpJspBase) servlet).addBodyContentAllocated(allocated * 2);
+            }
             servlet = null;
             config = null;
             context = null;
@@ -768,7 +784,7 @@ public class PageContextImpl extends PageContext {
             for (int i = 0; i < outs.length; i++) {
                 newOuts[i] = outs[i];
             }
-            newOuts[depth] = new BodyContentImpl(out);
+            newOuts[depth] = new BodyContentImpl(out, bodyContentPool);
             outs = newOuts;
         }
 
@@ -970,6 +986,106 @@ public class PageContextImpl extends PageContext {
         return retValue;
     }
 
+    /**
+     * Resolves the identifier of an EL expression the Generator wrote as
+     * getter calls, the same way the interpreter would.
+     *
+     * @param pageContext
+     *            The page context
+     * @param name
+     *            The identifier
+     * @return The value of the identifier
+     */
+    public static Object resolveELVariable(PageContext pageContext,
+            String name) throws ELException {
+        ELContext ctx = pageContext.getELContext();
+        VariableMapper mapper = ctx.getVariableMapper();
+        if (mapper != null) {
+            ValueExpression ve = mapper.resolveVariable(name);
+            if (ve != null) {
+                return ve.getValue(ctx);
+            }
+        }
+        if (pageContext instanceof PageContextImpl
+                && !((PageContextImpl) pageContext).applicationContext
+                        .hasELResolvers()) {
+            // what ScopedAttributeELResolver would return
+            return pageContext.findAttribute(name);
+        }
+        ctx.setPropertyResolved(false);
+        Object result = ctx.getELResolver().getValue(ctx, null, name);
+        if (!ctx.isPropertyResolved()) {
+            throw new PropertyNotFoundException(Localizer.getMessage(
+                    "jsp.error.el.unhandled.null", name));
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a property of an EL expression the Generator wrote as getter
+     * calls through the ELResolver chain, for values it can't call the getter
+     * on.
+     *
+     * @param pageContext
+     *            The page context
+     * @param base
+     *            The value the property is read from, not <code>null</code>
+     * @param property
+     *            The name of the property
+     * @return The value of the property
+     */
+    public static Object resolveELProperty(PageContext pageContext,
+            Object base, String property) throws ELException {
+        ELContext ctx = pageContext.getELContext();
+        ctx.setPropertyResolved(false);
+        Object result = ctx.getELResolver().getValue(ctx, base, property);
+        if (!ctx.isPropertyResolved()) {
+            throw new PropertyNotFoundException(Localizer.getMessage(
+                    "jsp.error.el.unhandled", base.getClass().getName(),
+                    property));
+        }
+        return result;
+    }
+
+    /**
+     * Is the value a bean whose properties the ELResolver chain of the page
+     * would read with their getter?
+     *
+     * @param pageContext
+     *            The page context
+     * @param base
+     *            The value, not <code>null</code>
+     * @return <code>true</code> if the getter can be called directly
+     */
+    public static boolean isELBean(PageContext pageContext, Object base) {
+        return pageContext instanceof PageContextImpl
+                && !((PageContextImpl) pageContext).applicationContext
+                        .hasELResolvers()
+                && !(base instanceof Map<?,?> || base instanceof List<?>
+                        || base instanceof ResourceBundle
+                        || base.getClass().isArray());
+    }
+
+    /**
+     * Coerces the value of an EL expression to a String, as
+     * <code>ELSupport.coerceToString()</code> does.
+     *
+     * @param obj
+     *            The value
+     * @return The String, "" for <code>null</code>
+     */
+    public static String coerceELToString(Object obj) {
+        if (obj == null) {
+            return "";
+        } else if (obj instanceof String) {
+            return (String) obj;
+        } else if (obj instanceof Enum<?>) {
+            return ((Enum<?>) obj).name();
+        } else {
+            return obj.toString();
+        }
+    }
+
     @Override
     public ELContext getELContext() {
         if (this.elContext == null) {
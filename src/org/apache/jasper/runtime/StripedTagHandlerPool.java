@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+/**
+ * Pool of tag handlers that can be reused, without locking. The handlers are
+ * kept in one stripe of slots per processor, a thread takes and returns
+ * handlers in the stripe it hashes to first and only looks at the other
+ * stripes when its own is empty (or full). Select it with the
+ * <code>tagpoolClassName</code> init parameter when pages with many tags are
+ * served by many threads at once and the lock of {@link TagHandlerPool}
+ * becomes contended.
+ * <p>
+ * Each stripe holds at least one handler, so the pool may keep up to the
+ * number of stripes handlers even when <code>tagpoolMaxSize</code> is lower.
+ */
+public class StripedTagHandlerPool extends TagHandlerPool {
+
+	private AtomicReferenceArray<Tag> slots;
+
+	private int stripeSize;
+
+	private int stripeMask;
+
+	/**
+	 * Constructs a tag handler pool with the default capacity.
+	 */
+	public StripedTagHandlerPool() {
+		super();
+	}
+
+	@Override
+	protected void init(ServletConfig config) {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors()) {
+			stripes <<= 1;
+		}
+		int maxSize = getMaxSize(config);
+		stripeMask = stripes - 1;
+		stripeSize = Math.max(1, (maxSize + stripes - 1) / stripes);
+		slots = new AtomicReferenceArray<Tag>(stripes * stripeSize);
+		setHandlers(new Tag[0]);
+		setCurrent(-1);
+		setInstanceManager(InstanceManagerFactory.getInstanceManager(config));
+	}
+
+	/**
+	 * Gets the next available tag handler from this tag handler pool,
+	 * instantiating one if this tag handler pool is empty.
+	 * 
+	 * @param handlerClass
+	 *            Tag handler class
+	 * @return Reused or newly instantiated tag handler
+	 * @throws JspException
+	 *             if a tag handler cannot be instantiated
+	 */
+	@Override
+	public Tag get(Class<? extends Tag> handlerClass) throws JspException {
+		int length = slots.length();
+		int start = firstSlot();
+		for (int n = 0; n < length; n++) {
+			int i = start + n;
+			if (i >= length) {
+				i -= length;
+			}
+			Tag handler = slots.get(i);
+			if (handler != null && slots.compareAndSet(i, handler, null)) {
+				return handler;
+			}
+		}
+		return newHandler(handlerClass);
+	}
+
+	/**
+	 * Adds the given tag handler to this tag handler pool, unless this tag
+	 * handler pool has already reached its capacity, in which case the tag
+	 * handler's release() method is called.
+	 * 
+	 * @param handler
+	 *            Tag handler to add to this tag handler pool
+	 */
+	@Override
+	public void reuse(Tag handler) {
+		int length = slots.length();
+		int start = firstSlot();
+		for (int n = 0; n < length; n++) {
+			int i = start + n;
+			if (i >= length) {
+				i -= length;
+			}
+			if (slots.get(i) == null && slots.compareAndSet(i, null, handler)) {
+				return;
+			}
+		}
+		destroyHandler(handler);
+	}
+
+	/**
+	 * Calls the release() method of all available tag handlers in this tag
+	 * handler pool.
+	 */
+	@Override
+	public void release() {
+		for (int i = 0; i < slots.length(); i++) {
+			Tag handler = slots.getAndSet(i, null);
+			if (handler != null) {
+				destroyHandler(handler);
+			}
+		}
+	}
+
+	/**
+	 * The first slot of the stripe of the current thread.
+	 */
+	private int firstSlot() {
+		int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & stripeMask) * stripeSize;
+	}
+
+}
@@ -66,6 +66,15 @@ public class TagHandlerPool {
 	}
 
 	protected void init(ServletConfig config) {
+		this.handlers = new Tag[getMaxSize(config)];
+		this.current = -1;
+		instanceManager = InstanceManagerFactory.getInstanceManager(config);
+	}
+
+	/**
+	 * The capacity of the pool, from the tagpoolMaxSize option.
+	 */
+	protected static int getMaxSize(ServletConfig config) {
 		int maxSize = -1;
 		String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
 		if (maxSizeS != null) {
@@ -78,9 +87,7 @@ public class TagHandlerPool {
 		if (maxSize < 0) {
 			maxSize = Constants28.getMaxPoolSize();
 		}
-		this.handlers = new Tag[maxSize];
-		this.current = -1;
-		instanceManager = InstanceManagerFactory.getInstanceManager(config);
+		return maxSize;
 	}
 
 	/**
@@ -112,6 +119,14 @@ public class TagHandlerPool {
 
 		// Out of sync block - there is no need for other threads to
 		// wait for us to construct a tag for this thread.
+		return newHandler(handlerClass);
+	}
+
+	/**
+	 * Instantiates a tag handler, when the pool has none available.
+	 */
+	protected Tag newHandler(Class<? extends Tag> handlerClass)
+			throws JspException {
 		try {
 			if (Constants28.isUseInstanceManagerForTags()) {
 				return (Tag) instanceManager.newInstance(
@@ -144,6 +159,13 @@ public class TagHandlerPool {
 			}
 		}
 		// There is no need for other threads to wait for us to release
+		destroyHandler(handler);
+	}
+
+	/**
+	 * Releases a tag handler which is not kept in the pool.
+	 */
+	protected void destroyHandler(Tag handler) {
 		handler.release();
 		try {
 			instanceManager.destroyInstance(handler);
@@ -161,16 +183,7 @@ public class TagHandlerPool {
 	 */
 	public synchronized void release() {
 		for (int i = current; i >= 0; i--) {
-			Tag handler = handlers[i];
-			handler.release();
-			try {
-				instanceManager.destroyInstance(handler);
-			} catch (Exception e) {
-				Throwable t = ExceptionUtils.unwrapInvocationTargetException(e);
-				ExceptionUtils.handleThrowable(t);
-				log.warn("Error processing preDestroy on tag instance of "
-						+ handler.getClass().getName(), t);
-			}
+			destroyHandler(handlers[i]);
 		}
 	}
 
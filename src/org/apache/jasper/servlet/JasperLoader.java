@@ -23,6 +23,9 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.jasper.Constants28;
 
@@ -39,6 +42,13 @@ public class JasperLoader extends URLClassLoader {
     private PermissionCollection permissionCollection;
     private ClassLoader parent;
     private SecurityManager securityManager;
+    private CodeSource codeSource;
+
+    /**
+     * Classes compiled in memory which have not been defined yet.
+     */
+    private Map<String, byte[]> compiledClasses =
+        new HashMap<String, byte[]>();
 
     public JasperLoader(URL[] urls, ClassLoader parent,
                         PermissionCollection permissionCollection) {
@@ -46,6 +56,19 @@ public class JasperLoader extends URLClassLoader {
         this.permissionCollection = permissionCollection;
         this.parent = parent;
         this.securityManager = System.getSecurityManager();
+        this.codeSource = new CodeSource(urls.length > 0 ? urls[0] : null,
+                (Certificate[]) null);
+    }
+
+    /**
+     * Add the bytecode of a class compiled in memory, the class is defined
+     * from it instead of being read from the class file.
+     *
+     * @param name Name of the class
+     * @param bytes The bytecode of the class
+     */
+    public synchronized void addCompiledClass(String name, byte[] bytes) {
+        compiledClasses.put(name, bytes);
     }
 
     /**
@@ -133,6 +156,39 @@ public class JasperLoader extends URLClassLoader {
     }
 
     
+    /**
+     * Define the class from its bytecode if it has been compiled in memory,
+     * otherwise look it up in the class files.
+     *
+     * @param name Name of the class to be found
+     *
+     * @exception ClassNotFoundException if the class was not found
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes;
+        synchronized (this) {
+            bytes = compiledClasses.remove(name);
+        }
+        if (bytes != null) {
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                String packageName = name.substring(0, dot);
+                if (getPackage(packageName) == null) {
+                    try {
+                        definePackage(packageName, null, null, null, null,
+                                null, null, null);
+                    } catch (IllegalArgumentException e) {
+                        // Already defined
+                    }
+                }
+            }
+            return defineClass(name, bytes, 0, bytes.length, codeSource);
+        }
+        return super.findClass(name);
+    }
+
+
     /**
      * Delegate to parent
      * 
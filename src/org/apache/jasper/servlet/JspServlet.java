@@ -24,6 +24,9 @@ import java.net.MalformedURLException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
@@ -146,6 +149,10 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
             }
         }
 
+        if (options.getPrecompileOnStart()) {
+            precompileAll();
+        }
+
         if (log.isDebugEnabled()) {
             log.debug(Localizer.getMessage("jsp.message.scratch.dir.is",
                     options.getScratchDir().toString()));
@@ -218,6 +225,21 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     }
 
 
+    /**
+     * Gets the number of bytes the loaded JSPs have allocated for the
+     * buffers of tag bodies.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of bytes allocated for tag bodies by the JSPs (in
+     * the webapp with which this JspServlet is associated) since they were
+     * loaded
+     */
+    public long getBodyContentAllocated() {
+        return this.rctxt.getBodyContentAllocated();
+    }
+
+
     /**
      * <p>Look for a <em>precompilation request</em> as described in
      * Section 8.4.2 of the JSP 1.2 Specification.  <strong>WARNING</strong> -
@@ -373,6 +395,28 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                                 boolean precompile)
         throws ServletException, IOException {
 
+        JspServletWrapper wrapper = getWrapper(jspUri);
+        if (wrapper == null) {
+            handleMissingResource(request, response, jspUri);
+            return;
+        }
+
+        try {
+            wrapper.service(request, response, precompile);
+        } catch (FileNotFoundException fnfe) {
+            handleMissingResource(request, response, jspUri);
+        }
+
+    }
+
+
+    /**
+     * Returns the wrapper of a page, created if the page exists.
+     *
+     * @return the wrapper, or <code>null</code> if there is no such page
+     */
+    private JspServletWrapper getWrapper(String jspUri)
+            throws MalformedURLException {
         JspServletWrapper wrapper = rctxt.getWrapper(jspUri);
         if (wrapper == null) {
             synchronized(this) {
@@ -381,8 +425,7 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                     // Check if the requested JSP page exists, to avoid
                     // creating unnecessary directories and files.
                     if (null == context.getResource(jspUri)) {
-                        handleMissingResource(request, response, jspUri);
-                        return;
+                        return null;
                     }
                     wrapper = new JspServletWrapper(config, options, jspUri,
                                                     rctxt);
@@ -390,13 +433,52 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                 }
             }
         }
+        return wrapper;
+    }
 
-        try {
-            wrapper.service(request, response, precompile);
-        } catch (FileNotFoundException fnfe) {
-            handleMissingResource(request, response, jspUri);
+
+    /**
+     * Hands all JSP pages of the web application to the compile threads of
+     * the runtime context. Requests for a page which is not compiled yet
+     * wait for it as they would without precompilation.
+     */
+    private void precompileAll() {
+        List<String> jspUris = new ArrayList<String>();
+        findJspFiles("/", jspUris);
+        for (String jspUri : jspUris) {
+            try {
+                JspServletWrapper wrapper = getWrapper(jspUri);
+                if (wrapper != null) {
+                    rctxt.compileInBackground(wrapper);
+                }
+            } catch (MalformedURLException e) {
+                log.warn(Localizer.getMessage("jsp.warning.precompile",
+                        jspUri), e);
+            }
+        }
+        if (log.isInfoEnabled()) {
+            log.info(Localizer.getMessage("jsp.message.precompile",
+                    String.valueOf(jspUris.size()), context.getContextPath()));
         }
+    }
 
+
+    private void findJspFiles(String path, List<String> jspUris) {
+        Set<String> paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        for (String p : paths) {
+            if (p.endsWith("/")) {
+                if (!p.equals("/WEB-INF/classes/")
+                        && !p.equals("/WEB-INF/lib/")
+                        && !p.equals("/META-INF/")) {
+                    findJspFiles(p, jspUris);
+                }
+            } else if (p.endsWith(".jsp") || p.endsWith(".jspx")) {
+                jspUris.add(p);
+            }
+        }
     }
 
 
@@ -42,6 +42,7 @@ import org.apache.jasper.compiler.JarResource;
 import org.apache.jasper.compiler.JavacErrorDetail;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.runtime.HttpJspBase;
 import org.apache.jasper.runtime.InstanceManagerFactory;
 import org.apache.jasper.runtime.JspSourceDependent;
 import org.apache.jasper.util.ExceptionUtils;
@@ -93,12 +94,19 @@ public class JspServletWrapper {
     private boolean firstTime = true;
     /** Whether the servlet needs reloading on next access */
     private volatile boolean reload = true;
+    /** Whether a thread is compiling the page */
+    private volatile boolean compiling = false;
     private boolean isTagFile;
     private int tripCount;
     private JasperException compileException;
     /** Timestamp of last time servlet resource was modified */
     private volatile long servletClassLastModifiedTime;
     private long lastModificationTest = 0L;
+    /**
+     * Source of the servlet compiled in memory, kept in development mode for
+     * the detailed error messages
+     */
+    private volatile char[] servletJavaSource;
     private long lastUsageTime = System.currentTimeMillis();
     private FastRemovalDequeueEntry<JspServletWrapper> unloadHandle;
     private final boolean unloadAllowed;
@@ -351,11 +359,16 @@ public class JspServletWrapper {
              * (1) Compile
              */
             if (options.getDevelopment() || firstTime ) {
-                synchronized (this) {
-                    firstTime = false;
-
-                    // The following sets reload to true, if necessary
-                    ctxt.compile();
+                if (compiling && theServlet != null) {
+                    // Another thread compiles a new version, the current
+                    // one is used until that is ready
+                } else {
+                    synchronized (this) {
+                        firstTime = false;
+
+                        // The following sets reload to true, if necessary
+                        compile();
+                    }
                 }
             } else {
                 if (compileException != null) {
@@ -490,6 +503,38 @@ public class JspServletWrapper {
         }
     }
 
+    /**
+     * Compiles the page if it is out of date. Requests which don't have to
+     * compile the page themselves are served by the current servlet
+     * meanwhile.
+     */
+    public void compile() throws JasperException, FileNotFoundException {
+        synchronized (this) {
+            compiling = true;
+            try {
+                // The following sets reload to true, if necessary
+                ctxt.compile();
+            } finally {
+                compiling = false;
+            }
+        }
+    }
+
+    /**
+     * @return Returns the generated source of the servlet compiled in memory
+     *         in development mode, <code>null</code> otherwise.
+     */
+    public char[] getServletJavaSource() {
+        return servletJavaSource;
+    }
+
+    /**
+     * @param servletJavaSource The servletJavaSource to set.
+     */
+    public void setServletJavaSource(char[] servletJavaSource) {
+        this.servletJavaSource = servletJavaSource;
+    }
+
     /**
      * @return Returns the lastModificationTest.
      */
@@ -510,6 +555,18 @@ public class JspServletWrapper {
         return lastUsageTime;
     }
 
+    /**
+     * @return the number of bytes the requests to the current servlet of the
+     * page allocated for tag body buffers.
+     */
+    public long getBodyContentAllocated() {
+        Servlet servlet = theServlet;
+        if (servlet instanceof HttpJspBase) {
+            return ((HttpJspBase) servlet).getBodyContentAllocated();
+        }
+        return 0;
+    }
+
     /**
      * <p>Attempts to construct a JasperException that contains helpful information
      * about what went wrong. Uses the JSP compiler system to translate the line
@@ -24,9 +24,9 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.tomcat.util.res.StringManager3;
 
@@ -38,7 +38,7 @@ public class B2CConverter {
 	private static final StringManager3 sm = StringManager3
 			.getManager(Constants32.getPackage());
 
-	private static final Map<String, Charset> encodingToCharsetCache = new HashMap<String, Charset>();
+	private static final Map<String, Charset> encodingToCharsetCache = new ConcurrentHashMap<String, Charset>();
 
 	private static final Charset ISO_8859_1;
 	private static final Charset UTF_8;
@@ -94,6 +94,11 @@ public class B2CConverter {
 	}
 
 	private final CharsetDecoder decoder;
+	/**
+	 * ISO-8859-1 maps each byte to the char with the same value, it is
+	 * converted without the decoder.
+	 */
+	private final boolean iso88591;
 	private ByteBuffer bb = null;
 	private CharBuffer cb = null;
 
@@ -125,6 +130,7 @@ public class B2CConverter {
 		} else {
 			decoder = charset.newDecoder();
 		}
+		iso88591 = charset.equals(ISO_8859_1);
 		decoder.onMalformedInput(action);
 		decoder.onUnmappableCharacter(action);
 	}
@@ -149,6 +155,10 @@ public class B2CConverter {
 	 */
 	public void convert(ByteChunk bc, CharChunk cc, boolean endOfInput)
 			throws IOException {
+		if (iso88591) {
+			convertIso88591(bc, cc);
+			return;
+		}
 		if ((bb == null) || (bb.array() != bc.getBuffer())) {
 			// Create a new byte buffer if anything changed
 			bb = ByteBuffer.wrap(bc.getBuffer(), bc.getStart(), bc.getLength());
@@ -207,6 +217,23 @@ public class B2CConverter {
 		}
 	}
 
+	/**
+	 * Convert as many of the given ISO-8859-1 bytes as there is space for in
+	 * the char chunk.
+	 */
+	private static void convertIso88591(ByteChunk bc, CharChunk cc) {
+		byte[] bbuf = bc.getBuffer();
+		char[] cbuf = cc.getBuffer();
+		int start = bc.getStart();
+		int end = cc.getEnd();
+		int length = Math.min(bc.getLength(), cbuf.length - end);
+		for (int i = 0; i < length; i++) {
+			cbuf[end + i] = (char) (bbuf[start + i] & 0xff);
+		}
+		bc.setOffset(start + length);
+		cc.setEnd(end + length);
+	}
+
 	public static Charset getIso88591() {
 		return ISO_8859_1;
 	}
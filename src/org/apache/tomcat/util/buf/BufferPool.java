@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager3;
+
+/**
+ * Pool of the arrays a ByteChunk or CharChunk grows into, when the chunk has
+ * been set to use it with <code>setUsePool(true)</code>.
+ * <p>
+ * Arrays are pooled by power of two size classes, from 4K to 1M elements, a
+ * few arrays per class and per thread, so that getting and releasing an
+ * array needs no locking. The memory held by the pooled arrays of all the
+ * threads is capped: arrays released over the cap are left to the garbage
+ * collector. The memory is also counted per thread, when the cap is reached
+ * the arrays of the threads which have stopped, like idle executor threads
+ * that were retired, are given up and no longer counted.
+ * <p>
+ * With debug logging enabled, the pooled arrays in use are counted, and an
+ * array released while it is already pooled is reported.
+ */
+public final class BufferPool {
+
+
+    // ------------------------------------------------------- Static Variables
+
+
+    private static final Log log = LogFactory.getLog(BufferPool.class);
+
+
+    private static final StringManager3 sm =
+        StringManager3.getManager(Constants32.getPackage());
+
+
+    private static final int MIN_SHIFT = 12;
+
+
+    private static final int MAX_SHIFT = 20;
+
+
+    private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+
+    /**
+     * Arrays pooled per size class and per thread.
+     */
+    private static int arraysPerThread = Integer.parseInt(System.getProperty(
+            "tomcat.util.buf.BufferPool.arraysPerThread", "2"));
+
+
+    /**
+     * Maximum memory held by the pooled arrays of all threads, in bytes.
+     */
+    private static long maxRetained = Long.parseLong(System.getProperty(
+            "tomcat.util.buf.BufferPool.maxRetained", "33554432"));
+
+
+    private static final AtomicLong retained = new AtomicLong();
+
+
+    private static final AtomicLong inUse = new AtomicLong();
+
+
+    /**
+     * Least time between two searches for the arrays of stopped threads, in
+     * milliseconds.
+     */
+    private static final long SWEEP_INTERVAL = 1000;
+
+
+    private static final AtomicLong lastSweep = new AtomicLong();
+
+
+    /**
+     * The arrays of every thread which used the pool.
+     */
+    private static final ConcurrentLinkedQueue<BufferPoolThreadArrays> threads =
+        new ConcurrentLinkedQueue<BufferPoolThreadArrays>();
+
+
+    private static final ThreadLocal<BufferPoolThreadArrays> threadArrays =
+        new ThreadLocal<BufferPoolThreadArrays>() {
+            @Override
+            protected BufferPoolThreadArrays initialValue() {
+                BufferPoolThreadArrays result = new BufferPoolThreadArrays(
+                        Thread.currentThread(), CLASSES * arraysPerThread);
+                threads.add(result);
+                return result;
+            }
+        };
+
+
+    private BufferPool() {
+        // Utility class
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Get a byte array of at least the given size, a pooled one if possible.
+     */
+    public static byte[] getBytes(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            return new byte[minSize];
+        }
+        if (log.isDebugEnabled()) {
+            inUse.incrementAndGet();
+        }
+        BufferPoolThreadArrays thread = threadArrays.get();
+        byte[][] arrays = thread.getBytes();
+        int end = (sizeClass + 1) * arraysPerThread;
+        for (int i = sizeClass * arraysPerThread; i < end; i++) {
+            byte[] result = arrays[i];
+            if (result != null) {
+                arrays[i] = null;
+                thread.addRetained(-result.length);
+                retained.addAndGet(-result.length);
+                return result;
+            }
+        }
+        return new byte[1 << (sizeClass + MIN_SHIFT)];
+    }
+
+
+    /**
+     * Give back a byte array obtained with {@link #getBytes(int)}, which must
+     * not be used any more.
+     */
+    public static void release(byte[] array) {
+        int sizeClass = classOf(array.length);
+        if (sizeClass < 0) {
+            return;
+        }
+        BufferPoolThreadArrays thread = threadArrays.get();
+        byte[][] arrays = thread.getBytes();
+        int start = sizeClass * arraysPerThread;
+        int end = start + arraysPerThread;
+        if (log.isDebugEnabled()) {
+            inUse.decrementAndGet();
+            for (int i = start; i < end; i++) {
+                if (arrays[i] == array) {
+                    log.debug(sm.getString("bufferPool.doubleRelease",
+                            Integer.valueOf(array.length)),
+                            new IllegalStateException());
+                    return;
+                }
+            }
+        }
+        for (int i = start; i < end; i++) {
+            if (arrays[i] == null) {
+                if (reserve(thread, array.length)) {
+                    arrays[i] = array;
+                }
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Get a char array of at least the given size, a pooled one if possible.
+     */
+    public static char[] getChars(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            return new char[minSize];
+        }
+        if (log.isDebugEnabled()) {
+            inUse.incrementAndGet();
+        }
+        BufferPoolThreadArrays thread = threadArrays.get();
+        char[][] arrays = thread.getChars();
+        int end = (sizeClass + 1) * arraysPerThread;
+        for (int i = sizeClass * arraysPerThread; i < end; i++) {
+            char[] result = arrays[i];
+            if (result != null) {
+                arrays[i] = null;
+                thread.addRetained(-2L * result.length);
+                retained.addAndGet(-2L * result.length);
+                return result;
+            }
+        }
+        return new char[1 << (sizeClass + MIN_SHIFT)];
+    }
+
+
+    /**
+     * Give back a char array obtained with {@link #getChars(int)}, which must
+     * not be used any more.
+     */
+    public static void release(char[] array) {
+        int sizeClass = classOf(array.length);
+        if (sizeClass < 0) {
+            return;
+        }
+        BufferPoolThreadArrays thread = threadArrays.get();
+        char[][] arrays = thread.getChars();
+        int start = sizeClass * arraysPerThread;
+        int end = start + arraysPerThread;
+        if (log.isDebugEnabled()) {
+            inUse.decrementAndGet();
+            for (int i = start; i < end; i++) {
+                if (arrays[i] == array) {
+                    log.debug(sm.getString("bufferPool.doubleRelease",
+                            Integer.valueOf(array.length)),
+                            new IllegalStateException());
+                    return;
+                }
+            }
+        }
+        for (int i = start; i < end; i++) {
+            if (arrays[i] == null) {
+                if (reserve(thread, 2L * array.length)) {
+                    arrays[i] = array;
+                }
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Memory held by the pooled arrays, in bytes.
+     */
+    public static long getRetained() {
+        return retained.get();
+    }
+
+
+    /**
+     * Number of arrays obtained from the pool and not released yet, only
+     * counted with debug logging enabled.
+     */
+    public static long getInUse() {
+        return inUse.get();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Size class of the smallest pooled arrays of at least the given size,
+     * -1 if arrays of that size are not pooled.
+     */
+    private static int sizeClass(int minSize) {
+        if (minSize > (1 << MAX_SHIFT)) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(minSize - 1);
+        return shift < MIN_SHIFT ? 0 : shift - MIN_SHIFT;
+    }
+
+
+    /**
+     * Size class of an array of the given length, -1 if not a pooled size.
+     */
+    private static int classOf(int length) {
+        if ((length & (length - 1)) != 0 || length < (1 << MIN_SHIFT)
+                || length > (1 << MAX_SHIFT)) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(length) - MIN_SHIFT;
+    }
+
+
+    private static boolean reserve(BufferPoolThreadArrays thread, long size) {
+        if (!tryReserve(size) && (!sweep() || !tryReserve(size))) {
+            return false;
+        }
+        thread.addRetained(size);
+        return true;
+    }
+
+
+    private static boolean tryReserve(long size) {
+        if (retained.addAndGet(size) > maxRetained) {
+            retained.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Stop counting the arrays of the threads which have stopped, at most
+     * once per {@link #SWEEP_INTERVAL}.
+     *
+     * @return <code>true</code> if some memory was given up
+     */
+    private static boolean sweep() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now)) {
+            return false;
+        }
+        long freed = 0;
+        for (BufferPoolThreadArrays thread : threads) {
+            if (thread.isOwnerDead() && threads.remove(thread)) {
+                freed += thread.getRetained();
+            }
+        }
+        if (freed > 0) {
+            retained.addAndGet(-freed);
+            return true;
+        }
+        return false;
+    }
+}
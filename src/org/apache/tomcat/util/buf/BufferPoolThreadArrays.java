@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The arrays pooled by one thread in {@link BufferPool}, with the memory they
+ * hold. Only used by the owning thread while it is alive.
+ */
+public final class BufferPoolThreadArrays {
+
+    private final WeakReference<Thread> owner;
+
+    private final byte[][] bytes;
+
+    private final char[][] chars;
+
+    private volatile long retained = 0;
+
+
+    public BufferPoolThreadArrays(Thread owner, int slots) {
+        this.owner = new WeakReference<Thread>(owner);
+        this.bytes = new byte[slots][];
+        this.chars = new char[slots][];
+    }
+
+
+    public byte[][] getBytes() {
+        return bytes;
+    }
+
+
+    public char[][] getChars() {
+        return chars;
+    }
+
+
+    public long getRetained() {
+        return retained;
+    }
+
+
+    public void addRetained(long size) {
+        retained += size;
+    }
+
+
+    /**
+     * Has the owning thread stopped? Its arrays can't be used any more then.
+     */
+    public boolean isOwnerDead() {
+        Thread thread = owner.get();
+        return thread == null || !thread.isAlive();
+    }
+}
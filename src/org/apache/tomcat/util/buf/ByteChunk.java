@@ -88,6 +88,12 @@ public final class ByteChunk implements Cloneable, Serializable {
 
     private boolean optimizedWrite=true;
 
+    // Grow into arrays from the BufferPool
+    private boolean usePool=false;
+
+    // buff comes from the BufferPool
+    private transient boolean pooledBuffer=false;
+
     /**
      * Creates a new, uninitialized ByteChunk object.
      */
@@ -126,7 +132,14 @@ public final class ByteChunk implements Cloneable, Serializable {
         isSet=false;
     }
 
+    /**
+     * Drops the buffer, giving it back to the pool if it came from there.
+     */
     public void reset() {
+        if (pooledBuffer) {
+            BufferPool.release(buff);
+            pooledBuffer=false;
+        }
         buff=null;
     }
 
@@ -134,6 +147,10 @@ public final class ByteChunk implements Cloneable, Serializable {
 
     public void allocate( int initial, int limit  ) {
         if( buff==null || buff.length < initial ) {
+            if (pooledBuffer) {
+                BufferPool.release(buff);
+                pooledBuffer=false;
+            }
             buff=new byte[initial];
         }
         this.limit=limit;
@@ -151,6 +168,7 @@ public final class ByteChunk implements Cloneable, Serializable {
      */
     public void setBytes(byte[] b, int off, int len) {
         buff = b;
+        pooledBuffer = false;
         start = off;
         end = start+ len;
         isSet=true;
@@ -164,6 +182,15 @@ public final class ByteChunk implements Cloneable, Serializable {
         this.optimizedWrite = optimizedWrite;
     }
 
+    /**
+     * Grow the buffer into arrays from the {@link BufferPool}, which are
+     * given back when the buffer grows again or is reset. Only for chunks
+     * whose buffer is not shared.
+     */
+    public void setUsePool(boolean usePool) {
+        this.usePool = usePool;
+    }
+
     public void setCharset(Charset charset) {
         this.charset = charset;
     }
@@ -304,10 +331,13 @@ public final class ByteChunk implements Cloneable, Serializable {
         }
 
         // Optimize on a common case.
-        // If the buffer is empty and the source is going to fill up all the
-        // space in buffer, may as well write it directly to the output,
-        // and avoid an extra copy
-        if ( optimizedWrite && len == limit && end == start && out != null ) {
+        // If the source is going to fill up all the space in buffer, may as
+        // well flush what is buffered and write the source directly to the
+        // output, and avoid an extra copy
+        if ( optimizedWrite && len >= limit && out != null ) {
+            if( end > start ) {
+                flushBuffer();
+            }
             out.realWriteBytes( src, off, len );
             return;
         }
@@ -486,23 +516,34 @@ public final class ByteChunk implements Cloneable, Serializable {
                 newSize > limit ) {
                 newSize=limit;
             }
-            tmp=new byte[newSize];
+            tmp=newBuffer(newSize);
         } else {
             newSize= buff.length * 2 + count ;
             if( limit > 0 &&
                 newSize > limit ) {
                 newSize=limit;
             }
-            tmp=new byte[newSize];
+            tmp=newBuffer(newSize);
         }
 
         System.arraycopy(buff, start, tmp, 0, end-start);
+        if (pooledBuffer) {
+            BufferPool.release(buff);
+        }
+        pooledBuffer=usePool;
         buff = tmp;
         tmp = null;
         end=end-start;
         start=0;
     }
 
+    private byte[] newBuffer(int size) {
+        if (usePool) {
+            return BufferPool.getBytes(size);
+        }
+        return new byte[size];
+    }
+
     // -------------------- Conversion and getters --------------------
 
     @Override
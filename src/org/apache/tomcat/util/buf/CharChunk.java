@@ -52,6 +52,12 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 
     private boolean optimizedWrite=true;
 
+    // Grow into arrays from the BufferPool
+    private boolean usePool=false;
+
+    // buff comes from the BufferPool
+    private transient boolean pooledBuffer=false;
+
     /**
      * Creates a new, uninitialized CharChunk object.
      */
@@ -94,10 +100,13 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     }
 
     /**
-     * @deprecated Unused. Will be removed in Tomcat 8.0.x onwards.
+     * Drops the buffer, giving it back to the pool if it came from there.
      */
-    @Deprecated
     public void reset() {
+        if (pooledBuffer) {
+            BufferPool.release(buff);
+            pooledBuffer=false;
+        }
         buff=null;
     }
 
@@ -105,6 +114,10 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 
     public void allocate( int initial, int limit  ) {
         if( buff==null || buff.length < initial ) {
+            if (pooledBuffer) {
+                BufferPool.release(buff);
+                pooledBuffer=false;
+            }
             buff=new char[initial];
         }
         this.limit=limit;
@@ -118,8 +131,18 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
         this.optimizedWrite = optimizedWrite;
     }
 
+    /**
+     * Grow the buffer into arrays from the {@link BufferPool}, which are
+     * given back when the buffer grows again or is reset. Only for chunks
+     * whose buffer is not shared.
+     */
+    public void setUsePool(boolean usePool) {
+        this.usePool = usePool;
+    }
+
     public void setChars( char[] c, int off, int len ) {
         buff=c;
+        pooledBuffer=false;
         start=off;
         end=start + len;
         isSet=true;
@@ -479,21 +502,32 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
                 newSize > limit ) {
                 newSize=limit;
             }
-            tmp=new char[newSize];
+            tmp=newBuffer(newSize);
         } else {
             newSize= buff.length * 2 + count ;
             if( limit > 0 &&
                 newSize > limit ) {
                 newSize=limit;
             }
-            tmp=new char[newSize];
+            tmp=newBuffer(newSize);
         }
 
         System.arraycopy(buff, 0, tmp, 0, end);
+        if (pooledBuffer) {
+            BufferPool.release(buff);
+        }
+        pooledBuffer=usePool;
         buff = tmp;
         tmp = null;
     }
 
+    private char[] newBuffer(int size) {
+        if (usePool) {
+            return BufferPool.getChars(size);
+        }
+        return new char[size];
+    }
+
     // -------------------- Conversion and getters --------------------
 
     @Override
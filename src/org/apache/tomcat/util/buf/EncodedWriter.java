@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import java.io.IOException;
+
+/**
+ * A character stream which also accepts text that has already been encoded,
+ * so that static text can be written without converting it on every write.
+ */
+public interface EncodedWriter {
+
+    /**
+     * Write text which has been encoded with the given charset. Nothing is
+     * written if the stream doesn't encode the characters written to it with
+     * that charset.
+     *
+     * @param b       the encoded text
+     * @param off     offset of the encoded text
+     * @param len     length of the encoded text in bytes
+     * @param charset name of the charset the text was encoded with
+     * @return <code>true</code> if the bytes have been written,
+     *         <code>false</code> if the caller must write the characters
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean writeEncoded(byte b[], int off, int len, String charset)
+        throws IOException;
+}
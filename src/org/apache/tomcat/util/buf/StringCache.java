@@ -16,24 +16,26 @@
  */
 package org.apache.tomcat.util.buf;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-import org.apache.juli.logging.Log;
-import org.apache.juli.logging.LogFactory;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class implements a String cache for ByteChunk and CharChunk.
+ * <p>
+ * The cache is a bounded table of entries, looked up with the hash of the
+ * bytes (or chars) of the chunk, without locking and without allocating. A
+ * string which is not cached is added to a free slot. Otherwise its misses
+ * in a row are counted, and it replaces the least used entry of its slots
+ * once it has missed more often than that entry has been hit, so that the
+ * cache keeps following the traffic after warm-up without a string seen a
+ * few times evicting a much used one. The use and miss counts are halved
+ * every <code>trainThreshold</code> lookups, so that strings which are no
+ * longer used can be replaced.
  *
  * @author Remy Maucherat
  */
 public class StringCache {
 
 
-    private static final Log log = LogFactory.getLog( StringCache.class );
-
-
     // ------------------------------------------------------- Static Variables
 
 
@@ -60,42 +62,66 @@ public class StringCache {
             "tomcat.util.buf.StringCache.maxStringSize", "128"));
 
 
-   /**
-     * Statistics hash map for byte chunk.
+    /**
+     * Number of slots an entry may be stored in, starting from the slot of
+     * its hash.
+     */
+    private static final int PROBE = 4;
+
+
+    /**
+     * Cache for byte chunk, created on first use.
+     */
+    private static volatile AtomicReferenceArray<StringCacheByteEntry> bcCache =
+        null;
+
+
+    /**
+     * Hash of the last string which was not cached, per slot of the byte
+     * chunk cache.
+     */
+    private static volatile int[] bcSeen = null;
+
+
+    /**
+     * Misses in a row of the string recorded in bcSeen, per slot.
      */
-    private static HashMap<StringCacheByteEntry,int[]> bcStats =
-        new HashMap<StringCacheByteEntry,int[]>(cacheSize);
+    private static volatile int[] bcMisses = null;
 
 
     /**
-     * toString count for byte chunk.
+     * Lookup count for byte chunk since the use counts were last halved.
      */
     private static int bcCount = 0;
 
 
     /**
-     * Cache for byte chunk.
+     * Cache for char chunk, created on first use.
      */
-    private static StringCacheByteEntry[] bcCache = null;
+    private static volatile AtomicReferenceArray<StringCacheCharEntry> ccCache =
+        null;
 
 
     /**
-     * Statistics hash map for char chunk.
+     * Hash of the last string which was not cached, per slot of the char
+     * chunk cache.
      */
-    private static HashMap<StringCacheCharEntry,int[]> ccStats =
-        new HashMap<StringCacheCharEntry,int[]>(cacheSize);
+    private static volatile int[] ccSeen = null;
 
 
     /**
-     * toString count for char chunk.
+     * Misses in a row of the string recorded in ccSeen, per slot.
      */
-    private static int ccCount = 0;
+    private static volatile int[] ccMisses = null;
 
 
     /**
-     * Cache for char chunk.
+     * Lookup count for char chunk since the use counts were last halved.
      */
-    private static StringCacheCharEntry[] ccCache = null;
+    private static int ccCount = 0;
+
+
+    // Note: We don't care about safety for the stats
 
 
     /**
@@ -110,6 +136,12 @@ public class StringCache {
     private static int hitCount = 0;
 
 
+    /**
+     * Count of entries replaced by more used strings.
+     */
+    private static int evictionCount = 0;
+
+
     // ------------------------------------------------------------ Properties
 
 
@@ -122,7 +154,8 @@ public class StringCache {
 
 
     /**
-     * @param cacheSize The cacheSize to set.
+     * @param cacheSize The cacheSize to set, used when the cache is created
+     *                  again after a {@link #reset()}.
      */
     public void setCacheSize(int cacheSize) {
         StringCache.cacheSize = cacheSize;
@@ -162,7 +195,8 @@ public class StringCache {
 
 
     /**
-     * @return Returns the trainThreshold.
+     * @return Returns the trainThreshold, the number of lookups after which
+     *         the use counts of the cached strings are halved.
      */
     public int getTrainThreshold() {
         return trainThreshold;
@@ -193,252 +227,179 @@ public class StringCache {
     }
 
 
+    /**
+     * @return Returns the number of cached strings which have been replaced
+     *         by more used ones.
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+
+    /**
+     * @return Returns the number of strings currently cached.
+     */
+    public int getSize() {
+        int size = 0;
+        AtomicReferenceArray<StringCacheByteEntry> bcc = bcCache;
+        if (bcc != null) {
+            for (int i = 0; i < bcc.length(); i++) {
+                if (bcc.get(i) != null) {
+                    size++;
+                }
+            }
+        }
+        AtomicReferenceArray<StringCacheCharEntry> ccc = ccCache;
+        if (ccc != null) {
+            for (int i = 0; i < ccc.length(); i++) {
+                if (ccc.get(i) != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+
     // -------------------------------------------------- Public Static Methods
 
 
     public void reset() {
         hitCount = 0;
         accessCount = 0;
-        synchronized (bcStats) {
-            bcCache = null;
-            bcCount = 0;
-        }
-        synchronized (ccStats) {
-            ccCache = null;
-            ccCount = 0;
-        }
+        evictionCount = 0;
+        bcCache = null;
+        bcCount = 0;
+        ccCache = null;
+        ccCount = 0;
     }
 
 
     public static String toString(ByteChunk bc) {
 
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (bcCache == null) {
-            String value = bc.toStringInternal();
-            if (byteEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (bcStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (bcCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (bcCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<StringCacheByteEntry>> tempMap =
-                            new TreeMap<Integer,ArrayList<StringCacheByteEntry>>();
-                        for (Entry<StringCacheByteEntry,int[]> item : bcStats.entrySet()) {
-                        	StringCacheByteEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<StringCacheByteEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<StringCacheByteEntry>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = bcStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        StringCacheByteEntry[] tempbcCache = new StringCacheByteEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        ByteChunk tempChunk = new ByteChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<StringCacheByteEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                            	StringCacheByteEntry entry = list.get(i);
-                                tempChunk.setBytes(entry.getName(), 0,
-                                        entry.getName().length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempbcCache, n);
-                                if (insertPos == n) {
-                                    tempbcCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempbcCache, insertPos + 1,
-                                            tempbcCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempbcCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        bcCount = 0;
-                        bcStats.clear();
-                        bcCache = tempbcCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("ByteCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        bcCount++;
-                        // Allocate new ByteEntry for the lookup
-                        StringCacheByteEntry entry = new StringCacheByteEntry();
-                        entry.setValue(value);
-                        int[] count = bcStats.get(entry);
-                        if (count == null) {
-                            int end = bc.getEnd();
-                            int start = bc.getStart();
-                            // Create byte array and copy bytes
-                            entry.setName(new byte[bc.getLength()]);
-                            System.arraycopy(bc.getBuffer(), start, entry.getName(),
-                                    0, end - start);
-                            // Set encoding
-                            entry.setCharset(bc.getCharset());
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            bcStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
+        if (!byteEnabled || bc.getLength() >= maxStringSize) {
+            return bc.toStringInternal();
+        }
+
+        AtomicReferenceArray<StringCacheByteEntry> cache = bcCache;
+        if (cache == null) {
+            cache = createByteCache();
+        }
+        accessCount++;
+        if (++bcCount > trainThreshold) {
+            bcCount = 0;
+            age(cache, bcMisses);
+        }
+
+        int hash = spread(bc.hash());
+        int mask = cache.length() - 1;
+        StringCacheByteEntry victim = null;
+        int victimPos = -1;
+        for (int n = 0; n < PROBE; n++) {
+            int pos = (hash + n) & mask;
+            StringCacheByteEntry entry = cache.get(pos);
+            if (entry == null) {
+                if (victim != null || victimPos < 0) {
+                    victim = null;
+                    victimPos = pos;
                 }
+                continue;
             }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(bc);
-            if (result == null) {
-                return bc.toStringInternal();
+            if (entry.getHash() == hash
+                    && compare(bc, entry.getName()) == 0
+                    && bc.getCharset().equals(entry.getCharset())) {
+                entry.setHits(entry.getHits() + 1);
+                hitCount++;
+                return entry.getValue();
+            }
+            if (victimPos < 0
+                    || (victim != null && entry.getHits() < victim.getHits())) {
+                victim = entry;
+                victimPos = pos;
             }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
         }
 
+        String value = bc.toStringInternal();
+        if (victim != null
+                && !admit(bcSeen, bcMisses, hash, victim.getHits())) {
+            return value;
+        }
+        StringCacheByteEntry entry = new StringCacheByteEntry();
+        entry.setName(new byte[bc.getLength()]);
+        System.arraycopy(bc.getBuffer(), bc.getStart(), entry.getName(), 0,
+                bc.getLength());
+        entry.setCharset(bc.getCharset());
+        entry.setValue(value);
+        entry.setHash(hash);
+        entry.setHits(1);
+        if (cache.compareAndSet(victimPos, victim, entry) && victim != null) {
+            evictionCount++;
+        }
+        return value;
+
     }
 
 
     public static String toString(CharChunk cc) {
 
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (ccCache == null) {
-            String value = cc.toStringInternal();
-            if (charEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (ccStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (ccCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (ccCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<StringCacheCharEntry>> tempMap =
-                            new TreeMap<Integer,ArrayList<StringCacheCharEntry>>();
-                        for (Entry<StringCacheCharEntry,int[]> item : ccStats.entrySet()) {
-                        	StringCacheCharEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<StringCacheCharEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<StringCacheCharEntry>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = ccStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        StringCacheCharEntry[] tempccCache = new StringCacheCharEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        CharChunk tempChunk = new CharChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<StringCacheCharEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                            	StringCacheCharEntry entry = list.get(i);
-                                tempChunk.setChars(entry.getName(), 0,
-                                        entry.getName().length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempccCache, n);
-                                if (insertPos == n) {
-                                    tempccCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempccCache, insertPos + 1,
-                                            tempccCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempccCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        ccCount = 0;
-                        ccStats.clear();
-                        ccCache = tempccCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("CharCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        ccCount++;
-                        // Allocate new CharEntry for the lookup
-                        StringCacheCharEntry entry = new StringCacheCharEntry();
-                        entry.setValue(value);
-                        int[] count = ccStats.get(entry);
-                        if (count == null) {
-                            int end = cc.getEnd();
-                            int start = cc.getStart();
-                            // Create char array and copy chars
-                            entry.setName(new char[cc.getLength()]);
-                            System.arraycopy(cc.getBuffer(), start, entry.getName(),
-                                    0, end - start);
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            ccStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
+        if (!charEnabled || cc.getLength() >= maxStringSize) {
+            return cc.toStringInternal();
+        }
+
+        AtomicReferenceArray<StringCacheCharEntry> cache = ccCache;
+        if (cache == null) {
+            cache = createCharCache();
+        }
+        accessCount++;
+        if (++ccCount > trainThreshold) {
+            ccCount = 0;
+            age(cache, ccMisses);
+        }
+
+        int hash = spread(cc.hash());
+        int mask = cache.length() - 1;
+        StringCacheCharEntry victim = null;
+        int victimPos = -1;
+        for (int n = 0; n < PROBE; n++) {
+            int pos = (hash + n) & mask;
+            StringCacheCharEntry entry = cache.get(pos);
+            if (entry == null) {
+                if (victim != null || victimPos < 0) {
+                    victim = null;
+                    victimPos = pos;
                 }
+                continue;
             }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(cc);
-            if (result == null) {
-                return cc.toStringInternal();
+            if (entry.getHash() == hash
+                    && compare(cc, entry.getName()) == 0) {
+                entry.setHits(entry.getHits() + 1);
+                hitCount++;
+                return entry.getValue();
+            }
+            if (victimPos < 0
+                    || (victim != null && entry.getHits() < victim.getHits())) {
+                victim = entry;
+                victimPos = pos;
             }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
         }
 
+        String value = cc.toStringInternal();
+        if (victim != null
+                && !admit(ccSeen, ccMisses, hash, victim.getHits())) {
+            return value;
+        }
+        StringCacheCharEntry entry = new StringCacheCharEntry();
+        entry.setName(new char[cc.getLength()]);
+        System.arraycopy(cc.getBuffer(), cc.getStart(), entry.getName(), 0,
+                cc.getLength());
+        entry.setValue(value);
+        entry.setHash(hash);
+        entry.setHits(1);
+        if (cache.compareAndSet(victimPos, victim, entry) && victim != null) {
+            evictionCount++;
+        }
+        return value;
+
     }
 
 
@@ -478,68 +439,6 @@ public class StringCache {
     }
 
 
-    /**
-     * Find an entry given its name in the cache and return the associated
-     * String.
-     */
-    protected static final String find(ByteChunk name) {
-        int pos = findClosest(name, bcCache, bcCache.length);
-        if ((pos < 0) || (compare(name, bcCache[pos].getName()) != 0)
-                || !(name.getCharset().equals(bcCache[pos].getCharset()))) {
-            return null;
-        } else {
-            return bcCache[pos].getValue();
-        }
-    }
-
-
-    /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    protected static final int findClosest(ByteChunk name, StringCacheByteEntry[] array,
-            int len) {
-
-        int a = 0;
-        int b = len - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-
-        if (compare(name, array[0].getName()) < 0) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].getName());
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].getName());
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
-    }
-
-
     /**
      * Compare given char chunk with char array.
      * Return -1, 0 or +1 if inferior, equal, or superior to the String.
@@ -573,63 +472,87 @@ public class StringCache {
     }
 
 
-    /**
-     * Find an entry given its name in the cache and return the associated
-     * String.
-     */
-    protected static final String find(CharChunk name) {
-        int pos = findClosest(name, ccCache, ccCache.length);
-        if ((pos < 0) || (compare(name, ccCache[pos].getName()) != 0)) {
-            return null;
-        } else {
-            return ccCache[pos].getValue();
+    // ------------------------------------------------------- Private Methods
+
+
+    private static synchronized AtomicReferenceArray<StringCacheByteEntry>
+            createByteCache() {
+        if (bcCache == null) {
+            int size = tableSize();
+            bcSeen = new int[size];
+            bcMisses = new int[size];
+            bcCache = new AtomicReferenceArray<StringCacheByteEntry>(size);
+        }
+        return bcCache;
+    }
+
+
+    private static synchronized AtomicReferenceArray<StringCacheCharEntry>
+            createCharCache() {
+        if (ccCache == null) {
+            int size = tableSize();
+            ccSeen = new int[size];
+            ccMisses = new int[size];
+            ccCache = new AtomicReferenceArray<StringCacheCharEntry>(size);
         }
+        return ccCache;
     }
 
 
     /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
+     * The number of slots of a cache: the power of two closest above the
+     * cache size.
      */
-    protected static final int findClosest(CharChunk name, StringCacheCharEntry[] array,
-            int len) {
+    private static int tableSize() {
+        int size = PROBE;
+        while (size < cacheSize) {
+            size <<= 1;
+        }
+        return size;
+    }
 
-        int a = 0;
-        int b = len - 1;
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
 
-        if (compare(name, array[0].getName()) < 0 ) {
-            return -1;
+    /**
+     * Records a string which was not found in the cache, and tells whether
+     * it has missed more often in a row than the entry it would replace has
+     * been hit.
+     */
+    private static boolean admit(int[] seen, int[] misses, int hash,
+            int victimHits) {
+        int pos = hash & (seen.length - 1);
+        if (seen[pos] != hash) {
+            seen[pos] = hash;
+            misses[pos] = 1;
+            return false;
         }
-        if (b == 0) {
-            return 0;
+        if (++misses[pos] > victimHits) {
+            seen[pos] = 0;
+            misses[pos] = 0;
+            return true;
         }
+        return false;
+    }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].getName());
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].getName());
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
+
+    private static void age(AtomicReferenceArray<?> cache, int[] misses) {
+        for (int i = 0; i < misses.length; i++) {
+            misses[i] >>>= 1;
+        }
+        for (int i = 0; i < cache.length(); i++) {
+            Object entry = cache.get(i);
+            if (entry instanceof StringCacheByteEntry) {
+                StringCacheByteEntry bce = (StringCacheByteEntry) entry;
+                bce.setHits(bce.getHits() >>> 1);
+            } else if (entry instanceof StringCacheCharEntry) {
+                StringCacheCharEntry cce = (StringCacheCharEntry) entry;
+                cce.setHits(cce.getHits() >>> 1);
             }
         }
-
     }
 }
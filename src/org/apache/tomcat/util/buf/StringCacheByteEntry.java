@@ -7,6 +7,8 @@ public class StringCacheByteEntry {
 	private byte[] name = null;
 	private Charset charset = null;
 	private String value = null;
+	private int hash = 0;
+	private int hits = 0;
 
 	@Override
 	public String toString() {
@@ -74,4 +76,19 @@ public class StringCacheByteEntry {
 		this.value = value;
 	}
 
-}
\ No newline at end of file
+	public int getHash() {
+		return hash;
+	}
+
+	public void setHash(int hash) {
+		this.hash = hash;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public void setHits(int hits) {
+		this.hits = hits;
+	}
+}
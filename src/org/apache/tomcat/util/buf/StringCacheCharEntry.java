@@ -4,6 +4,8 @@ public class StringCacheCharEntry {
 
 	private char[] name = null;
 	private String value = null;
+	private int hash = 0;
+	private int hits = 0;
 
 	@Override
 	public String toString() {
@@ -55,4 +57,19 @@ public class StringCacheCharEntry {
 		this.name = name;
 	}
 
-}
\ No newline at end of file
+	public int getHash() {
+		return hash;
+	}
+
+	public void setHash(int hash) {
+		this.hash = hash;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public void setHits(int hits) {
+		this.hits = hits;
+	}
+}
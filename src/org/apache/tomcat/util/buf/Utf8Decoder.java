@@ -157,113 +157,120 @@ public class Utf8Decoder extends CharsetDecoder {
         // he would face consequences
         for (; inIndex < inIndexLimit && outRemaining > 0; inIndex++) {
             int jchar = bArr[inIndex];
-            if (jchar < 0) {
-                jchar = jchar & 0x7F;
-                // If first byte is invalid, tail will be set to -1
-                int tail = remainingBytes[jchar];
-                if (tail == -1) {
+            if (jchar >= 0) {
+                // Fast path for a run of ASCII characters
+                int count = copyAscii(bArr, inIndex, cArr, outIndex,
+                        Math.min(inIndexLimit - inIndex, outRemaining));
+                outIndex += count;
+                outRemaining -= count;
+                inIndex += count - 1;
+                continue;
+            }
+            jchar = jchar & 0x7F;
+            // If first byte is invalid, tail will be set to -1
+            int tail = remainingBytes[jchar];
+            if (tail == -1) {
+                in.position(inIndex - in.arrayOffset());
+                out.position(outIndex - out.arrayOffset());
+                return CoderResult.malformedForLength(1);
+            }
+            // Additional checks to detect invalid sequences ASAP
+            // Checks derived from Unicode 6.2, Chapter 3, Table 3-7
+            // Check 2nd byte
+            int tailAvailable = inIndexLimit - inIndex - 1;
+            if (tailAvailable > 0) {
+                // First byte C2..DF, second byte 80..BF
+                if (jchar > 0x41 && jchar < 0x60 &&
+                        (bArr[inIndex + 1] & 0xC0) != 0x80) {
                     in.position(inIndex - in.arrayOffset());
                     out.position(outIndex - out.arrayOffset());
                     return CoderResult.malformedForLength(1);
                 }
-                // Additional checks to detect invalid sequences ASAP
-                // Checks derived from Unicode 6.2, Chapter 3, Table 3-7
-                // Check 2nd byte
-                int tailAvailable = inIndexLimit - inIndex - 1;
-                if (tailAvailable > 0) {
-                    // First byte C2..DF, second byte 80..BF
-                    if (jchar > 0x41 && jchar < 0x60 &&
-                            (bArr[inIndex + 1] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte E0, second byte A0..BF
-                    if (jchar == 0x60 && (bArr[inIndex + 1] & 0xE0) != 0xA0) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte E1..EC, second byte 80..BF
-                    if (jchar > 0x60 && jchar < 0x6D &&
-                            (bArr[inIndex + 1] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte ED, second byte 80..9F
-                    if (jchar == 0x6D && (bArr[inIndex + 1] & 0xE0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte EE..EF, second byte 80..BF
-                    if (jchar > 0x6D && jchar < 0x70 &&
-                            (bArr[inIndex + 1] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte F0, second byte 90..BF
-                    if (jchar == 0x70 &&
-                            ((bArr[inIndex + 1] & 0xFF) < 0x90 ||
-                            (bArr[inIndex + 1] & 0xFF) > 0xBF)) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte F1..F3, second byte 80..BF
-                    if (jchar > 0x70 && jchar < 0x74 &&
-                            (bArr[inIndex + 1] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
-                    // First byte F4, second byte 80..8F
-                    if (jchar == 0x74 &&
-                            (bArr[inIndex + 1] & 0xF0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1);
-                    }
+                // First byte E0, second byte A0..BF
+                if (jchar == 0x60 && (bArr[inIndex + 1] & 0xE0) != 0xA0) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
                 }
-                // Check third byte if present and expected
-                if (tailAvailable > 1 && tail > 1) {
-                    if ((bArr[inIndex + 2] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(2);
-                    }
+                // First byte E1..EC, second byte 80..BF
+                if (jchar > 0x60 && jchar < 0x6D &&
+                        (bArr[inIndex + 1] & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
                 }
-                // Check fourth byte if present and expected
-                if (tailAvailable > 2 && tail > 2) {
-                    if ((bArr[inIndex + 3] & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(3);
-                    }
+                // First byte ED, second byte 80..9F
+                if (jchar == 0x6D && (bArr[inIndex + 1] & 0xE0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
+                }
+                // First byte EE..EF, second byte 80..BF
+                if (jchar > 0x6D && jchar < 0x70 &&
+                        (bArr[inIndex + 1] & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
                 }
-                if (tailAvailable < tail) {
-                    break;
+                // First byte F0, second byte 90..BF
+                if (jchar == 0x70 &&
+                        ((bArr[inIndex + 1] & 0xFF) < 0x90 ||
+                        (bArr[inIndex + 1] & 0xFF) > 0xBF)) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
                 }
-                for (int i = 0; i < tail; i++) {
-                    int nextByte = bArr[inIndex + i + 1] & 0xFF;
-                    if ((nextByte & 0xC0) != 0x80) {
-                        in.position(inIndex - in.arrayOffset());
-                        out.position(outIndex - out.arrayOffset());
-                        return CoderResult.malformedForLength(1 + i);
-                    }
-                    jchar = (jchar << 6) + nextByte;
+                // First byte F1..F3, second byte 80..BF
+                if (jchar > 0x70 && jchar < 0x74 &&
+                        (bArr[inIndex + 1] & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1);
                 }
-                jchar -= remainingNumbers[tail];
-                if (jchar < lowerEncodingLimit[tail]) {
-                    // Should have been encoded in fewer octets
+                // First byte F4, second byte 80..8F
+                if (jchar == 0x74 &&
+                        (bArr[inIndex + 1] & 0xF0) != 0x80) {
                     in.position(inIndex - in.arrayOffset());
                     out.position(outIndex - out.arrayOffset());
                     return CoderResult.malformedForLength(1);
                 }
-                inIndex += tail;
             }
+            // Check third byte if present and expected
+            if (tailAvailable > 1 && tail > 1) {
+                if ((bArr[inIndex + 2] & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(2);
+                }
+            }
+            // Check fourth byte if present and expected
+            if (tailAvailable > 2 && tail > 2) {
+                if ((bArr[inIndex + 3] & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(3);
+                }
+            }
+            if (tailAvailable < tail) {
+                break;
+            }
+            for (int i = 0; i < tail; i++) {
+                int nextByte = bArr[inIndex + i + 1] & 0xFF;
+                if ((nextByte & 0xC0) != 0x80) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    return CoderResult.malformedForLength(1 + i);
+                }
+                jchar = (jchar << 6) + nextByte;
+            }
+            jchar -= remainingNumbers[tail];
+            if (jchar < lowerEncodingLimit[tail]) {
+                // Should have been encoded in fewer octets
+                in.position(inIndex - in.arrayOffset());
+                out.position(outIndex - out.arrayOffset());
+                return CoderResult.malformedForLength(1);
+            }
+            inIndex += tail;
             // Apache Tomcat added test
             if (jchar >= 0xD800 && jchar <= 0xDFFF) {
                 return CoderResult.unmappableForLength(3);
@@ -290,4 +297,40 @@ public class Utf8Decoder extends CharsetDecoder {
                 CoderResult.OVERFLOW :
                 CoderResult.UNDERFLOW;
     }
+
+
+    /**
+     * Copy the ASCII bytes at the start of the given range, eight bytes at a
+     * time as long as none of them has the high bit set.
+     *
+     * @return the number of bytes copied, at least one if the first byte is
+     *         ASCII
+     */
+    private static int copyAscii(byte[] bArr, int inIndex, char[] cArr,
+            int outIndex, int max) {
+        int i = 0;
+        while (i + 8 <= max) {
+            int in = inIndex + i;
+            if ((bArr[in] | bArr[in + 1] | bArr[in + 2] | bArr[in + 3] |
+                    bArr[in + 4] | bArr[in + 5] | bArr[in + 6] |
+                    bArr[in + 7]) < 0) {
+                break;
+            }
+            int out = outIndex + i;
+            cArr[out] = (char) bArr[in];
+            cArr[out + 1] = (char) bArr[in + 1];
+            cArr[out + 2] = (char) bArr[in + 2];
+            cArr[out + 3] = (char) bArr[in + 3];
+            cArr[out + 4] = (char) bArr[in + 4];
+            cArr[out + 5] = (char) bArr[in + 5];
+            cArr[out + 6] = (char) bArr[in + 6];
+            cArr[out + 7] = (char) bArr[in + 7];
+            i += 8;
+        }
+        while (i < max && bArr[inIndex + i] >= 0) {
+            cArr[outIndex + i] = (char) bArr[inIndex + i];
+            i++;
+        }
+        return i;
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.res.StringManager3;
+
+/**
+ * A size bounded cache for concurrent use, without locks. Lookups and
+ * insertions go to a <code>ConcurrentHashMap</code> and every entry counts
+ * how often it has been found. When an insertion makes the cache grow past
+ * its maximum size, the inserting thread removes the least frequently used
+ * tenth of the entries while other threads carry on, and halves the counts of
+ * the remaining ones so entries which were used a lot a long time ago age out
+ * as well. A cache with a maximum size of 0 caches nothing. The hit, miss
+ * and eviction counts are registered with JMX by the component owning the
+ * cache, like the server for the caches of the container.
+ */
+public final class ConcurrentLfuCache<K,V> implements ConcurrentLfuCacheMBean {
+
+    private static final StringManager3 sm = StringManager3
+            .getManager("org.apache.tomcat.util.collections");
+
+    /**
+     * Counts stop at this value, it is high enough to tell hot entries from
+     * cold ones between two evictions.
+     */
+    private static final int MAX_FREQUENCY = 255;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<K,ConcurrentLfuCacheEntry<V>> map;
+
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ConcurrentLfuCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(sm.getString(
+                    "concurrentLfuCache.invalidSize", Integer.valueOf(maxSize)));
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<K,ConcurrentLfuCacheEntry<V>>(
+                Math.min(maxSize, 1024) + 1);
+    }
+
+    public V get(K k) {
+        ConcurrentLfuCacheEntry<V> e = this.map.get(k);
+        if (e == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        int f = e.frequency;
+        if (f < MAX_FREQUENCY) {
+            e.frequency = f + 1;
+        }
+        hitCount.incrementAndGet();
+        return e.value;
+    }
+
+    public void put(K k, V v) {
+        if (maxSize == 0) {
+            return;
+        }
+        this.map.put(k, new ConcurrentLfuCacheEntry<V>(v));
+        if (this.map.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public void remove(K k) {
+        this.map.remove(k);
+    }
+
+    public void clear() {
+        this.map.clear();
+    }
+
+    /**
+     * Removes the least frequently used entries until the cache is 10% below
+     * its maximum size. Only one thread evicts at a time, the others return
+     * at once; the cache may be a little over its bounds meanwhile.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int size = this.map.size();
+            int remove = size - (maxSize - maxSize / 10);
+            if (size <= maxSize || remove <= 0) {
+                return;
+            }
+            // The frequency under which all entries go
+            int[] histogram = new int[MAX_FREQUENCY + 1];
+            for (ConcurrentLfuCacheEntry<V> e : this.map.values()) {
+                histogram[e.frequency]++;
+            }
+            int threshold = 0;
+            int below = 0;
+            while (threshold < MAX_FREQUENCY
+                    && below + histogram[threshold] < remove) {
+                below += histogram[threshold];
+                threshold++;
+            }
+            int atThreshold = remove - below;
+            long evicted = 0;
+            Iterator<ConcurrentLfuCacheEntry<V>> it =
+                this.map.values().iterator();
+            while (it.hasNext()) {
+                ConcurrentLfuCacheEntry<V> e = it.next();
+                int f = e.frequency;
+                if (f < threshold || (f == threshold && atThreshold-- > 0)) {
+                    it.remove();
+                    evicted++;
+                } else {
+                    e.frequency = Math.max(1, f >>> 1);
+                }
+            }
+            evictionCount.addAndGet(evicted);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getSize() {
+        return this.map.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+/**
+ * The statistics of a {@link ConcurrentLfuCache} exposed through JMX.
+ */
+public interface ConcurrentLfuCacheMBean {
+
+    /**
+     * @return the maximum number of entries
+     */
+    public int getMaxSize();
+
+    /**
+     * @return the current number of entries
+     */
+    public int getSize();
+
+    /**
+     * @return the number of lookups which found an entry
+     */
+    public long getHitCount();
+
+    /**
+     * @return the number of lookups which found no entry
+     */
+    public long getMissCount();
+
+    /**
+     * @return the number of entries removed to keep the cache in its bounds
+     */
+    public long getEvictionCount();
+
+    /**
+     * @return the ratio of hits to lookups, 0 if there were no lookups
+     */
+    public double getHitRatio();
+
+    /**
+     * Sets the hit, miss and eviction counts to 0.
+     */
+    public void resetStatistics();
+}
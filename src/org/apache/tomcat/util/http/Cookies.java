@@ -51,6 +51,32 @@ public final class Cookies {
     private int cookieCount=0;
     private boolean unprocessed=true;
 
+    /*
+     * The parsed cookies are kept as positions in the bytes of the Cookie
+     * headers, FIELDS ints per cookie. The ServerCookie of a cookie is only
+     * set from them when the cookie is requested, so that looking for one
+     * cookie doesn't set (and unescape) all the others.
+     */
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int DOMAIN_START = 4;
+    private static final int DOMAIN_END = 5;
+    private static final int PATH_START = 6;
+    private static final int PATH_END = 7;
+    private static final int FLAGS = 8;
+    private static final int FIELDS = 9;
+
+    private static final int VERSION_1 = 1;
+    private static final int QUOTED = 2;
+    private static final int HAS_DOMAIN = 4;
+    private static final int HAS_PATH = 8;
+    private static final int MATERIALIZED = 16;
+
+    private int entries[] = new int[INITIAL_SIZE * FIELDS];
+    private byte sources[][] = new byte[INITIAL_SIZE][];
+
     private MimeHeaders headers;
 
     /**
@@ -68,10 +94,11 @@ public final class Cookies {
      * Recycle.
      */
     public void recycle() {
-            for( int i=0; i< cookieCount; i++ ) {
-            if( scookies[i]!=null ) {
+        for( int i=0; i< cookieCount; i++ ) {
+            if( (entries[i * FIELDS + FLAGS] & MATERIALIZED) != 0 ) {
                 scookies[i].recycle();
             }
+            sources[i] = null;
         }
         cookieCount=0;
         unprocessed=true;
@@ -98,7 +125,41 @@ public final class Cookies {
         if( unprocessed ) {
             getCookieCount(); // will also update the cookies
         }
-        return scookies[idx];
+        int e = idx * FIELDS;
+        int flags = entries[e + FLAGS];
+        ServerCookie sc = scookies[idx];
+        if( (flags & MATERIALIZED) == 0 ) {
+            if( sc==null ) {
+                sc = new ServerCookie();
+                scookies[idx] = sc;
+            }
+            byte bytes[] = sources[idx];
+            sc.setVersion( (flags & VERSION_1) != 0 ? 1 : 0 );
+            sc.getName().setBytes( bytes, entries[e + NAME_START],
+                    entries[e + NAME_END] - entries[e + NAME_START]);
+            int valueStart = entries[e + VALUE_START];
+            if (valueStart != -1) { // Normal AVPair
+                sc.getValue().setBytes( bytes, valueStart,
+                        entries[e + VALUE_END] - valueStart);
+                if ((flags & QUOTED) != 0) {
+                    // We know this is a byte value so this is safe
+                    unescapeDoubleQuotes(sc.getValue().getByteChunk());
+                }
+            } else {
+                // Name Only
+                sc.getValue().setString("");
+            }
+            if ((flags & HAS_DOMAIN) != 0) {
+                sc.getDomain().setBytes( bytes, entries[e + DOMAIN_START],
+                        entries[e + DOMAIN_END] - entries[e + DOMAIN_START]);
+            }
+            if ((flags & HAS_PATH) != 0) {
+                sc.getPath().setBytes( bytes, entries[e + PATH_START],
+                        entries[e + PATH_END] - entries[e + PATH_START]);
+            }
+            entries[e + FLAGS] = flags | MATERIALIZED;
+        }
+        return sc;
     }
 
     public int getCookieCount() {
@@ -109,26 +170,49 @@ public final class Cookies {
         return cookieCount;
     }
 
+    /**
+     * Find the index of a cookie with the given name. Only the name of the
+     * cookies is compared, the other cookies are not set up.
+     *
+     * @param name the cookie name, case sensitive
+     * @param starting the index to start from
+     * @return the index of the cookie, or -1 if there is no such cookie
+     */
+    public int findCookie( String name, int starting ) {
+        int count = getCookieCount();
+        for (int i = starting; i < count; i++) {
+            int e = i * FIELDS;
+            if (equals(name, sources[i], entries[e + NAME_START],
+                    entries[e + NAME_END])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     // -------------------- Adding cookies --------------------
 
-    /** Register a new, initialized cookie. Cookies are recycled, and
-     *  most of the time an existing ServerCookie object is returned.
-     *  The caller can set the name/value and attributes for the cookie
+    /** Register a new cookie, the caller sets its positions.
+     *
+     * @return the offset of the entry of the cookie
      */
-    private ServerCookie addCookie() {
-        if( cookieCount >= scookies.length  ) {
-            ServerCookie scookiesTmp[]=new ServerCookie[2*cookieCount];
+    private int addCookie(byte bytes[]) {
+        if( cookieCount >= sources.length ) {
+            int newSize = 2 * cookieCount;
+            ServerCookie scookiesTmp[]=new ServerCookie[newSize];
             System.arraycopy( scookies, 0, scookiesTmp, 0, cookieCount);
             scookies=scookiesTmp;
+            int entriesTmp[] = new int[newSize * FIELDS];
+            System.arraycopy( entries, 0, entriesTmp, 0, cookieCount * FIELDS);
+            entries = entriesTmp;
+            byte sourcesTmp[][] = new byte[newSize][];
+            System.arraycopy( sources, 0, sourcesTmp, 0, cookieCount);
+            sources = sourcesTmp;
         }
-
-        ServerCookie c = scookies[cookieCount];
-        if( c==null ) {
-            c= new ServerCookie();
-            scookies[cookieCount]=c;
-        }
+        sources[cookieCount] = bytes;
+        int e = cookieCount * FIELDS;
         cookieCount++;
-        return c;
+        return e;
     }
 
 
@@ -261,7 +345,8 @@ public final class Cookies {
         int valueStart=0;
         int valueEnd=0;
         int version = 0;
-        ServerCookie sc=null;
+        // Entry of the current cookie, -1 if none
+        int sc = -1;
         boolean isSpecial;
         boolean isQuoted;
 
@@ -377,8 +462,8 @@ public final class Cookies {
                         pos++;
                         // Make sure no special avpairs can be attributed to
                         // the previous cookie by setting the current cookie
-                        // to null
-                        sc = null;
+                        // to none
+                        sc = -1;
                         continue;
                     }
                 }
@@ -410,9 +495,9 @@ public final class Cookies {
             if (isSpecial) {
                 isSpecial = false;
                 // $Version must be the first avpair in the cookie header
-                // (sc must be null)
+                // (sc must be none)
                 if (equals( "Version", bytes, nameStart, nameEnd) &&
-                    sc == null) {
+                    sc == -1) {
                     // Set version
                     if( bytes[valueStart] =='1' && valueEnd == (valueStart+1)) {
                         version=1;
@@ -423,22 +508,22 @@ public final class Cookies {
                 }
 
                 // We need an active cookie for Path/Port/etc.
-                if (sc == null) {
+                if (sc == -1) {
                     continue;
                 }
 
                 // Domain is more common, so it goes first
                 if (equals( "Domain", bytes, nameStart, nameEnd)) {
-                    sc.getDomain().setBytes( bytes,
-                                           valueStart,
-                                           valueEnd-valueStart);
+                    entries[sc + DOMAIN_START] = valueStart;
+                    entries[sc + DOMAIN_END] = valueEnd;
+                    entries[sc + FLAGS] |= HAS_DOMAIN;
                     continue;
                 }
 
                 if (equals( "Path", bytes, nameStart, nameEnd)) {
-                    sc.getPath().setBytes( bytes,
-                                           valueStart,
-                                           valueEnd-valueStart);
+                    entries[sc + PATH_START] = valueStart;
+                    entries[sc + PATH_END] = valueEnd;
+                    entries[sc + FLAGS] |= HAS_PATH;
                     continue;
                 }
 
@@ -471,22 +556,13 @@ public final class Cookies {
                     continue;
                 }
 
-                sc = addCookie();
-                sc.setVersion( version );
-                sc.getName().setBytes( bytes, nameStart,
-                                       nameEnd-nameStart);
-
-                if (valueStart != -1) { // Normal AVPair
-                    sc.getValue().setBytes( bytes, valueStart,
-                            valueEnd-valueStart);
-                    if (isQuoted) {
-                        // We know this is a byte value so this is safe
-                        unescapeDoubleQuotes(sc.getValue().getByteChunk());
-                    }
-                } else {
-                    // Name Only
-                    sc.getValue().setString("");
-                }
+                sc = addCookie(bytes);
+                entries[sc + NAME_START] = nameStart;
+                entries[sc + NAME_END] = nameEnd;
+                entries[sc + VALUE_START] = valueStart;
+                entries[sc + VALUE_END] = valueEnd;
+                entries[sc + FLAGS] = (version == 1 ? VERSION_1 : 0) |
+                        (isQuoted ? QUOTED : 0);
                 continue;
             }
         }
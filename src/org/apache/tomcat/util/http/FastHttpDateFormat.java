@@ -22,10 +22,16 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class to generate HTTP dates.
+ * <p>
+ * Dates are formatted in the RFC 1123 format, and the RFC 1123, RFC 1036
+ * and asctime formats are parsed, with GMT as the only time zone, without
+ * locking and without intermediate objects. Other inputs (such as dates in
+ * another time zone) are parsed with SimpleDateFormat, as before. The
+ * formatted and parsed dates are kept in fixed size caches where a new entry
+ * replaces the entry in its slot.
  *
  * @author Remy Maucherat
  */
@@ -73,30 +79,41 @@ public final class FastHttpDateFormat {
     }
 
 
+    private static final String[] DAYS =
+        { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+
+
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr",
+        "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+
     /**
-     * Instant on which the currentDate object was generated.
+     * Length of a date in the RFC 1123 format, with a four digit year.
      */
-    private static volatile long currentDateGenerated = 0L;
+    private static final int DATE_LENGTH = 29;
 
 
     /**
-     * Current formatted date.
+     * Current formatted date, with its time in seconds.
      */
-    private static String currentDate = null;
+    private static volatile FastHttpDateFormatEntry currentDate = null;
 
 
     /**
-     * Formatter cache.
+     * Formatter cache, indexed by the time in seconds.
      */
-    private static final ConcurrentHashMap<Long, String> formatCache =
-        new ConcurrentHashMap<Long, String>(CACHE_SIZE);
+    private static final FastHttpDateFormatEntry[] formatCache =
+        new FastHttpDateFormatEntry[tableSize(CACHE_SIZE)];
 
 
     /**
-     * Parser cache.
+     * Parser cache, indexed by the hash code of the parsed String.
      */
-    private static final ConcurrentHashMap<String, Long> parseCache =
-        new ConcurrentHashMap<String, Long>(CACHE_SIZE);
+    private static final FastHttpDateFormatEntry[] parseCache =
+        new FastHttpDateFormatEntry[tableSize(CACHE_SIZE)];
 
 
     // --------------------------------------------------------- Public Methods
@@ -106,18 +123,16 @@ public final class FastHttpDateFormat {
      * Get the current date in HTTP format.
      */
     public static final String getCurrentDate() {
+        return getCurrentDateEntry().getText();
+    }
 
-        long now = System.currentTimeMillis();
-        if ((now - currentDateGenerated) > 1000) {
-            synchronized (format) {
-                if ((now - currentDateGenerated) > 1000) {
-                    currentDate = format.format(new Date(now));
-                    currentDateGenerated = now;
-                }
-            }
-        }
-        return currentDate;
 
+    /**
+     * Get the current date in HTTP format, as ISO-8859-1 bytes. The returned
+     * array is shared and must not be modified.
+     */
+    public static final byte[] getCurrentDateBytes() {
+        return getCurrentDateEntry().getBytes();
     }
 
 
@@ -127,25 +142,27 @@ public final class FastHttpDateFormat {
     public static final String formatDate
         (long value, DateFormat threadLocalformat) {
 
-        Long longValue = new Long(value);
-        String cachedDate = formatCache.get(longValue);
-        if (cachedDate != null) {
-            return cachedDate;
+        if (threadLocalformat != null) {
+            return threadLocalformat.format(new Date(value));
         }
 
-        String newDate = null;
-        Date dateValue = new Date(value);
-        if (threadLocalformat != null) {
-            newDate = threadLocalformat.format(dateValue);
-            updateFormatCache(longValue, newDate);
+        long seconds = floorDiv(value, 1000);
+        int index = (int) (seconds ^ (seconds >>> 32)) & (formatCache.length - 1);
+        FastHttpDateFormatEntry entry = formatCache[index];
+        if (entry != null && entry.getTime() == seconds) {
+            return entry.getText();
+        }
+
+        char[] date = format(seconds);
+        String newDate;
+        if (date != null) {
+            newDate = new String(date);
         } else {
-            synchronized (formatCache) {
-                synchronized (format) {
-                    newDate = format.format(dateValue);
-                }
-                updateFormatCache(longValue, newDate);
+            synchronized (format) {
+                newDate = format.format(new Date(value));
             }
         }
+        formatCache[index] = new FastHttpDateFormatEntry(seconds, newDate, null);
         return newDate;
 
     }
@@ -157,26 +174,49 @@ public final class FastHttpDateFormat {
     public static final long parseDate(String value,
                                        DateFormat[] threadLocalformats) {
 
-        Long cachedDate = parseCache.get(value);
-        if (cachedDate != null) {
-            return cachedDate.longValue();
+        int index = value.hashCode() & (parseCache.length - 1);
+        FastHttpDateFormatEntry entry = parseCache[index];
+        if (entry != null && entry.getText().equals(value)) {
+            return entry.getTime();
         }
 
-        Long date = null;
-        if (threadLocalformats != null) {
-            date = internalParseDate(value, threadLocalformats);
-            updateParseCache(value, date);
-        } else {
-            synchronized (parseCache) {
-                date = internalParseDate(value, formats);
-                updateParseCache(value, date);
+        long date = parse(value);
+        if (date == -1) {
+            Long parsed;
+            if (threadLocalformats != null) {
+                parsed = internalParseDate(value, threadLocalformats);
+            } else {
+                synchronized (formats) {
+                    parsed = internalParseDate(value, formats);
+                }
             }
+            if (parsed == null) {
+                return (-1L);
+            }
+            date = parsed.longValue();
         }
-        if (date == null) {
-            return (-1L);
-        }
+        parseCache[index] = new FastHttpDateFormatEntry(date, value, null);
+        return date;
+    }
 
-        return date.longValue();
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static FastHttpDateFormatEntry getCurrentDateEntry() {
+        long seconds = floorDiv(System.currentTimeMillis(), 1000);
+        FastHttpDateFormatEntry current = currentDate;
+        if (current == null || current.getTime() != seconds) {
+            char[] date = format(seconds);
+            byte[] bytes = new byte[date.length];
+            for (int i = 0; i < date.length; i++) {
+                bytes[i] = (byte) date[i];
+            }
+            current = new FastHttpDateFormatEntry(seconds, new String(date),
+                    bytes);
+            currentDate = current;
+        }
+        return current;
     }
 
 
@@ -196,35 +236,306 @@ public final class FastHttpDateFormat {
         if (date == null) {
             return null;
         }
-        return new Long(date.getTime());
+        return Long.valueOf(date.getTime());
+    }
+
+
+    /**
+     * Formats a time in seconds as "Sun, 06 Nov 1994 08:49:37 GMT".
+     *
+     * @return the formatted date, or null if the year does not have four
+     *         digits
+     */
+    private static char[] format(long seconds) {
+        long days = floorDiv(seconds, 24 * 60 * 60);
+        int secondOfDay = (int) (seconds - days * 24 * 60 * 60);
+        long civil = civil(days);
+        long year = civil / 10000;
+        int month = (int) (civil / 100 % 100);
+        int day = (int) (civil % 100);
+        if (year < 1000 || year > 9999) {
+            return null;
+        }
+
+        char[] date = new char[DATE_LENGTH];
+        // 1970-01-01 was a Thursday
+        String dayName = DAYS[(int) ((days % 7 + 11) % 7)];
+        date[0] = dayName.charAt(0);
+        date[1] = dayName.charAt(1);
+        date[2] = dayName.charAt(2);
+        date[3] = ',';
+        date[4] = ' ';
+        twoDigits(date, 5, day);
+        date[7] = ' ';
+        String monthName = MONTHS[month - 1];
+        date[8] = monthName.charAt(0);
+        date[9] = monthName.charAt(1);
+        date[10] = monthName.charAt(2);
+        date[11] = ' ';
+        twoDigits(date, 12, (int) (year / 100));
+        twoDigits(date, 14, (int) (year % 100));
+        date[16] = ' ';
+        twoDigits(date, 17, secondOfDay / 3600);
+        date[19] = ':';
+        twoDigits(date, 20, (secondOfDay / 60) % 60);
+        date[22] = ':';
+        twoDigits(date, 23, secondOfDay % 60);
+        date[25] = ' ';
+        date[26] = 'G';
+        date[27] = 'M';
+        date[28] = 'T';
+        return date;
+    }
+
+
+    /**
+     * The civil date of a day since the epoch, as year * 10000 + month * 100
+     * + day.
+     */
+    private static long civil(long days) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+
+    private static void twoDigits(char[] date, int pos, int value) {
+        date[pos] = (char) ('0' + value / 10);
+        date[pos + 1] = (char) ('0' + value % 10);
+    }
+
+
+    /**
+     * Parses a date in one of the formats allowed by RFC 2616:
+     * <pre>
+     * Sun, 06 Nov 1994 08:49:37 GMT  ; RFC 1123
+     * Sunday, 06-Nov-94 08:49:37 GMT ; RFC 1036
+     * Sun Nov  6 08:49:37 1994       ; asctime
+     * </pre>
+     *
+     * @return the time in milliseconds, or -1 if the value is not in one of
+     *         these formats
+     */
+    private static long parse(String value) {
+        int len = value.length();
+        // Skip the day name
+        int pos = 0;
+        while (pos < len && isLetter(value.charAt(pos))) {
+            pos++;
+        }
+        if (pos < 3 || pos >= len) {
+            return -1;
+        }
+        int day;
+        int month;
+        int year;
+        if (value.charAt(pos) == ',') {
+            // RFC 1123 or RFC 1036
+            if (pos + 2 >= len || value.charAt(pos + 1) != ' ') {
+                return -1;
+            }
+            pos += 2;
+            day = digits(value, pos, 2);
+            pos += 2;
+            if (pos >= len) {
+                return -1;
+            }
+            char sep = value.charAt(pos);
+            if (sep != ' ' && sep != '-') {
+                return -1;
+            }
+            month = month(value, pos + 1);
+            pos += 4;
+            if (pos >= len || value.charAt(pos) != sep) {
+                return -1;
+            }
+            pos++;
+            boolean twoDigitYear = (sep == '-');
+            if (twoDigitYear) {
+                year = digits(value, pos, 2);
+                pos += 2;
+            } else {
+                year = digits(value, pos, 4);
+                pos += 4;
+            }
+            if (pos >= len || value.charAt(pos) != ' ') {
+                return -1;
+            }
+            pos++;
+            long time = time(value, pos);
+            pos += 8;
+            if (time < 0 || len != pos + 4 || value.charAt(pos) != ' '
+                    || !value.regionMatches(pos + 1, "GMT", 0, 3)) {
+                return -1;
+            }
+            if (twoDigitYear && year >= 0) {
+                return toMillisTwoDigitYear(year, month, day, time);
+            }
+            return toMillis(year, month, day, time);
+        } else if (value.charAt(pos) == ' ') {
+            // asctime
+            pos++;
+            month = month(value, pos);
+            pos += 3;
+            if (pos + 2 >= len || value.charAt(pos) != ' ') {
+                return -1;
+            }
+            pos++;
+            if (value.charAt(pos) == ' ') {
+                day = digits(value, pos + 1, 1);
+            } else {
+                day = digits(value, pos, 2);
+            }
+            pos += 2;
+            if (pos >= len || value.charAt(pos) != ' ') {
+                return -1;
+            }
+            pos++;
+            long time = time(value, pos);
+            pos += 8;
+            if (time < 0 || len != pos + 5 || value.charAt(pos) != ' ') {
+                return -1;
+            }
+            year = digits(value, pos + 1, 4);
+            return toMillis(year, month, day, time);
+        }
+        return -1;
+    }
+
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
 
     /**
-     * Update cache.
+     * Parses a number of the given count of digits, -1 if there is none.
      */
-    private static void updateFormatCache(Long key, String value) {
-        if (value == null) {
-            return;
+    private static int digits(String value, int pos, int count) {
+        if (pos + count > value.length()) {
+            return -1;
         }
-        if (formatCache.size() > CACHE_SIZE) {
-            formatCache.clear();
+        int result = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
         }
-        formatCache.put(key, value);
+        return result;
     }
 
 
     /**
-     * Update cache.
+     * Parses a three letter month name, returns its number (1 to 12), or -1.
      */
-    private static void updateParseCache(String key, Long value) {
-        if (value == null) {
-            return;
+    private static int month(String value, int pos) {
+        if (pos + 3 > value.length()) {
+            return -1;
         }
-        if (parseCache.size() > CACHE_SIZE) {
-            parseCache.clear();
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (value.regionMatches(pos, MONTHS[i], 0, 3)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Parses "HH:mm:ss", returns the milliseconds in the day, or -1.
+     */
+    private static long time(String value, int pos) {
+        if (pos + 8 > value.length() || value.charAt(pos + 2) != ':'
+                || value.charAt(pos + 5) != ':') {
+            return -1;
+        }
+        int hours = digits(value, pos, 2);
+        int minutes = digits(value, pos + 3, 2);
+        int seconds = digits(value, pos + 6, 2);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+                || seconds < 0 || seconds > 59) {
+            return -1;
+        }
+        return ((hours * 60L + minutes) * 60 + seconds) * 1000;
+    }
+
+
+    /**
+     * Same as toMillis() for a two digit year, which is taken in the 100
+     * years which start 80 years before now, as done by SimpleDateFormat.
+     */
+    private static long toMillisTwoDigitYear(int year, int month, int day,
+            long time) {
+        long now = System.currentTimeMillis();
+        long days = floorDiv(now, MILLIS_PER_DAY);
+        long civil = civil(days);
+        int startYear = (int) (civil / 10000) - 80;
+        int startMonth = (int) (civil / 100 % 100);
+        int startDay = (int) Math.min(civil % 100,
+                daysInMonth(startYear, startMonth));
+        long start = toMillis(startYear, startMonth, startDay,
+                now - days * MILLIS_PER_DAY);
+        int fullYear = (startYear / 100) * 100 + year
+                + (year < startYear % 100 ? 100 : 0);
+        long result = toMillis(fullYear, month, day, time);
+        if (result != -1 && year == startYear % 100 && result < start) {
+            result = toMillis(fullYear + 100, month, day, time);
+        }
+        return result;
+    }
+
+
+    private static long toMillis(int year, int month, int day, long time) {
+        if (year < 0 || month < 0 || day < 1
+                || day > daysInMonth(year, month)) {
+            return -1;
+        }
+        // Days since the epoch from the civil date
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = (int) (y - era * 400);
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097 + doe - 719468;
+        return days * MILLIS_PER_DAY + time;
+    }
+
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0)
+                    && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30
+                : 31;
+    }
+
+
+    private static long floorDiv(long value, long divisor) {
+        long result = value / divisor;
+        if ((value % divisor) < 0) {
+            result--;
+        }
+        return result;
+    }
+
+
+    private static int tableSize(int size) {
+        int result = 1;
+        while (result < size) {
+            result <<= 1;
         }
-        parseCache.put(key, value);
+        return result;
     }
 
 
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+/**
+ * A formatted or parsed HTTP date, as cached by {@link FastHttpDateFormat}.
+ * Instances are immutable, so that they can be shared without locking.
+ */
+public final class FastHttpDateFormatEntry {
+
+    private final long time;
+
+    private final String text;
+
+    private final byte[] bytes;
+
+    public FastHttpDateFormatEntry(long time, String text, byte[] bytes) {
+        this.time = time;
+        this.text = text;
+        this.bytes = bytes;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -18,8 +18,12 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
+import org.apache.tomcat.util.buf.Ascii;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager3;
 
@@ -57,9 +61,10 @@ import org.apache.tomcat.util.res.StringManager3;
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
+   Requests with many headers get an index of the header names, built the
+   first time a header is requested by name.
+
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
 
@@ -115,6 +120,36 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * Number of header fields from which lookups by name use the index.
+     */
+    private static final int INDEX_THRESHOLD = 8;
+
+    /**
+     * Open addressing (linear probing) table of header positions + 1, 0 for
+     * an empty slot, built on the first lookup by name once there are
+     * {@link #INDEX_THRESHOLD} header fields and kept up to date until the
+     * headers are recycled. Header names must not be changed once the field
+     * has been added.
+     */
+    private int[] index;
+
+    /**
+     * Case insensitive hashes of the header names, by header position.
+     */
+    private int[] hashes;
+
+    /**
+     * Is the index built and up to date ?
+     */
+    private boolean indexed;
+
+    /**
+     * A header name isn't ASCII, the index can't be used until the headers
+     * are recycled.
+     */
+    private boolean unindexable;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -151,6 +186,11 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        if (indexed) {
+            Arrays.fill(index, 0);
+            indexed = false;
+        }
+        unindexable = false;
     }
 
     /**
@@ -202,13 +242,35 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
+        // Few headers: a linear search is cheaper than hashing the name.
+        // Once the index is built, it is cheaper whatever the number.
+        if (!indexed && (count < INDEX_THRESHOLD || unindexable)) {
+            return scanHeader(name, starting);
+        }
+        if (!indexed) {
+            buildIndex();
+            if (!indexed) {
+                return scanHeader(name, starting);
+            }
+        }
+        int h = hash(name);
+        if (h < 0) {
+            return scanHeader(name, starting);
+        }
+        int mask = index.length - 1;
+        int result = -1;
+        int p;
+        for (int i = h & mask; (p = index[i]) != 0; i = (i + 1) & mask) {
+            p--;
+            if (hashes[p] == h && p >= starting && (result < 0 || p < result)
+                    && headers[p].getName().equalsIgnoreCase(name)) {
+                result = p;
+            }
+        }
+        return result;
+    }
 
-        // A custom search tree may be better
+    private int scanHeader(String name, int starting) {
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -217,6 +279,163 @@ public class MimeHeaders {
         return -1;
     }
 
+    // -------------------- Index --------------------
+
+    /**
+     * Build the index of the current header fields.
+     */
+    private void buildIndex() {
+        if (hashes == null || hashes.length < headers.length) {
+            hashes = new int[headers.length];
+        }
+        for (int i = 0; i < count; i++) {
+            int h = hash(headers[i].getName());
+            if (h < 0) {
+                unindexable = true;
+                return;
+            }
+            hashes[i] = h;
+        }
+        int size = Integer.highestOneBit(Math.max(count, INDEX_THRESHOLD) * 4);
+        if (index == null || index.length < size) {
+            index = new int[size];
+        } else {
+            Arrays.fill(index, 0);
+        }
+        for (int i = 0; i < count; i++) {
+            insert(i);
+        }
+        indexed = true;
+    }
+
+    /**
+     * Add the last header field to the index, if there is one.
+     */
+    private void indexLast() {
+        if (!indexed) {
+            return;
+        }
+        int pos = count - 1;
+        int h = hash(headers[pos].getName());
+        if (h < 0) {
+            Arrays.fill(index, 0);
+            indexed = false;
+            unindexable = true;
+            return;
+        }
+        if (count * 2 > index.length) {
+            // Keep the table at most half full
+            buildIndex();
+            return;
+        }
+        if (pos >= hashes.length) {
+            int[] tmp = new int[headers.length];
+            System.arraycopy(hashes, 0, tmp, 0, hashes.length);
+            hashes = tmp;
+        }
+        hashes[pos] = h;
+        insert(pos);
+    }
+
+    private void insert(int pos) {
+        int mask = index.length - 1;
+        int i = hashes[pos] & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = pos + 1;
+    }
+
+    /**
+     * Find the slot of the given header position.
+     */
+    private int slotOf(int pos) {
+        int mask = index.length - 1;
+        int i = hashes[pos] & mask;
+        while (index[i] != pos + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Remove the header field at the given position from the index, before
+     * the last header field is moved to that position.
+     */
+    private void unindex(int pos) {
+        int mask = index.length - 1;
+        // Remove the slot and shift back the following slots of the cluster
+        // which can't be found any more
+        int i = slotOf(pos);
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (index[j] == 0) {
+                break;
+            }
+            int k = hashes[index[j] - 1] & mask;
+            if ((j > i && (k <= i || k > j)) || (j < i && k <= i && k > j)) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+        int last = count - 1;
+        if (last != pos) {
+            index[slotOf(last)] = pos + 1;
+            hashes[pos] = hashes[last];
+        }
+    }
+
+    /**
+     * Case insensitive hash of an ASCII header name.
+     *
+     * @return the hash, or -1 if the name isn't ASCII
+     */
+    private static int hash(String name) {
+        int h = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c > 127) {
+                return -1;
+            }
+            h = 31 * h + Ascii.toLower(c);
+        }
+        return h & 0x7fffffff;
+    }
+
+    private static int hash(MessageBytes name) {
+        int type = name.getType();
+        if (type == MessageBytes.gettStr()) {
+            String s = name.toString();
+            return s == null ? 0 : hash(s);
+        }
+        int h = 0;
+        if (type == MessageBytes.gettBytes()) {
+            ByteChunk bc = name.getByteChunk();
+            byte[] b = bc.getBytes();
+            int end = bc.getEnd();
+            for (int i = bc.getStart(); i < end; i++) {
+                if (b[i] < 0) {
+                    return -1;
+                }
+                h = 31 * h + Ascii.toLower(b[i]);
+            }
+        } else if (type == MessageBytes.gettChars()) {
+            CharChunk cc = name.getCharChunk();
+            char[] c = cc.getBuffer();
+            int end = cc.getEnd();
+            for (int i = cc.getStart(); i < end; i++) {
+                if (c[i] > 127) {
+                    return -1;
+                }
+                h = 31 * h + Ascii.toLower(c[i]);
+            }
+        }
+        return h & 0x7fffffff;
+    }
+
     // -------------------- --------------------
 
     /**
@@ -269,6 +488,7 @@ public class MimeHeaders {
     public MessageBytes addValue( String name ) {
          MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        indexLast();
         return mh.getValue();
     }
 
@@ -280,6 +500,7 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setBytes(b, startN, len);
+        indexLast();
         return mhf.getValue();
     }
 
@@ -289,6 +510,7 @@ public class MimeHeaders {
     {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setChars(c, startN, len);
+        indexLast();
         return mhf.getValue();
     }
 
@@ -298,18 +520,17 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
-        for ( int i = 0; i < count; i++ ) {
-            if(headers[i].getName().equalsIgnoreCase(name)) {
-                for ( int j=i+1; j < count; j++ ) {
-                    if(headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        int i = findHeader(name, 0);
+        if (i >= 0) {
+            int j;
+            while ((j = findHeader(name, i + 1)) >= 0) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        indexLast();
         return mh.getValue();
     }
 
@@ -320,12 +541,8 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -334,17 +551,14 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown.
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findHeader(name, 0);
+        if (i < 0) {
+            return null;
         }
-        return result;
+        if (findHeader(name, i + 1) >= 0) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -364,10 +578,9 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                removeHeader(i--);
-            }
+        int i = 0;
+        while ((i = findHeader(name, i)) >= 0) {
+            removeHeader(i);
         }
     }
 
@@ -378,6 +591,9 @@ public class MimeHeaders {
     private void removeHeader(int idx) {
         MimeHeaderField mh = headers[idx];
 
+        if (indexed) {
+            unindex(idx);
+        }
         mh.recycle();
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
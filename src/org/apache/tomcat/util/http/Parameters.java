@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
@@ -38,6 +39,18 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 /**
+ * The request parameters, from the query string and the form body.
+ * <p>
+ * The parameters found while parsing are only recorded as ranges of the
+ * bytes of the query string or of the body, in the order they were found.
+ * A name is only URL-decoded and converted to a String when it can't be
+ * compared with the bytes directly, and a value when the parameter is
+ * requested. The map of all the parameters is only built when all the names
+ * are needed.
+ * <p>
+ * Once parsed, the parameters may be read by several threads, the source
+ * bytes are never modified and a decoded name or value is cached as an
+ * immutable String.
  *
  * @author Costin Manolache
  */
@@ -55,6 +68,46 @@ public final class Parameters {
 
 	private final Map<String, ArrayList<String>> paramHashValues = new LinkedHashMap<String, ArrayList<String>>();
 
+	/**
+	 * <code>true</code> if paramHashValues holds all the parameters.
+	 */
+	private volatile boolean mapped = false;
+
+	// Fields of a parameter in entries, the source is -1 for parameters
+	// added as Strings
+	private static final int SOURCE = 0;
+	private static final int NAME_START = 1;
+	private static final int NAME_END = 2;
+	private static final int VALUE_START = 3;
+	private static final int VALUE_END = 4;
+	private static final int FLAGS = 5;
+	private static final int FIELDS = 6;
+
+	private static final int DECODE_NAME = 1;
+	private static final int DECODE_VALUE = 2;
+	private static final int NO_VALUE = 4;
+
+	/**
+	 * The parameters in the order they were added, {@link #FIELDS} ints
+	 * each.
+	 */
+	private int[] entries = new int[16 * FIELDS];
+
+	/**
+	 * Decoded names and values of the parameters, filled on access.
+	 */
+	private String[] names = new String[16];
+	private String[] values = new String[16];
+
+	private int entryCount = 0;
+
+	/**
+	 * The byte arrays the parameters were parsed from, with their charset.
+	 */
+	private byte[][] sources = new byte[2][];
+	private Charset[] sourceCharsets = new Charset[2];
+	private int sourceCount = 0;
+
 	private boolean didQueryParameters = false;
 
 	private MessageBytes queryMB;
@@ -115,6 +168,17 @@ public final class Parameters {
 	public void recycle() {
 		parameterCount = 0;
 		paramHashValues.clear();
+		mapped = false;
+		for (int i = 0; i < entryCount; i++) {
+			names[i] = null;
+			values[i] = null;
+		}
+		entryCount = 0;
+		for (int i = 0; i < sourceCount; i++) {
+			sources[i] = null;
+			sourceCharsets[i] = null;
+		}
+		sourceCount = 0;
 		didQueryParameters = false;
 		encoding = null;
 		decodedQuery.recycle();
@@ -130,44 +194,234 @@ public final class Parameters {
 		if (key == null) {
 			return;
 		}
-		ArrayList<String> values = paramHashValues.get(key);
-		if (values == null) {
-			values = new ArrayList<String>(newValues.length);
-			paramHashValues.put(key, values);
-		} else {
-			values.ensureCapacity(values.size() + newValues.length);
+		if (newValues.length == 0) {
+			addEntry(-1, 0, 0, -1, -1, NO_VALUE);
+			names[entryCount - 1] = key;
 		}
 		for (String newValue : newValues) {
-			values.add(newValue);
+			addEntry(-1, 0, 0, -1, -1, 0);
+			names[entryCount - 1] = key;
+			values[entryCount - 1] = newValue;
 		}
 	}
 
 	public String[] getParameterValues(String name) {
 		handleQueryParameters();
 		// no "facade"
-		ArrayList<String> values = paramHashValues.get(name);
-		if (values == null) {
+		if (mapped) {
+			ArrayList<String> values = paramHashValues.get(name);
+			if (values == null) {
+				return null;
+			}
+			return values.toArray(new String[values.size()]);
+		}
+		int first = indexOf(name, 0);
+		if (first < 0) {
 			return null;
 		}
-		return values.toArray(new String[values.size()]);
+		int n = 0;
+		for (int i = first; i >= 0; i = indexOf(name, i + 1)) {
+			if ((entries[i * FIELDS + FLAGS] & NO_VALUE) == 0) {
+				n++;
+			}
+		}
+		String[] result = new String[n];
+		n = 0;
+		for (int i = first; i >= 0; i = indexOf(name, i + 1)) {
+			if ((entries[i * FIELDS + FLAGS] & NO_VALUE) == 0) {
+				result[n++] = getValue(i);
+			}
+		}
+		return result;
 	}
 
 	public Enumeration<String> getParameterNames() {
 		handleQueryParameters();
-		return Collections.enumeration(paramHashValues.keySet());
+		return Collections.enumeration(getParamHashValues().keySet());
 	}
 
 	public String getParameter(String name) {
 		handleQueryParameters();
-		ArrayList<String> values = paramHashValues.get(name);
-		if (values != null) {
-			if (values.size() == 0) {
-				return "";
+		if (mapped) {
+			ArrayList<String> values = paramHashValues.get(name);
+			if (values != null) {
+				if (values.size() == 0) {
+					return "";
+				}
+				return values.get(0);
+			} else {
+				return null;
 			}
-			return values.get(0);
-		} else {
+		}
+		int first = indexOf(name, 0);
+		if (first < 0) {
 			return null;
 		}
+		for (int i = first; i >= 0; i = indexOf(name, i + 1)) {
+			if ((entries[i * FIELDS + FLAGS] & NO_VALUE) == 0) {
+				return getValue(i);
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Returns the index of the first parameter with the given name, starting
+	 * at the given index, or -1.
+	 */
+	private int indexOf(String name, int from) {
+		if (name == null) {
+			return -1;
+		}
+		for (int i = from; i < entryCount; i++) {
+			if (nameEquals(i, name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the name of a parameter with the given name, without decoding
+	 * the name when it is made of ASCII characters which need no URL
+	 * decoding.
+	 */
+	private boolean nameEquals(int i, String name) {
+		if (names[i] != null) {
+			return names[i].equals(name);
+		}
+		int e = i * FIELDS;
+		int source = entries[e + SOURCE];
+		if ((entries[e + FLAGS] & DECODE_NAME) != 0
+				|| !isAsciiCompatible(sourceCharsets[source])) {
+			return getName(i).equals(name);
+		}
+		byte[] bytes = sources[source];
+		int start = entries[e + NAME_START];
+		int len = entries[e + NAME_END] - start;
+		int n = Math.min(len, name.length());
+		for (int j = 0; j < n; j++) {
+			byte b = bytes[start + j];
+			if (b < 0) {
+				// Not ASCII
+				return getName(i).equals(name);
+			}
+			if (b != name.charAt(j)) {
+				return false;
+			}
+		}
+		if (len > n) {
+			// More bytes, possibly more characters
+			return getName(i).equals(name);
+		}
+		return len == name.length();
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		String name = charset.name();
+		return "ISO-8859-1".equals(name) || "UTF-8".equals(name)
+				|| "US-ASCII".equals(name);
+	}
+
+	private String getName(int i) {
+		if (names[i] == null) {
+			int e = i * FIELDS;
+			names[i] = decode(entries[e + SOURCE], entries[e + NAME_START],
+					entries[e + NAME_END],
+					(entries[e + FLAGS] & DECODE_NAME) != 0);
+		}
+		return names[i];
+	}
+
+	private String getValue(int i) {
+		if (values[i] == null) {
+			int e = i * FIELDS;
+			if (entries[e + VALUE_START] < 0) {
+				values[i] = "";
+			} else {
+				values[i] = decode(entries[e + SOURCE],
+						entries[e + VALUE_START], entries[e + VALUE_END],
+						(entries[e + FLAGS] & DECODE_VALUE) != 0);
+			}
+		}
+		return values[i];
+	}
+
+	/**
+	 * URL-decodes and converts a range of the bytes of a source, which has
+	 * been checked by {@link #isDecodable(byte[], int, int)}. The bytes to
+	 * URL-decode are copied first, the source is left unchanged.
+	 */
+	private String decode(int source, int start, int end, boolean urlDecode) {
+		ByteChunk bc = new ByteChunk();
+		if (urlDecode) {
+			bc.setBytes(Arrays.copyOfRange(sources[source], start, end), 0,
+					end - start);
+		} else {
+			bc.setBytes(sources[source], start, end - start);
+		}
+		bc.setCharset(sourceCharsets[source]);
+		try {
+			if (urlDecode) {
+				urlDecode(bc);
+			}
+		} catch (IOException e) {
+			// Can't happen, the encoding has been checked while parsing
+		}
+		return bc.toString();
+	}
+
+	/**
+	 * Builds the map of all the parameters, once all the names are needed.
+	 */
+	private synchronized void map() {
+		if (mapped) {
+			return;
+		}
+		for (int i = 0; i < entryCount; i++) {
+			String name = getName(i);
+			ArrayList<String> values = paramHashValues.get(name);
+			if (values == null) {
+				values = new ArrayList<String>(1);
+				paramHashValues.put(name, values);
+			}
+			if ((entries[i * FIELDS + FLAGS] & NO_VALUE) == 0) {
+				values.add(getValue(i));
+			}
+		}
+		mapped = true;
+	}
+
+	private void addEntry(int source, int nameStart, int nameEnd,
+			int valueStart, int valueEnd, int flags) {
+		if (mapped) {
+			paramHashValues.clear();
+			mapped = false;
+		}
+		if (entryCount == names.length) {
+			int size = entryCount * 2;
+			entries = Arrays.copyOf(entries, size * FIELDS);
+			names = Arrays.copyOf(names, size);
+			values = Arrays.copyOf(values, size);
+		}
+		int e = entryCount * FIELDS;
+		entries[e + SOURCE] = source;
+		entries[e + NAME_START] = nameStart;
+		entries[e + NAME_END] = nameEnd;
+		entries[e + VALUE_START] = valueStart;
+		entries[e + VALUE_END] = valueEnd;
+		entries[e + FLAGS] = flags;
+		entryCount++;
+	}
+
+	private int addSource(byte[] bytes, Charset charset) {
+		if (sourceCount == sources.length) {
+			sources = Arrays.copyOf(sources, sourceCount * 2);
+			sourceCharsets = Arrays.copyOf(sourceCharsets, sourceCount * 2);
+		}
+		sources[sourceCount] = bytes;
+		sourceCharsets[sourceCount] = charset;
+		return sourceCount++;
 	}
 
 	// -------------------- Processing --------------------
@@ -206,6 +460,13 @@ public final class Parameters {
 			return;
 		}
 
+		countParameter();
+		addEntry(-1, 0, 0, -1, -1, 0);
+		names[entryCount - 1] = key;
+		values[entryCount - 1] = value;
+	}
+
+	private void countParameter() throws IllegalStateException {
 		parameterCount++;
 		if (limit > -1 && parameterCount > limit) {
 			// Processing this parameter will push us over the limit. ISE is
@@ -214,13 +475,6 @@ public final class Parameters {
 			throw new IllegalStateException(sm.getString(
 					"parameters.maxCountFail", Integer.valueOf(limit)));
 		}
-
-		ArrayList<String> values = paramHashValues.get(key);
-		if (values == null) {
-			values = new ArrayList<String>(1);
-			paramHashValues.put(key, values);
-		}
-		values.add(value);
 	}
 
 	public void setURLDecoder(UDecoder u) {
@@ -230,10 +484,6 @@ public final class Parameters {
 	// -------------------- Parameter parsing --------------------
 	// we are called from a single thread - we can do it the hard way
 	// if needed
-	private ByteChunk tmpName = new ByteChunk();
-	private ByteChunk tmpValue = new ByteChunk();
-	private final ByteChunk origName = new ByteChunk();
-	private final ByteChunk origValue = new ByteChunk();
 	private CharChunk tmpNameC = new CharChunk(1024);
 	private static final String DEFAULT_ENCODING = "ISO-8859-1";
 	private static final Charset DEFAULT_CHARSET = Charset
@@ -252,6 +502,7 @@ public final class Parameters {
 		}
 
 		int decodeFailCount = 0;
+		int source = -1;
 
 		int pos = start;
 		int end = start + len;
@@ -360,87 +611,24 @@ public final class Parameters {
 				// invalid chunk - it's better to ignore
 			}
 
-			tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
-			if (valueStart >= 0) {
-				tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
-			} else {
-				tmpValue.setBytes(bytes, 0, 0);
-			}
-
-			// Take copies as if anything goes wrong originals will be
-			// corrupted. This means original values can be logged.
-			// For performance - only done for debug
-			if (log.isDebugEnabled()) {
-				try {
-					origName.append(bytes, nameStart, nameEnd - nameStart);
-					if (valueStart >= 0) {
-						origValue.append(bytes, valueStart, valueEnd
-								- valueStart);
-					} else {
-						origValue.append(bytes, 0, 0);
-					}
-				} catch (IOException ioe) {
-					// Should never happen...
-					log.error(sm.getString("parameters.copyFail"), ioe);
-				}
-			}
-
-			try {
-				String name;
-				String value;
-
-				if (decodeName) {
-					urlDecode(tmpName);
-				}
-				tmpName.setCharset(charset);
-				name = tmpName.toString();
-
-				if (valueStart >= 0) {
-					if (decodeValue) {
-						urlDecode(tmpValue);
-					}
-					tmpValue.setCharset(charset);
-					value = tmpValue.toString();
-				} else {
-					value = "";
-				}
-
-				try {
-					addParameter(name, value);
-				} catch (IllegalStateException ise) {
-					// Hitting limit stops processing further params but does
-					// not cause request to fail.
-					parseFailed = true;
-					Mode logMode = maxParamCountLog.getNextMode();
-					if (logMode != null) {
-						String message = ise.getMessage();
-						switch (logMode) {
-						case INFO_THEN_DEBUG:
-							message += sm
-									.getString("parameters.maxCountFail.fallToDebug");
-							//$FALL-THROUGH$
-						case INFO:
-							log.info(message);
-							break;
-						case DEBUG:
-							log.debug(message);
-						}
-					}
-					break;
-				}
-			} catch (IOException e) {
+			if ((decodeName && !isDecodable(bytes, nameStart, nameEnd))
+					|| (decodeValue && !isDecodable(bytes, valueStart, valueEnd))) {
 				parseFailed = true;
 				decodeFailCount++;
 				if (decodeFailCount == 1 || log.isDebugEnabled()) {
+					String name = new String(bytes, nameStart,
+							nameEnd - nameStart, DEFAULT_CHARSET);
+					String value = (valueStart >= 0) ? new String(bytes,
+							valueStart, valueEnd - valueStart, DEFAULT_CHARSET)
+							: "";
 					if (log.isDebugEnabled()) {
 						log.debug(sm.getString("parameters.decodeFail.debug",
-								origName.toString(), origValue.toString()), e);
+								name, value));
 					} else if (log.isInfoEnabled()) {
 						Mode logMode = userDataLog.getNextMode();
 						if (logMode != null) {
 							String message = sm.getString(
-									"parameters.decodeFail.info",
-									tmpName.toString(), tmpValue.toString());
+									"parameters.decodeFail.info", name, value);
 							switch (logMode) {
 							case INFO_THEN_DEBUG:
 								message += sm
@@ -455,15 +643,44 @@ public final class Parameters {
 						}
 					}
 				}
+				continue;
 			}
 
-			tmpName.recycle();
-			tmpValue.recycle();
-			// Only recycle copies if we used them
-			if (log.isDebugEnabled()) {
-				origName.recycle();
-				origValue.recycle();
+			try {
+				countParameter();
+			} catch (IllegalStateException ise) {
+				// Hitting limit stops processing further params but does
+				// not cause request to fail.
+				parseFailed = true;
+				Mode logMode = maxParamCountLog.getNextMode();
+				if (logMode != null) {
+					String message = ise.getMessage();
+					switch (logMode) {
+					case INFO_THEN_DEBUG:
+						message += sm
+								.getString("parameters.maxCountFail.fallToDebug");
+						//$FALL-THROUGH$
+					case INFO:
+						log.info(message);
+						break;
+					case DEBUG:
+						log.debug(message);
+					}
+				}
+				break;
 			}
+
+			if (source < 0) {
+				source = addSource(bytes, charset);
+			}
+			int flags = 0;
+			if (decodeName) {
+				flags |= DECODE_NAME;
+			}
+			if (decodeValue) {
+				flags |= DECODE_VALUE;
+			}
+			addEntry(source, nameStart, nameEnd, valueStart, valueEnd, flags);
 		}
 
 		if (decodeFailCount > 1 && !log.isDebugEnabled()) {
@@ -486,6 +703,28 @@ public final class Parameters {
 		}
 	}
 
+	/**
+	 * Checks that the given bytes can be URL-decoded, as done by
+	 * {@link UDecoder#convert(ByteChunk, boolean)} for a query.
+	 */
+	private static boolean isDecodable(byte[] bytes, int start, int end) {
+		for (int j = start; j < end; j++) {
+			if (bytes[j] == '%') {
+				if (j + 2 >= end || !isHexDigit(bytes[j + 1])
+						|| !isHexDigit(bytes[j + 2])) {
+					return false;
+				}
+				j += 2;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isHexDigit(int c) {
+		return ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+				|| (c >= 'A' && c <= 'F'));
+	}
+
 	private void urlDecode(ByteChunk bc) throws IOException {
 		if (urlDec == null) {
 			urlDec = new UDecoder();
@@ -522,7 +761,7 @@ public final class Parameters {
 	 */
 	public String paramsAsString() {
 		StringBuilder sb = new StringBuilder();
-		for (Map.Entry<String, ArrayList<String>> e : paramHashValues
+		for (Map.Entry<String, ArrayList<String>> e : getParamHashValues()
 				.entrySet()) {
 			sb.append(e.getKey()).append('=');
 			ArrayList<String> values = e.getValue();
@@ -574,22 +813,6 @@ public final class Parameters {
 		this.parameterCount = parameterCount;
 	}
 
-	public ByteChunk getTmpName() {
-		return tmpName;
-	}
-
-	public void setTmpName(ByteChunk tmpName) {
-		this.tmpName = tmpName;
-	}
-
-	public ByteChunk getTmpValue() {
-		return tmpValue;
-	}
-
-	public void setTmpValue(ByteChunk tmpValue) {
-		this.tmpValue = tmpValue;
-	}
-
 	public CharChunk getTmpNameC() {
 		return tmpNameC;
 	}
@@ -615,6 +838,9 @@ public final class Parameters {
 	}
 
 	public Map<String, ArrayList<String>> getParamHashValues() {
+		if (!mapped) {
+			map();
+		}
 		return paramHashValues;
 	}
 
@@ -626,14 +852,6 @@ public final class Parameters {
 		return limit;
 	}
 
-	public ByteChunk getOrigName() {
-		return origName;
-	}
-
-	public ByteChunk getOrigValue() {
-		return origValue;
-	}
-
 	public static String getDefaultEncoding() {
 		return DEFAULT_ENCODING;
 	}
@@ -19,17 +19,25 @@ package org.apache.tomcat.util.http.parser;
 import java.io.IOException;
 import java.io.StringReader;
 
-import org.apache.tomcat.util.collections.ConcurrentCache2;
+import org.apache.tomcat.util.collections.ConcurrentLfuCache;
+import org.apache.tomcat.util.collections.ConcurrentLfuCacheMBean;
 
 /**
  * Caches the results of parsing content-type headers.
  */
 public class MediaTypeCache {
 
-    private final ConcurrentCache2<String,String[]> cache;
+    private final ConcurrentLfuCache<String,String[]> cache;
 
     public MediaTypeCache(int size) {
-        cache = new ConcurrentCache2<String,String[]>(size);
+        cache = new ConcurrentLfuCache<String,String[]>(size);
+    }
+
+    /**
+     * The statistics of the cache, to register with JMX.
+     */
+    public ConcurrentLfuCacheMBean getStatistics() {
+        return cache;
     }
 
     /**
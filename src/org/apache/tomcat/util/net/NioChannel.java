@@ -136,6 +136,21 @@ public class NioChannel implements ByteChannel {
 		return getSc().write(src);
 	}
 
+	/**
+	 * Writes a sequence of bytes to this channel from the given buffers, with
+	 * a single gathering write on the socket.
+	 *
+	 * @param srcs
+	 *            The buffers from which bytes are to be retrieved
+	 * @return The number of bytes written, possibly zero
+	 * @throws IOException
+	 *             If some other I/O error occurs
+	 */
+	public long write(ByteBuffer[] srcs) throws IOException {
+		checkInterruptStatus();
+		return getSc().write(srcs);
+	}
+
 	/**
 	 * Reads a sequence of bytes from this channel into the given buffer.
 	 *
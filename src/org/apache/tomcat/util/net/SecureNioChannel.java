@@ -513,6 +513,20 @@ public class SecureNioChannel extends NioChannel  {
         }
     }
 
+    /**
+     * Only the first buffer with remaining bytes is written, data is wrapped
+     * from the application write buffer provided by the handler.
+     */
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            if (src.hasRemaining()) {
+                return write(src);
+            }
+        }
+        return 0;
+    }
+
     @Override
     public int getOutboundRemaining() {
         return netOutBuffer.remaining();